@@ -0,0 +1,256 @@
+/*
+ * Copyright (C)  Justson(https://github.com/Justson/Downloader)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.download.library;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 全局共享的IO缓冲区池，下载与文件校验从这里借用缓冲区，避免大量小文件同时下载时频繁分配内存。
+ * 缓冲区按固定的几个尺寸分级，按线程id分片保存以减少锁竞争，池中保留的总字节数不超过上限，
+ * 超出上限归还的缓冲区直接丢弃交给GC回收。
+ *
+ * @date 2026/10/18
+ * @since 4.2.0
+ */
+public final class BufferPool {
+
+    private static final String TAG = Runtime.PREFIX + BufferPool.class.getSimpleName();
+    /**
+     * 缓冲区尺寸分级
+     */
+    private static final int[] SIZES = {1024 * 4, 1024 * 16, 1024 * 64, 1024 * 256};
+    private static final int DEFAULT_SIZE = 1024 * 16;
+    private static final int STRIPES = 4;
+    private static final long DEFAULT_MAX_RETAINED_BYTES = 2L * 1024L * 1024L;
+    private static final BufferPool sInstance = new BufferPool();
+
+    private final Stripe[] mStripes = new Stripe[STRIPES];
+    private final AtomicLong mRetainedBytes = new AtomicLong(0L);
+    private final AtomicLong mHitCount = new AtomicLong(0L);
+    private final AtomicLong mMissCount = new AtomicLong(0L);
+    private volatile long mMaxRetainedBytes = DEFAULT_MAX_RETAINED_BYTES;
+    /**
+     * 最近的下载速度，字节/秒，用于估算缓冲区大小
+     */
+    private volatile long mLinkSpeed = 0L;
+
+    private BufferPool() {
+        for (int i = 0; i < STRIPES; i++) {
+            mStripes[i] = new Stripe();
+        }
+    }
+
+    public static BufferPool getInstance() {
+        return sInstance;
+    }
+
+    /**
+     * 按预期长度与最近的下载速度选择缓冲区大小，大约容纳100ms的数据，不超过预期长度
+     *
+     * @param expectedLength 预期读取的长度，未知时传入小于等于0的值
+     * @param speed          任务当前的平滑速度，为0时使用最近结束的传输记录的速度
+     */
+    int sizeFor(long expectedLength, long speed) {
+        long linkSpeed = speed > 0L ? speed : mLinkSpeed;
+        long size = linkSpeed > 0L ? linkSpeed / 10L : DEFAULT_SIZE;
+        if (expectedLength > 0L) {
+            size = Math.min(size, expectedLength);
+        }
+        for (int classSize : SIZES) {
+            if (size <= classSize) {
+                return classSize;
+            }
+        }
+        return SIZES[SIZES.length - 1];
+    }
+
+    /**
+     * 记录一次传输的吞吐量，平滑后作为下一次选择缓冲区大小的依据
+     */
+    void recordThroughput(long bytes, long millis) {
+        if (bytes <= 0L || millis <= 0L) {
+            return;
+        }
+        long speed = bytes * 1000L / millis;
+        long linkSpeed = mLinkSpeed;
+        mLinkSpeed = linkSpeed <= 0L ? speed : (linkSpeed * 3L + speed) / 4L;
+    }
+
+    /**
+     * @return 长度不小于size的缓冲区，使用完毕后通过 {@link #release(byte[])} 归还
+     */
+    byte[] acquire(int size) {
+        int index = indexOf(size);
+        if (index >= 0) {
+            byte[] buffer = (byte[]) poll(index, false);
+            if (null != buffer) {
+                return buffer;
+            }
+            size = SIZES[index];
+        }
+        mMissCount.incrementAndGet();
+        return new byte[size];
+    }
+
+    void release(byte[] buffer) {
+        if (null != buffer) {
+            offer(buffer, buffer.length, false);
+        }
+    }
+
+    /**
+     * @return 容量不小于size并且已经clear的直接内存缓冲区，使用完毕后通过 {@link #release(ByteBuffer)} 归还
+     */
+    ByteBuffer acquireDirect(int size) {
+        int index = indexOf(size);
+        if (index >= 0) {
+            ByteBuffer buffer = (ByteBuffer) poll(index, true);
+            if (null != buffer) {
+                buffer.clear();
+                return buffer;
+            }
+            size = SIZES[index];
+        }
+        mMissCount.incrementAndGet();
+        return ByteBuffer.allocateDirect(size);
+    }
+
+    void release(ByteBuffer buffer) {
+        if (null != buffer && buffer.isDirect()) {
+            offer(buffer, buffer.capacity(), true);
+        }
+    }
+
+    private Object poll(int index, boolean direct) {
+        int start = stripeIndex();
+        for (int i = 0; i < STRIPES; i++) {
+            Stripe stripe = mStripes[(start + i) % STRIPES];
+            Object buffer;
+            synchronized (stripe) {
+                Bucket bucket = stripe.buckets[index];
+                buffer = direct ? bucket.directs.poll() : bucket.arrays.poll();
+            }
+            if (null != buffer) {
+                mRetainedBytes.addAndGet(-SIZES[index]);
+                mHitCount.incrementAndGet();
+                return buffer;
+            }
+        }
+        return null;
+    }
+
+    private void offer(Object buffer, int size, boolean direct) {
+        int index = indexOf(size);
+        if (index < 0 || SIZES[index] != size) {
+            return;
+        }
+        long retained;
+        do {
+            retained = mRetainedBytes.get();
+            if (retained + size > mMaxRetainedBytes) {
+                return;
+            }
+        } while (!mRetainedBytes.compareAndSet(retained, retained + size));
+        Stripe stripe = mStripes[stripeIndex()];
+        synchronized (stripe) {
+            Bucket bucket = stripe.buckets[index];
+            if (direct) {
+                bucket.directs.offer((ByteBuffer) buffer);
+            } else {
+                bucket.arrays.offer((byte[]) buffer);
+            }
+        }
+    }
+
+    private static int indexOf(int size) {
+        for (int i = 0; i < SIZES.length; i++) {
+            if (size <= SIZES[i]) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private static int stripeIndex() {
+        return (int) (Thread.currentThread().getId() % STRIPES);
+    }
+
+    /**
+     * 池中最多保留的字节数，默认2MB，设置为0时不再缓存
+     */
+    public void setMaxRetainedBytes(long maxRetainedBytes) {
+        this.mMaxRetainedBytes = Math.max(0L, maxRetainedBytes);
+        if (mRetainedBytes.get() > this.mMaxRetainedBytes) {
+            clear();
+        }
+    }
+
+    public long getMaxRetainedBytes() {
+        return mMaxRetainedBytes;
+    }
+
+    public long getRetainedBytes() {
+        return mRetainedBytes.get();
+    }
+
+    public long getHitCount() {
+        return mHitCount.get();
+    }
+
+    public long getMissCount() {
+        return mMissCount.get();
+    }
+
+    public void clear() {
+        for (Stripe stripe : mStripes) {
+            long released = 0L;
+            synchronized (stripe) {
+                for (int i = 0; i < SIZES.length; i++) {
+                    Bucket bucket = stripe.buckets[i];
+                    released += (long) SIZES[i] * (bucket.arrays.size() + bucket.directs.size());
+                    bucket.arrays.clear();
+                    bucket.directs.clear();
+                }
+            }
+            mRetainedBytes.addAndGet(-released);
+        }
+        Runtime.getInstance().log(TAG, "clear , hit:" + mHitCount.get() + " miss:" + mMissCount.get());
+    }
+
+    private static final class Stripe {
+        /**
+         * 按尺寸分级，下标与 {@link #SIZES} 对应
+         */
+        final Bucket[] buckets = new Bucket[SIZES.length];
+
+        Stripe() {
+            for (int i = 0; i < SIZES.length; i++) {
+                buckets[i] = new Bucket();
+            }
+        }
+    }
+
+    /**
+     * 同一尺寸的空闲缓冲区
+     */
+    private static final class Bucket {
+        final ArrayDeque<byte[]> arrays = new ArrayDeque<>();
+        final ArrayDeque<ByteBuffer> directs = new ArrayDeque<>();
+    }
+}
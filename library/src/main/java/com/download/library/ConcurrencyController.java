@@ -0,0 +1,240 @@
+/*
+ * Copyright (C)  Justson(https://github.com/Justson/Downloader)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.download.library;
+
+import android.os.SystemClock;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 根据总吞吐量以及请求延迟调整同时执行的并行下载数（AIMD）：有任务等待且吞吐量仍在增长时每个周期加1，
+ * 延迟明显高于基准或者增加后吞吐量下降时乘以3/4，增加后没有收益时回退1并暂停增加若干周期。
+ * 每次调整都会记录输入以及结果，使用自定义 {@link Clock} 重新输入相同的数据会得到相同的结果。
+ * 通过 {@link DownloadScheduler#setConcurrencyController(ConcurrencyController)} 启用。
+ *
+ * @date 2026/10/18
+ * @since 4.2.0
+ */
+public final class ConcurrencyController {
+
+    private static final String TAG = Runtime.PREFIX + ConcurrencyController.class.getSimpleName();
+    private static final int MAX_DECISIONS = 64;
+    /**
+     * 延迟超过基准的倍数视为拥塞
+     */
+    private static final int LATENCY_TOLERANCE = 2;
+    /**
+     * 增加后没有收益，暂停增加的周期数
+     */
+    private static final int HOLD_WINDOWS = 5;
+
+    public static final String REASON_INCREASE = "increase";
+    public static final String REASON_LATENCY = "latency";
+    public static final String REASON_THROUGHPUT_DROP = "throughput drop";
+    public static final String REASON_NO_GAIN = "no gain";
+    public static final String REASON_HOLD = "hold";
+
+    private final int mMinLimit;
+    private final int mMaxLimit;
+    private final Clock mClock;
+    private final long mSampleInterval;
+    private final AtomicLong mBytes = new AtomicLong(0L);
+    private volatile long mWindowStart;
+    private volatile int mLimit;
+    private long mLatencySum = 0L;
+    private int mLatencyCount = 0;
+    /**
+     * 基准延迟，取观察到的较低值，缓慢向上修正
+     */
+    private long mBaseLatency = 0L;
+    private long mLastThroughput = 0L;
+    private String mLastReason = REASON_HOLD;
+    private int mHoldWindows = 0;
+    private final ArrayDeque<Decision> mDecisions = new ArrayDeque<>();
+
+    public ConcurrencyController(int minLimit, int maxLimit) {
+        this(minLimit, maxLimit, 2000L, new Clock() {
+            @Override
+            public long elapsedRealtime() {
+                return SystemClock.elapsedRealtime();
+            }
+        });
+    }
+
+    /**
+     * @param sampleInterval 调整周期，单位毫秒
+     */
+    public ConcurrencyController(int minLimit, int maxLimit, long sampleInterval, Clock clock) {
+        this.mMinLimit = Math.max(1, minLimit);
+        this.mMaxLimit = Math.max(mMinLimit, maxLimit);
+        this.mSampleInterval = Math.max(1L, sampleInterval);
+        this.mClock = clock;
+        this.mLimit = mMinLimit;
+        this.mWindowStart = clock.elapsedRealtime();
+    }
+
+    public int getLimit() {
+        return mLimit;
+    }
+
+    /**
+     * 安装到调度器时从调度器当前的并行数开始调整，而不是从下限开始，避免安装后并行数骤降
+     *
+     * @param limit 调度器当前的并行数，超出范围时取最近的边界
+     */
+    synchronized void start(int limit) {
+        mLimit = Math.min(mMaxLimit, Math.max(mMinLimit, limit));
+        mBytes.set(0L);
+        mLatencySum = 0L;
+        mLatencyCount = 0;
+        mWindowStart = mClock.elapsedRealtime();
+    }
+
+    public int getMinLimit() {
+        return mMinLimit;
+    }
+
+    public int getMaxLimit() {
+        return mMaxLimit;
+    }
+
+    /**
+     * 写入文件的字节数
+     */
+    void onTransferred(long bytes) {
+        mBytes.addAndGet(bytes);
+    }
+
+    /**
+     * 一次请求从发出到收到响应头的耗时
+     */
+    synchronized void onLatency(long millis) {
+        mLatencySum += Math.max(0L, millis);
+        mLatencyCount++;
+    }
+
+    /**
+     * 周期未结束时直接返回
+     *
+     * @param demand 是否有任务因为并行数上限而等待
+     * @return 并行数是否改变
+     */
+    boolean evaluate(boolean demand) {
+        if (mClock.elapsedRealtime() - mWindowStart < mSampleInterval) {
+            return false;
+        }
+        Decision decision;
+        synchronized (this) {
+            long now = mClock.elapsedRealtime();
+            long elapsed = now - mWindowStart;
+            if (elapsed < mSampleInterval) {
+                return false;
+            }
+            long throughput = mBytes.getAndSet(0L) * 1000L / elapsed;
+            long latency = mLatencyCount == 0 ? 0L : mLatencySum / mLatencyCount;
+            mLatencySum = 0L;
+            mLatencyCount = 0;
+            mWindowStart = now;
+            decision = decide(now, throughput, latency, demand);
+        }
+        if (decision.from != decision.to) {
+            Runtime.getInstance().log(TAG, decision.toString());
+        }
+        return decision.from != decision.to;
+    }
+
+    private Decision decide(long now, long throughput, long latency, boolean demand) {
+        int from = mLimit;
+        int to = from;
+        String reason = REASON_HOLD;
+        if (mHoldWindows > 0) {
+            mHoldWindows--;
+        }
+        if (latency > 0L && mBaseLatency > 0L && latency > mBaseLatency * LATENCY_TOLERANCE) {
+            to = Math.max(mMinLimit, from * 3 / 4);
+            reason = REASON_LATENCY;
+        } else if (REASON_INCREASE.equals(mLastReason) && throughput < mLastThroughput * 4L / 5L) {
+            to = Math.max(mMinLimit, from * 3 / 4);
+            reason = REASON_THROUGHPUT_DROP;
+        } else if (REASON_INCREASE.equals(mLastReason) && throughput < mLastThroughput * 21L / 20L) {
+            to = Math.max(mMinLimit, from - 1);
+            mHoldWindows = HOLD_WINDOWS;
+            reason = REASON_NO_GAIN;
+        } else if (demand && mHoldWindows == 0 && from < mMaxLimit) {
+            to = from + 1;
+            reason = REASON_INCREASE;
+        }
+        if (latency > 0L) {
+            mBaseLatency = mBaseLatency <= 0L || latency < mBaseLatency ? latency : mBaseLatency + (latency - mBaseLatency) / 16L;
+        }
+        mLastThroughput = throughput;
+        mLastReason = reason;
+        mLimit = to;
+        Decision decision = new Decision(now, throughput, latency, demand, from, to, reason);
+        if (mDecisions.size() >= MAX_DECISIONS) {
+            mDecisions.removeFirst();
+        }
+        mDecisions.addLast(decision);
+        return decision;
+    }
+
+    /**
+     * @return 最近的调整记录，从旧到新
+     */
+    public synchronized List<Decision> getDecisions() {
+        return new ArrayList<>(mDecisions);
+    }
+
+    public interface Clock {
+        long elapsedRealtime();
+    }
+
+    public static final class Decision {
+        public final long time;
+        /**
+         * 周期内的总吞吐量，字节每秒
+         */
+        public final long throughput;
+        /**
+         * 周期内请求的平均延迟，没有请求时为0
+         */
+        public final long latency;
+        public final boolean demand;
+        public final int from;
+        public final int to;
+        public final String reason;
+
+        Decision(long time, long throughput, long latency, boolean demand, int from, int to, String reason) {
+            this.time = time;
+            this.throughput = throughput;
+            this.latency = latency;
+            this.demand = demand;
+            this.from = from;
+            this.to = to;
+            this.reason = reason;
+        }
+
+        @Override
+        public String toString() {
+            return "Decision{time=" + time + ", throughput=" + throughput + ", latency=" + latency + ", demand=" + demand
+                    + ", " + from + "->" + to + ", reason=" + reason + "}";
+        }
+    }
+}
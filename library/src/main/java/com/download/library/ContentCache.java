@@ -0,0 +1,479 @@
+/*
+ * Copyright (C)  Justson(https://github.com/Justson/Downloader)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.download.library;
+
+import android.os.Build;
+import android.system.ErrnoException;
+import android.system.Os;
+import android.text.TextUtils;
+
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * 按内容寻址的下载缓存，key为任务声明的摘要或者服务端返回的ETag，与URL无关，镜像地址以及带token的地址可以命中同一份内容。
+ * 命中时通过硬链接（跨文件系统时复制）直接得到目标文件，不再请求网络；同一摘要的任务同时下载时只有一个任务真正传输，
+ * 其他任务等待其完成后从缓存得到文件。缓存按最近使用顺序（LRU）淘汰，总大小不超过配额。
+ * 默认关闭，调用 {@link #setDirectory(File, long)} 后生效。
+ * <p>
+ * 缓存文件与目标文件为硬链接时共享同一份数据，直接修改目标文件内容会同时修改缓存，命中时只校验长度。
+ *
+ * @date 2026/10/18
+ * @since 4.2.0
+ */
+public final class ContentCache {
+
+    private static final String TAG = Runtime.PREFIX + ContentCache.class.getSimpleName();
+    private static final String INDEX = "index";
+    private static final ContentCache sInstance = new ContentCache();
+
+    private File mDirectory;
+    private long mMaxSize;
+    private long mSize;
+    private boolean mLoaded;
+    /**
+     * 文件名 -> 缓存项，按访问顺序排列，最久未使用的在最前
+     */
+    private final LinkedHashMap<String, Entry> mEntries = new LinkedHashMap<>(16, 0.75F, true);
+    /**
+     * 摘要或ETag -> 缓存项，同一内容可以有多个key
+     */
+    private final Map<String, Entry> mKeys = new HashMap<>();
+    /**
+     * 正在下载的内容，key -> 下载该内容的任务
+     */
+    private final Map<String, DownloadTask> mInFlight = new HashMap<>();
+    private long mHitCount;
+    private long mRequestCount;
+
+    private ContentCache() {
+    }
+
+    public static ContentCache getInstance() {
+        return sInstance;
+    }
+
+    /**
+     * 开启缓存
+     *
+     * @param directory 缓存目录，与下载目录位于同一文件系统时可以使用硬链接，为null时关闭缓存
+     * @param maxSize   缓存总大小的上限
+     */
+    public synchronized void setDirectory(File directory, long maxSize) {
+        this.mDirectory = directory;
+        this.mMaxSize = Math.max(0L, maxSize);
+        this.mEntries.clear();
+        this.mKeys.clear();
+        this.mSize = 0L;
+        this.mLoaded = false;
+        if (null != directory) {
+            trimToSize();
+        }
+    }
+
+    public synchronized boolean isEnabled() {
+        return null != mDirectory;
+    }
+
+    /**
+     * 任务声明的校验摘要，没有声明时返回null
+     */
+    static String digestKey(DownloadTask downloadTask) {
+        String algorithm = downloadTask.getVerifyAlgorithm();
+        if (null == algorithm) {
+            return null;
+        }
+        String digest = downloadTask.getTargetDigest(algorithm);
+        return TextUtils.isEmpty(digest) ? null : algorithm + ":" + digest.trim().toLowerCase(Locale.US);
+    }
+
+    /**
+     * 弱ETag不保证内容逐字节一致，不能作为key；ETag只在服务端内唯一，key包含协议、host以及端口，
+     * 不同服务端相同的ETag不会命中彼此的内容，同时比较长度降低冲突
+     *
+     * @param url 返回该ETag的链接（重定向之后）
+     */
+    static String etagKey(String url, String etag, long length) {
+        if (TextUtils.isEmpty(etag) || etag.startsWith("W/") || length <= 0L) {
+            return null;
+        }
+        String host = null == url ? "" : DownloadScheduler.hostOf(url);
+        if (host.isEmpty()) {
+            return null;
+        }
+        return "etag:" + host + ":" + etag + ":" + length;
+    }
+
+    /**
+     * @return 命中的缓存文件，未命中时返回null
+     */
+    synchronized File get(String key) {
+        if (null == mDirectory || null == key) {
+            return null;
+        }
+        ensureLoaded();
+        mRequestCount++;
+        Entry entry = mKeys.get(key);
+        if (null == entry) {
+            return null;
+        }
+        File file = new File(mDirectory, entry.name);
+        if (file.length() != entry.length) {
+            Runtime.getInstance().logError(TAG, "cache file broken , key:" + key);
+            remove(entry);
+            writeIndex();
+            return null;
+        }
+        mEntries.get(entry.name);
+        mHitCount++;
+        writeIndex();
+        return file;
+    }
+
+    /**
+     * 获取缓存，同一内容已经有其他任务在下载时等待其完成，任务暂停或者取消时停止等待
+     *
+     * @return 命中的缓存文件；返回null时如果任务没有停止，则由该任务下载，结束后需要调用 {@link #release(DownloadTask)}
+     */
+    synchronized File acquire(String key, DownloadTask downloadTask) {
+        while (null != mDirectory) {
+            File file = get(key);
+            if (null != file) {
+                return file;
+            }
+            DownloadTask owner = mInFlight.get(key);
+            if (null == owner || owner == downloadTask) {
+                mInFlight.put(key, downloadTask);
+                return null;
+            }
+            if (downloadTask.isPausing() || downloadTask.isPaused() || downloadTask.isCanceled()) {
+                return null;
+            }
+            Runtime.getInstance().log(TAG, "wait for in-flight download , key:" + key + " url:" + owner.getUrl());
+            try {
+                wait(500L);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return null;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * 任务结束，唤醒等待同一内容的任务
+     */
+    synchronized void release(DownloadTask downloadTask) {
+        Iterator<DownloadTask> iterator = mInFlight.values().iterator();
+        boolean released = false;
+        while (iterator.hasNext()) {
+            if (iterator.next() == downloadTask) {
+                iterator.remove();
+                released = true;
+            }
+        }
+        if (released) {
+            notifyAll();
+        }
+    }
+
+    /**
+     * 下载完成并且校验通过的文件加入缓存
+     */
+    void put(File file, String... keys) {
+        List<String> valid = new ArrayList<>();
+        for (String key : keys) {
+            if (null != key) {
+                valid.add(key);
+            }
+        }
+        File directory;
+        synchronized (this) {
+            directory = mDirectory;
+            if (null == directory || valid.isEmpty() || file.length() > mMaxSize) {
+                return;
+            }
+            ensureLoaded();
+            for (String key : valid) {
+                Entry entry = mKeys.get(key);
+                if (null != entry && new File(directory, entry.name).length() == entry.length) {
+                    // 内容已存在，补充新的key
+                    for (String other : valid) {
+                        addKey(entry, other);
+                    }
+                    writeIndex();
+                    return;
+                }
+            }
+        }
+        String name = Runtime.getInstance().md5(valid.get(0));
+        synchronized (this) {
+            Entry old = mEntries.get(name);
+            if (null != old) {
+                remove(old);
+            }
+        }
+        File cached = new File(directory, name);
+        if (!copy(file, cached)) {
+            return;
+        }
+        synchronized (this) {
+            if (directory != mDirectory) {
+                cached.delete();
+                return;
+            }
+            Entry entry = new Entry(name, file.length());
+            mEntries.put(name, entry);
+            mSize += entry.length;
+            for (String key : valid) {
+                addKey(entry, key);
+            }
+            trimToSize();
+            writeIndex();
+            Runtime.getInstance().log(TAG, "cached:" + file.getName() + " keys:" + valid + " size:" + mSize);
+        }
+    }
+
+    /**
+     * 优先建立硬链接，不支持时复制，先写入临时文件再重命名，目标文件不会出现不完整的内容
+     */
+    static boolean copy(File source, File target) {
+        File tmp = new File(target.getParentFile(), target.getName() + ".cache");
+        tmp.delete();
+        if (!link(source, tmp) && !transfer(source, tmp)) {
+            tmp.delete();
+            return false;
+        }
+        if (!tmp.renameTo(target)) {
+            target.delete();
+            if (!tmp.renameTo(target)) {
+                tmp.delete();
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean link(File source, File target) {
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.LOLLIPOP) {
+            return false;
+        }
+        try {
+            Os.link(source.getAbsolutePath(), target.getAbsolutePath());
+            return true;
+        } catch (ErrnoException e) {
+            // 跨文件系统（EXDEV）或者文件系统不支持硬链接
+            Runtime.getInstance().log(TAG, "link error , errno:" + e.errno);
+            return false;
+        }
+    }
+
+    private static boolean transfer(File source, File target) {
+        FileInputStream in = null;
+        FileOutputStream out = null;
+        try {
+            in = new FileInputStream(source);
+            out = new FileOutputStream(target);
+            FileChannel inChannel = in.getChannel();
+            FileChannel outChannel = out.getChannel();
+            long size = inChannel.size();
+            long position = 0L;
+            while (position < size) {
+                position += inChannel.transferTo(position, size - position, outChannel);
+            }
+            out.getFD().sync();
+            return true;
+        } catch (IOException e) {
+            Runtime.getInstance().logError(TAG, "copy error:" + e.getMessage());
+            return false;
+        } finally {
+            closeQuietly(in);
+            closeQuietly(out);
+        }
+    }
+
+    private void addKey(Entry entry, String key) {
+        Entry old = mKeys.put(key, entry);
+        if (null != old && old != entry) {
+            old.keys.remove(key);
+        }
+        entry.keys.add(key);
+    }
+
+    private void remove(Entry entry) {
+        mEntries.remove(entry.name);
+        mSize -= entry.length;
+        for (String key : entry.keys) {
+            if (mKeys.get(key) == entry) {
+                mKeys.remove(key);
+            }
+        }
+        new File(mDirectory, entry.name).delete();
+    }
+
+    private void trimToSize() {
+        ensureLoaded();
+        Iterator<Entry> iterator = mEntries.values().iterator();
+        while (mSize > mMaxSize && iterator.hasNext()) {
+            Entry entry = iterator.next();
+            iterator.remove();
+            mSize -= entry.length;
+            for (String key : entry.keys) {
+                if (mKeys.get(key) == entry) {
+                    mKeys.remove(key);
+                }
+            }
+            new File(mDirectory, entry.name).delete();
+            Runtime.getInstance().log(TAG, "evict:" + entry.name + " length:" + entry.length);
+        }
+    }
+
+    /**
+     * 索引每行为：文件名 长度 key...，以制表符分隔，按最近使用顺序排列
+     */
+    private void ensureLoaded() {
+        if (mLoaded) {
+            return;
+        }
+        mLoaded = true;
+        File index = new File(mDirectory, INDEX);
+        if (!index.isFile()) {
+            mDirectory.mkdirs();
+            return;
+        }
+        BufferedReader reader = null;
+        try {
+            reader = new BufferedReader(new FileReader(index));
+            String line;
+            while ((line = reader.readLine()) != null) {
+                String[] fields = line.split("\t");
+                if (fields.length < 3) {
+                    continue;
+                }
+                Entry entry = new Entry(fields[0], Long.parseLong(fields[1]));
+                if (new File(mDirectory, entry.name).length() != entry.length) {
+                    continue;
+                }
+                mEntries.put(entry.name, entry);
+                mSize += entry.length;
+                for (int i = 2; i < fields.length; i++) {
+                    addKey(entry, fields[i]);
+                }
+            }
+        } catch (IOException | NumberFormatException e) {
+            Runtime.getInstance().logError(TAG, "read index error:" + e.getMessage());
+        } finally {
+            closeQuietly(reader);
+        }
+    }
+
+    private void writeIndex() {
+        File tmp = new File(mDirectory, INDEX + ".tmp");
+        Writer writer = null;
+        try {
+            writer = new OutputStreamWriter(new FileOutputStream(tmp), "UTF-8");
+            for (Entry entry : mEntries.values()) {
+                writer.write(entry.name);
+                writer.write('\t');
+                writer.write(String.valueOf(entry.length));
+                for (String key : entry.keys) {
+                    writer.write('\t');
+                    writer.write(key);
+                }
+                writer.write('\n');
+            }
+            writer.close();
+            writer = null;
+            if (!tmp.renameTo(new File(mDirectory, INDEX))) {
+                Runtime.getInstance().logError(TAG, "write index error");
+            }
+        } catch (IOException e) {
+            Runtime.getInstance().logError(TAG, "write index error:" + e.getMessage());
+        } finally {
+            closeQuietly(writer);
+        }
+    }
+
+    private static void closeQuietly(Closeable closeable) {
+        if (null == closeable) {
+            return;
+        }
+        try {
+            closeable.close();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * 清空缓存
+     */
+    public synchronized void clear() {
+        if (null == mDirectory) {
+            return;
+        }
+        ensureLoaded();
+        for (Entry entry : new ArrayList<>(mEntries.values())) {
+            remove(entry);
+        }
+        writeIndex();
+    }
+
+    public synchronized long getSize() {
+        return mSize;
+    }
+
+    public synchronized int getEntryCount() {
+        return mEntries.size();
+    }
+
+    /**
+     * @return 查询缓存的命中率
+     */
+    public synchronized float getHitRate() {
+        return mRequestCount == 0L ? 0F : (float) mHitCount / mRequestCount;
+    }
+
+    private static final class Entry {
+        final String name;
+        final long length;
+        final Set<String> keys = new LinkedHashSet<>();
+
+        Entry(String name, long length) {
+            this.name = name;
+            this.length = length;
+        }
+    }
+}
@@ -0,0 +1,382 @@
+/*
+ * Copyright (C)  Justson(https://github.com/Justson/Downloader)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.download.library;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Collection;
+import java.util.Locale;
+import java.util.zip.CRC32;
+import java.util.zip.Checksum;
+
+/**
+ * 文件校验使用的摘要算法，支持 MD5、SHA-1、SHA-256、CRC32、CRC32C。
+ * SHA 使用系统 {@link MessageDigest}，CRC32 使用 {@link CRC32}，CRC32C 在系统提供 java.util.zip.CRC32C 时使用系统实现，
+ * 否则使用查表实现。同一个文件提供多种摘要时使用计算开销最低的一种校验，见 {@link #cheapest(Collection)}。
+ *
+ * @date 2026/10/18
+ * @since 4.2.0
+ */
+public abstract class Digest {
+
+    public static final String MD5 = "MD5";
+    public static final String SHA1 = "SHA-1";
+    public static final String SHA256 = "SHA-256";
+    public static final String CRC32 = "CRC32";
+    public static final String CRC32C = "CRC32C";
+    /**
+     * 按计算开销从低到高排列
+     */
+    private static final String[] ALGORITHMS = {CRC32, CRC32C, MD5, SHA1, SHA256};
+    private static final int CRC32_POLY = 0xedb88320;
+    private static final int CRC32C_POLY = 0x82f63b78;
+
+    Digest() {
+    }
+
+    abstract String getAlgorithm();
+
+    /**
+     * @return 已经计算的字节数
+     */
+    abstract long getLength();
+
+    abstract void update(byte[] input, int offset, int length);
+
+    /**
+     * 不改变当前状态，可以继续update
+     *
+     * @return 小写十六进制
+     */
+    abstract String hexDigest();
+
+    /**
+     * @return 中间状态，算法不支持持久化时返回null，续传后需要重新计算已下载的部分
+     */
+    abstract byte[] exportState();
+
+    /**
+     * @return 规范的算法名，不支持时返回null
+     */
+    public static String normalize(String algorithm) {
+        if (null == algorithm) {
+            return null;
+        }
+        String name = algorithm.trim().toUpperCase(Locale.US);
+        if ("SHA1".equals(name)) {
+            return SHA1;
+        }
+        if ("SHA256".equals(name)) {
+            return SHA256;
+        }
+        for (String supported : ALGORITHMS) {
+            if (supported.equals(name)) {
+                return supported;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @return 计算开销最低的算法，没有支持的算法时返回null
+     */
+    static String cheapest(Collection<String> algorithms) {
+        for (String algorithm : ALGORITHMS) {
+            if (algorithms.contains(algorithm)) {
+                return algorithm;
+            }
+        }
+        return null;
+    }
+
+    static Digest create(String algorithm) {
+        algorithm = normalize(algorithm);
+        if (MD5.equals(algorithm)) {
+            return new ResumableMd5();
+        }
+        if (CRC32.equals(algorithm)) {
+            return new ChecksumDigest(CRC32, 0L, 0L);
+        }
+        if (CRC32C.equals(algorithm)) {
+            return new ChecksumDigest(CRC32C, 0L, 0L);
+        }
+        if (SHA1.equals(algorithm) || SHA256.equals(algorithm)) {
+            try {
+                return new MessageDigestImpl(algorithm, MessageDigest.getInstance(algorithm));
+            } catch (NoSuchAlgorithmException e) {
+                throw new IllegalArgumentException(e);
+            }
+        }
+        throw new IllegalArgumentException("unsupported digest algorithm:" + algorithm);
+    }
+
+    /**
+     * @return 状态无效或者算法不支持持久化时返回null
+     */
+    static Digest restore(String algorithm, byte[] state) {
+        algorithm = normalize(algorithm);
+        if (MD5.equals(algorithm)) {
+            return ResumableMd5.restore(state);
+        }
+        if ((CRC32.equals(algorithm) || CRC32C.equals(algorithm)) && null != state && state.length == 16) {
+            DataInputStream in = new DataInputStream(new ByteArrayInputStream(state));
+            try {
+                long value = in.readLong();
+                long length = in.readLong();
+                if (length < 0L || value < 0L || value > 0xffffffffL) {
+                    return null;
+                }
+                return new ChecksumDigest(algorithm, value, length);
+            } catch (IOException e) {
+                return null;
+            }
+        }
+        return null;
+    }
+
+    private static final class MessageDigestImpl extends Digest {
+        private final String mAlgorithm;
+        private final MessageDigest mMessageDigest;
+        private long mLength = 0L;
+
+        MessageDigestImpl(String algorithm, MessageDigest messageDigest) {
+            this.mAlgorithm = algorithm;
+            this.mMessageDigest = messageDigest;
+        }
+
+        @Override
+        String getAlgorithm() {
+            return mAlgorithm;
+        }
+
+        @Override
+        long getLength() {
+            return mLength;
+        }
+
+        @Override
+        void update(byte[] input, int offset, int length) {
+            mMessageDigest.update(input, offset, length);
+            mLength += length;
+        }
+
+        @Override
+        String hexDigest() {
+            byte[] digest;
+            try {
+                digest = ((MessageDigest) mMessageDigest.clone()).digest();
+            } catch (CloneNotSupportedException e) {
+                throw new IllegalStateException(e);
+            }
+            StringBuilder builder = new StringBuilder(digest.length * 2);
+            for (byte b : digest) {
+                builder.append(Character.forDigit((b >>> 4) & 0xf, 16)).append(Character.forDigit(b & 0xf, 16));
+            }
+            return builder.toString();
+        }
+
+        @Override
+        byte[] exportState() {
+            return null;
+        }
+    }
+
+    /**
+     * CRC 类校验和。续传时不能把中间值设置回 {@link Checksum}，
+     * 因此保存已计算部分的值与长度，新数据单独计算后按 zlib crc32_combine 的方法合并。
+     */
+    private static final class ChecksumDigest extends Digest {
+        private final String mAlgorithm;
+        private final int mPoly;
+        private final Checksum mChecksum;
+        private final long mBaseValue;
+        private final long mBaseLength;
+        private long mLength = 0L;
+
+        ChecksumDigest(String algorithm, long baseValue, long baseLength) {
+            this.mAlgorithm = algorithm;
+            this.mPoly = CRC32.equals(algorithm) ? CRC32_POLY : CRC32C_POLY;
+            this.mChecksum = CRC32.equals(algorithm) ? new CRC32() : newCrc32c();
+            this.mBaseValue = baseValue;
+            this.mBaseLength = baseLength;
+        }
+
+        @Override
+        String getAlgorithm() {
+            return mAlgorithm;
+        }
+
+        @Override
+        long getLength() {
+            return mBaseLength + mLength;
+        }
+
+        @Override
+        void update(byte[] input, int offset, int length) {
+            mChecksum.update(input, offset, length);
+            mLength += length;
+        }
+
+        private long value() {
+            if (mBaseLength == 0L) {
+                return mChecksum.getValue();
+            }
+            return combine(mBaseValue, mChecksum.getValue(), mLength, mPoly);
+        }
+
+        @Override
+        String hexDigest() {
+            return String.format(Locale.US, "%08x", value());
+        }
+
+        @Override
+        byte[] exportState() {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream(16);
+            DataOutputStream out = new DataOutputStream(bytes);
+            try {
+                out.writeLong(value());
+                out.writeLong(getLength());
+                out.flush();
+            } catch (IOException ignore) {
+            }
+            return bytes.toByteArray();
+        }
+    }
+
+    private static Checksum newCrc32c() {
+        try {
+            return (Checksum) Class.forName("java.util.zip.CRC32C").getDeclaredConstructor().newInstance();
+        } catch (Exception ignore) {
+            // ReflectiveOperationException 在 API 19 以下不存在，minSdk 为14，这里不能直接捕获
+            return new Crc32c();
+        }
+    }
+
+    /**
+     * crc(A) 与 crc(B) 合并为 crc(A+B)，length2 为B的长度
+     */
+    static long combine(long crc1, long crc2, long length2, int poly) {
+        if (length2 <= 0L) {
+            return crc1;
+        }
+        long[] even = new long[32];
+        long[] odd = new long[32];
+        odd[0] = poly & 0xffffffffL;
+        long row = 1L;
+        for (int n = 1; n < 32; n++) {
+            odd[n] = row;
+            row <<= 1;
+        }
+        square(even, odd);
+        square(odd, even);
+        do {
+            square(even, odd);
+            if ((length2 & 1L) != 0L) {
+                crc1 = times(even, crc1);
+            }
+            length2 >>= 1;
+            if (length2 == 0L) {
+                break;
+            }
+            square(odd, even);
+            if ((length2 & 1L) != 0L) {
+                crc1 = times(odd, crc1);
+            }
+            length2 >>= 1;
+        } while (length2 != 0L);
+        return crc1 ^ crc2;
+    }
+
+    private static long times(long[] matrix, long vector) {
+        long sum = 0L;
+        for (int i = 0; vector != 0L; i++, vector >>>= 1) {
+            if ((vector & 1L) != 0L) {
+                sum ^= matrix[i];
+            }
+        }
+        return sum;
+    }
+
+    private static void square(long[] square, long[] matrix) {
+        for (int n = 0; n < 32; n++) {
+            square[n] = times(matrix, matrix[n]);
+        }
+    }
+
+    /**
+     * CRC32C 查表实现，每次处理8个字节
+     */
+    static final class Crc32c implements Checksum {
+        private static final int[][] TABLE = new int[8][256];
+
+        static {
+            for (int n = 0; n < 256; n++) {
+                int crc = n;
+                for (int k = 0; k < 8; k++) {
+                    crc = (crc & 1) != 0 ? (crc >>> 1) ^ CRC32C_POLY : crc >>> 1;
+                }
+                TABLE[0][n] = crc;
+            }
+            for (int n = 0; n < 256; n++) {
+                int crc = TABLE[0][n];
+                for (int k = 1; k < 8; k++) {
+                    crc = TABLE[0][crc & 0xff] ^ (crc >>> 8);
+                    TABLE[k][n] = crc;
+                }
+            }
+        }
+
+        private int mCrc = 0xffffffff;
+
+        @Override
+        public void update(int b) {
+            mCrc = TABLE[0][(mCrc ^ b) & 0xff] ^ (mCrc >>> 8);
+        }
+
+        @Override
+        public void update(byte[] b, int off, int len) {
+            int crc = mCrc;
+            int[][] table = TABLE;
+            while (len >= 8) {
+                int one = crc ^ ((b[off] & 0xff) | ((b[off + 1] & 0xff) << 8) | ((b[off + 2] & 0xff) << 16) | ((b[off + 3] & 0xff) << 24));
+                crc = table[7][one & 0xff] ^ table[6][(one >>> 8) & 0xff] ^ table[5][(one >>> 16) & 0xff] ^ table[4][one >>> 24]
+                        ^ table[3][b[off + 4] & 0xff] ^ table[2][b[off + 5] & 0xff] ^ table[1][b[off + 6] & 0xff] ^ table[0][b[off + 7] & 0xff];
+                off += 8;
+                len -= 8;
+            }
+            while (len-- > 0) {
+                crc = table[0][(crc ^ b[off++]) & 0xff] ^ (crc >>> 8);
+            }
+            mCrc = crc;
+        }
+
+        @Override
+        public long getValue() {
+            return (~mCrc) & 0xffffffffL;
+        }
+
+        @Override
+        public void reset() {
+            mCrc = 0xffffffff;
+        }
+    }
+}
@@ -0,0 +1,127 @@
+/*
+ * Copyright (C)  Justson(https://github.com/Justson/Downloader)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.download.library;
+
+import android.os.SystemClock;
+
+import java.io.File;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * 下载目录的文件名索引。第一次使用时读取一次目录，之后记录本库创建、发布的文件以及下载中预留的文件名，
+ * 选择不冲突的文件名时只查内存，不再逐个调用 {@link File#exists()}。超过有效期后重新读取目录，发现其他进程创建的文件。
+ *
+ * @date 2026/10/18
+ * @since 4.2.0
+ */
+final class DirectoryIndex {
+
+    /**
+     * 目录内容的有效期
+     */
+    private static final long TTL = 30L * 1000L;
+    private static final DirectoryIndex sInstance = new DirectoryIndex();
+
+    private final Map<String, Directory> mDirectories = new HashMap<>();
+
+    private DirectoryIndex() {
+    }
+
+    static DirectoryIndex getInstance() {
+        return sInstance;
+    }
+
+    /**
+     * 按 (1)name、(2)name 的顺序选择第一个不存在、没有被预留、也没有对应临时文件的文件名，并预留该文件名
+     */
+    synchronized File reserveUnique(File file) {
+        File dir = file.getParentFile();
+        Directory directory = directory(dir);
+        String name = file.getName();
+        for (int i = 1; ; i++) {
+            String candidate = "(" + i + ")" + name;
+            if (!directory.contains(candidate) && !directory.contains(candidate + DownloadTask.PART_SUFFIX)) {
+                directory.reserved.add(candidate);
+                return new File(dir, candidate);
+            }
+        }
+    }
+
+    /**
+     * 下载结束，释放预留的文件名
+     */
+    synchronized void release(File file) {
+        Directory directory = mDirectories.get(file.getParent());
+        if (null != directory) {
+            directory.reserved.remove(file.getName());
+        }
+    }
+
+    /**
+     * 文件已创建
+     */
+    synchronized void add(File file) {
+        Directory directory = mDirectories.get(file.getParent());
+        if (null != directory) {
+            directory.names.add(file.getName());
+        }
+    }
+
+    /**
+     * 文件已删除或者被重命名
+     */
+    synchronized void remove(File file) {
+        Directory directory = mDirectories.get(file.getParent());
+        if (null != directory) {
+            directory.names.remove(file.getName());
+        }
+    }
+
+    private Directory directory(File dir) {
+        String path = dir.getAbsolutePath();
+        Directory directory = mDirectories.get(path);
+        long now = SystemClock.elapsedRealtime();
+        if (null == directory) {
+            directory = new Directory();
+            mDirectories.put(path, directory);
+        }
+        if (directory.loadedAt == 0L || now - directory.loadedAt >= TTL) {
+            directory.names.clear();
+            String[] names = dir.list();
+            if (null != names) {
+                for (String name : names) {
+                    directory.names.add(name);
+                }
+            }
+            directory.loadedAt = now;
+        }
+        return directory;
+    }
+
+    private static final class Directory {
+        final Set<String> names = new HashSet<>();
+        final Set<String> reserved = new HashSet<>();
+        long loadedAt = 0L;
+
+        boolean contains(String name) {
+            return names.contains(name) || reserved.contains(name);
+        }
+    }
+}
@@ -0,0 +1,333 @@
+/*
+ * Copyright (C)  Justson(https://github.com/Justson/Downloader)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.download.library;
+
+import android.os.StatFs;
+import android.os.SystemClock;
+
+import java.io.File;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executor;
+
+/**
+ * 磁盘空间预留，任务开始写入前按剩余长度预留空间，正在下载的任务之间不会重复使用同一块可用空间。
+ * 可用空间使用短时间的缓存，不在每次预留时调用 {@link StatFs}：读取时记下各预留任务已写入的长度，
+ * 缓存有效期内按这个长度计算尚未写入的部分，之后写入的数据不会被重复扣除；缓存过期或者有预留释放后重新读取。
+ * 预留在任务结束（完成、失败、暂停或取消）时释放，空间不足的任务在其他任务释放空间后投递到任务分发线程重新排队，
+ * 等待中的任务被暂停或者取消时通过 {@link #cancelWait(DownloadTask)} 移出等待。
+ *
+ * @date 2026/10/18
+ * @since 4.2.0
+ */
+public final class DiskSpaceManager {
+
+    private static final String TAG = Runtime.PREFIX + DiskSpaceManager.class.getSimpleName();
+    private static final DiskSpaceManager sInstance = new DiskSpaceManager();
+
+    /**
+     * 目录 -> 文件系统状态
+     */
+    private final Map<String, Stat> mStats = new HashMap<>();
+    private final Map<DownloadTask, Reservation> mReservations = new HashMap<>();
+    /**
+     * 等待空间的任务，按文件系统分组
+     */
+    private final Map<String, List<Waiter>> mWaiting = new HashMap<>();
+    private long mStatTimeout = 2000L;
+    /**
+     * 为系统保留的空间，默认100M
+     */
+    private long mMinFreeBytes = 100L * 1024L * 1024L;
+
+    private DiskSpaceManager() {
+    }
+
+    public static DiskSpaceManager getInstance() {
+        return sInstance;
+    }
+
+    /**
+     * 为任务预留剩余长度的空间，同一任务再次预留时替换之前的预留
+     *
+     * @param completed 已写入的长度，这部分已经占用了磁盘
+     * @return 空间不足时返回false
+     */
+    synchronized boolean reserve(DownloadTask downloadTask, long totals, long completed) {
+        mReservations.remove(downloadTask);
+        if (totals <= 0L) {
+            return true;
+        }
+        Stat stat = stat(downloadTask.getFile().getParentFile());
+        long required = totals - completed;
+        long available = stat.available - reserved(stat.fs) - mMinFreeBytes;
+        if (required > available) {
+            Runtime.getInstance().logError(TAG, "insufficient space , required:" + required + " available:" + available + " reserved:" + reserved(stat.fs));
+            return false;
+        }
+        mReservations.put(downloadTask, new Reservation(stat.fs, downloadTask, totals, completed));
+        return true;
+    }
+
+    /**
+     * 任务的文件已经预分配，预留的空间全部被占用，之后的写入不再需要新的空间
+     */
+    synchronized void allocated(DownloadTask downloadTask) {
+        Reservation reservation = mReservations.get(downloadTask);
+        if (null == reservation || reservation.completed >= reservation.totals) {
+            return;
+        }
+        Reservation allocated = new Reservation(reservation.fs, downloadTask, reservation.totals, reservation.totals);
+        // 缓存的可用空间读取于预分配之前，下次读取前仍按原来的已写入长度计算
+        allocated.accounted = reservation.accounted;
+        mReservations.put(downloadTask, allocated);
+    }
+
+    /**
+     * 任务结束，释放预留的空间，并唤醒同一文件系统上等待空间的任务
+     */
+    void release(DownloadTask downloadTask) {
+        List<Waiter> waiting;
+        synchronized (this) {
+            Reservation reservation = mReservations.remove(downloadTask);
+            if (null == reservation) {
+                return;
+            }
+            // 释放后需要重新读取可用空间
+            Iterator<Stat> iterator = mStats.values().iterator();
+            while (iterator.hasNext()) {
+                if (iterator.next().fs.equals(reservation.fs)) {
+                    iterator.remove();
+                }
+            }
+            waiting = mWaiting.remove(reservation.fs);
+        }
+        if (null == waiting) {
+            return;
+        }
+        Runtime.getInstance().log(TAG, "space released , retry waiting tasks:" + waiting.size());
+        // 释放发生在下载线程的结束阶段，重新排队不在这里执行
+        Executor executor = Executors.taskEnqueueDispatchExecutor();
+        for (Waiter waiter : waiting) {
+            executor.execute(waiter.retry);
+        }
+    }
+
+    /**
+     * 等待空间的任务被暂停或者取消，不再重新排队
+     *
+     * @return 任务是否在等待
+     */
+    synchronized boolean cancelWait(DownloadTask downloadTask) {
+        Iterator<List<Waiter>> lists = mWaiting.values().iterator();
+        while (lists.hasNext()) {
+            List<Waiter> waiting = lists.next();
+            Iterator<Waiter> iterator = waiting.iterator();
+            while (iterator.hasNext()) {
+                if (iterator.next().downloadTask == downloadTask) {
+                    iterator.remove();
+                    if (waiting.isEmpty()) {
+                        lists.remove();
+                    }
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * 空间不足的任务等待同一文件系统上的其他任务释放空间，释放后执行retry
+     *
+     * @return 没有其他任务占用预留空间时返回false，继续等待不会得到空间
+     */
+    synchronized boolean await(DownloadTask downloadTask, Runnable retry) {
+        Stat stat = stat(downloadTask.getFile().getParentFile());
+        boolean occupied = false;
+        for (Reservation reservation : mReservations.values()) {
+            if (reservation.fs.equals(stat.fs) && reservation.downloadTask != downloadTask) {
+                occupied = true;
+                break;
+            }
+        }
+        if (!occupied) {
+            return false;
+        }
+        List<Waiter> waiting = mWaiting.get(stat.fs);
+        if (null == waiting) {
+            waiting = new LinkedList<>();
+            mWaiting.put(stat.fs, waiting);
+        }
+        waiting.add(new Waiter(downloadTask, retry));
+        return true;
+    }
+
+    /**
+     * @return 相对缓存的可用空间，各预留任务尚未写入的长度
+     */
+    private long reserved(String fs) {
+        long reserved = 0L;
+        for (Reservation reservation : mReservations.values()) {
+            if (reservation.fs.equals(fs)) {
+                reserved += reservation.unaccounted();
+            }
+        }
+        return reserved;
+    }
+
+    private Stat stat(File dir) {
+        String path = null == dir ? "" : dir.getAbsolutePath();
+        long now = SystemClock.elapsedRealtime();
+        Stat stat = mStats.get(path);
+        if (null != stat && now - stat.statAt < mStatTimeout) {
+            return stat;
+        }
+        stat = statFs(path, now);
+        mStats.put(path, stat);
+        // 同一文件系统下其他目录的缓存一起更新，与预留记下的已写入长度保持同一时刻
+        for (Map.Entry<String, Stat> entry : mStats.entrySet()) {
+            if (entry.getValue().fs.equals(stat.fs)) {
+                entry.setValue(stat);
+            }
+        }
+        for (Reservation reservation : mReservations.values()) {
+            if (reservation.fs.equals(stat.fs)) {
+                reservation.accounted = reservation.written();
+            }
+        }
+        return stat;
+    }
+
+    private static Stat statFs(String path, long now) {
+        try {
+            StatFs statFs = new StatFs(path);
+            long blockSize;
+            long availableBlocks;
+            long blockCount;
+            if (android.os.Build.VERSION.SDK_INT >= android.os.Build.VERSION_CODES.JELLY_BEAN_MR2) {
+                blockSize = statFs.getBlockSizeLong();
+                availableBlocks = statFs.getAvailableBlocksLong();
+                blockCount = statFs.getBlockCountLong();
+            } else {
+                blockSize = statFs.getBlockSize();
+                availableBlocks = statFs.getAvailableBlocks();
+                blockCount = statFs.getBlockCount();
+            }
+            // 同一文件系统下的目录块大小以及总块数相同，以此区分文件系统
+            return new Stat(blockSize + ":" + blockCount, blockSize * availableBlocks, now);
+        } catch (Throwable throwable) {
+            throwable.printStackTrace();
+        }
+        return new Stat(path, 0L, now);
+    }
+
+    /**
+     * 可用空间的缓存时间，默认2秒
+     */
+    public synchronized void setStatTimeout(long statTimeout) {
+        this.mStatTimeout = Math.max(0L, statTimeout);
+    }
+
+    /**
+     * 为系统保留的空间，可用空间低于该值时不再开始新的下载，默认100M
+     */
+    public synchronized void setMinFreeBytes(long minFreeBytes) {
+        this.mMinFreeBytes = Math.max(0L, minFreeBytes);
+    }
+
+    /**
+     * @return 正在下载的任务预留且尚未写入的空间
+     */
+    public synchronized long getReservedBytes() {
+        long reserved = 0L;
+        for (Reservation reservation : mReservations.values()) {
+            reserved += reservation.remaining();
+        }
+        return reserved;
+    }
+
+    public synchronized int getWaitingCount() {
+        int count = 0;
+        for (List<Waiter> waiting : mWaiting.values()) {
+            count += waiting.size();
+        }
+        return count;
+    }
+
+    private static final class Stat {
+        final String fs;
+        final long available;
+        final long statAt;
+
+        Stat(String fs, long available, long statAt) {
+            this.fs = fs;
+            this.available = available;
+            this.statAt = statAt;
+        }
+    }
+
+    private static final class Waiter {
+        final DownloadTask downloadTask;
+        final Runnable retry;
+
+        Waiter(DownloadTask downloadTask, Runnable retry) {
+            this.downloadTask = downloadTask;
+            this.retry = retry;
+        }
+    }
+
+    private static final class Reservation {
+        final String fs;
+        final DownloadTask downloadTask;
+        final long totals;
+        final long completed;
+        /**
+         * 读取缓存的可用空间时已写入的长度，这部分已经从缓存的可用空间中扣除
+         */
+        long accounted;
+
+        Reservation(String fs, DownloadTask downloadTask, long totals, long completed) {
+            this.fs = fs;
+            this.downloadTask = downloadTask;
+            this.totals = totals;
+            this.completed = completed;
+            this.accounted = completed;
+        }
+
+        long written() {
+            return Math.max(completed, downloadTask.getLoaded());
+        }
+
+        /**
+         * @return 当前尚未写入的长度
+         */
+        long remaining() {
+            return Math.max(0L, totals - written());
+        }
+
+        /**
+         * @return 缓存的可用空间中还没有扣除的长度
+         */
+        long unaccounted() {
+            return Math.max(0L, totals - accounted);
+        }
+    }
+}
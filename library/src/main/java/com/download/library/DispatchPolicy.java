@@ -0,0 +1,133 @@
+/*
+ * Copyright (C)  Justson(https://github.com/Justson/Downloader)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.download.library;
+
+import android.support.annotation.NonNull;
+
+import com.queue.library.GlobalQueue;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+
+/**
+ * {@link DownloadingListener} 的回调线程，注册监听时通过
+ * {@link ResourceRequest#setDownloadingListener(DownloadingListener, DispatchPolicy)} 指定。
+ * 没有指定时按 onProgress 是否带有 {@link DownloadingListener.MainThread} 注解决定，
+ * 注解按监听的类解析一次后缓存，不在每次提交任务时反射。
+ *
+ * @date 2026/10/18
+ * @since 4.2.0
+ */
+public final class DispatchPolicy {
+
+    private static final String TAG = Runtime.PREFIX + DispatchPolicy.class.getSimpleName();
+
+    /**
+     * 在采样线程直接回调
+     */
+    public static final int MODE_DIRECT = 0;
+    /**
+     * 合并到主线程批次中回调
+     */
+    public static final int MODE_MAIN_THREAD = 1;
+    /**
+     * 投递到调用方提供的线程池，上一次回调没有执行时合并
+     */
+    public static final int MODE_EXECUTOR = 2;
+
+    public static final DispatchPolicy DIRECT = new DispatchPolicy(MODE_DIRECT, null);
+    public static final DispatchPolicy MAIN_THREAD = new DispatchPolicy(MODE_MAIN_THREAD, null);
+
+    private static final ConcurrentHashMap<Class<?>, DispatchPolicy> sResolved = new ConcurrentHashMap<>();
+
+    private final int mMode;
+    private final Executor mExecutor;
+
+    private DispatchPolicy(int mode, Executor executor) {
+        this.mMode = mode;
+        this.mExecutor = executor;
+    }
+
+    public static DispatchPolicy executor(@NonNull Executor executor) {
+        return new DispatchPolicy(MODE_EXECUTOR, executor);
+    }
+
+    /**
+     * @return 监听的类对应的回调线程，每个类只解析一次
+     */
+    static DispatchPolicy of(DownloadingListener listener) {
+        if (null == listener) {
+            return DIRECT;
+        }
+        Class<?> clazz = listener.getClass();
+        DispatchPolicy policy = sResolved.get(clazz);
+        if (null == policy) {
+            policy = resolve(clazz);
+            sResolved.putIfAbsent(clazz, policy);
+            Runtime.getInstance().log(TAG, clazz.getName() + " callback in main-Thread:" + policy.isMainThread());
+        }
+        return policy;
+    }
+
+    /**
+     * 从监听的类向上查找最近声明的onProgress
+     */
+    private static DispatchPolicy resolve(Class<?> clazz) {
+        for (Class<?> current = clazz; null != current && Object.class != current; current = current.getSuperclass()) {
+            try {
+                boolean annotated = null != current.getDeclaredMethod("onProgress", String.class, long.class, long.class, long.class)
+                        .getAnnotation(DownloadingListener.MainThread.class);
+                return annotated ? MAIN_THREAD : DIRECT;
+            } catch (NoSuchMethodException ignore) {
+            } catch (Throwable throwable) {
+                Runtime.getInstance().logError(TAG, "resolve " + clazz.getName() + " error:" + throwable.getMessage());
+                break;
+            }
+        }
+        return DIRECT;
+    }
+
+    public int getMode() {
+        return mMode;
+    }
+
+    Executor getExecutor() {
+        return mExecutor;
+    }
+
+    boolean isMainThread() {
+        return mMode == MODE_MAIN_THREAD;
+    }
+
+    /**
+     * @return 两个策略是否在同一个线程回调
+     */
+    boolean isSameThread(DispatchPolicy other) {
+        return null != other && mMode == other.mMode && mExecutor == other.mExecutor;
+    }
+
+    void execute(Runnable runnable) {
+        if (mMode == MODE_MAIN_THREAD) {
+            GlobalQueue.getMainQueue().postRunnable(runnable);
+        } else if (mMode == MODE_EXECUTOR) {
+            mExecutor.execute(runnable);
+        } else {
+            runnable.run();
+        }
+    }
+}
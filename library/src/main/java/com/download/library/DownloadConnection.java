@@ -0,0 +1,65 @@
+/*
+ * Copyright (C)  Justson(https://github.com/Justson/Downloader)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.download.library;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URL;
+
+/**
+ * 一次HTTP请求，由 {@link Transport} 创建，{@link Downloader} 只通过该接口访问网络。
+ * 请求结束后调用 {@link #release()} 让连接保持并复用，连接出错时调用 {@link #disconnect()} 关闭。
+ *
+ * @date 2026/10/18
+ * @since 4.2.0
+ */
+public interface DownloadConnection {
+
+    URL getURL();
+
+    void setRequestProperty(String key, String value);
+
+    /**
+     * 请求指定区间
+     *
+     * @param end 包含在内的结束位置，小于0时请求到文件末尾
+     */
+    void setRange(long start, long end);
+
+    void connect() throws IOException;
+
+    int getResponseCode() throws IOException;
+
+    String getHeaderField(String name);
+
+    String getContentEncoding();
+
+    /**
+     * @return 原始的响应体，未解压
+     */
+    InputStream getInputStream() throws IOException;
+
+    /**
+     * 请求结束，关闭响应体，底层连接交还给系统的keep-alive连接池复用
+     */
+    void release();
+
+    /**
+     * 关闭底层连接，不再复用
+     */
+    void disconnect();
+}
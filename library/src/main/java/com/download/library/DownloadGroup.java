@@ -0,0 +1,235 @@
+/*
+ * Copyright (C)  Justson(https://github.com/Justson/Downloader)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.download.library;
+
+import android.text.TextUtils;
+
+import com.queue.library.GlobalQueue;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 一组批量提交的任务，由 {@link DownloadImpl#enqueueAll(List)} 返回。
+ * 提供整组的进度以及完成回调，可以整组暂停、恢复、取消以及修改优先级。
+ * 任务成功、失败或者取消后计为完成，暂停的任务恢复后继续计入。
+ *
+ * @date 2026/10/18
+ * @since 4.2.0
+ */
+public final class DownloadGroup {
+
+    private static final String TAG = Runtime.PREFIX + DownloadGroup.class.getSimpleName();
+
+    private final DownloadImpl mDownloadImpl;
+    private final List<DownloadTask> mTasks = new ArrayList<>();
+    /**
+     * 已完成的任务 -> 完成时的长度，任务完成后可能被回收，不能再读取
+     */
+    private final Map<DownloadTask, Long> mCompleted = new IdentityHashMap<>();
+    private int mSuccessfulCount;
+    private OnCompletedListener mOnCompletedListener;
+
+    DownloadGroup(DownloadImpl downloadImpl) {
+        this.mDownloadImpl = downloadImpl;
+    }
+
+    synchronized void add(DownloadTask downloadTask) {
+        mTasks.add(downloadTask);
+    }
+
+    /**
+     * 任务成功、失败或者取消
+     */
+    void onTaskCompleted(DownloadTask downloadTask) {
+        final OnCompletedListener listener;
+        synchronized (this) {
+            if (!mTasks.contains(downloadTask) || mCompleted.containsKey(downloadTask)) {
+                return;
+            }
+            mCompleted.put(downloadTask, downloadTask.getTotalsLength() > 0L ? downloadTask.getTotalsLength() : downloadTask.getLoaded());
+            if (downloadTask.isSuccessful()) {
+                mSuccessfulCount++;
+            }
+            if (mCompleted.size() < mTasks.size()) {
+                return;
+            }
+            notifyAll();
+            listener = mOnCompletedListener;
+        }
+        TaskRegistry.getInstance().removeGroup(this);
+        Runtime.getInstance().log(TAG, "group completed , successful:" + mSuccessfulCount + " total:" + mTasks.size());
+        dispatch(listener);
+    }
+
+    private void dispatch(final OnCompletedListener listener) {
+        if (null == listener) {
+            return;
+        }
+        final DownloadGroup group = this;
+        GlobalQueue.getMainQueue().postRunnable(new Runnable() {
+            @Override
+            public void run() {
+                listener.onCompleted(group);
+            }
+        });
+    }
+
+    /**
+     * 设置整组完成的回调，在主线程执行；设置时已经全部完成则立即回调
+     */
+    public void setOnCompletedListener(OnCompletedListener onCompletedListener) {
+        boolean completed;
+        synchronized (this) {
+            mOnCompletedListener = onCompletedListener;
+            completed = isCompleted();
+        }
+        if (completed) {
+            dispatch(onCompletedListener);
+        }
+    }
+
+    public synchronized List<DownloadTask> getTasks() {
+        return Collections.unmodifiableList(new ArrayList<>(mTasks));
+    }
+
+    public synchronized int size() {
+        return mTasks.size();
+    }
+
+    public synchronized int getCompletedCount() {
+        return mCompleted.size();
+    }
+
+    public synchronized int getSuccessfulCount() {
+        return mSuccessfulCount;
+    }
+
+    public synchronized boolean isCompleted() {
+        return mCompleted.size() >= mTasks.size();
+    }
+
+    /**
+     * @return 整组已下载的长度
+     */
+    public synchronized long getLoaded() {
+        long loaded = 0L;
+        for (DownloadTask downloadTask : mTasks) {
+            Long completed = mCompleted.get(downloadTask);
+            loaded += null != completed ? completed : downloadTask.getLoaded();
+        }
+        return loaded;
+    }
+
+    /**
+     * @return 整组的总长度，有任务的长度未知时返回-1
+     */
+    public synchronized long getTotals() {
+        long totals = 0L;
+        for (DownloadTask downloadTask : mTasks) {
+            Long completed = mCompleted.get(downloadTask);
+            if (null != completed) {
+                totals += completed;
+            } else if (downloadTask.getTotalsLength() > 0L) {
+                totals += downloadTask.getTotalsLength();
+            } else {
+                return -1L;
+            }
+        }
+        return totals;
+    }
+
+    /**
+     * @return 0到1之间的进度，总长度未知时按完成的任务数计算
+     */
+    public synchronized float getProgress() {
+        if (mTasks.isEmpty()) {
+            return 1F;
+        }
+        long totals = getTotals();
+        if (totals > 0L) {
+            return Math.min(1F, (float) getLoaded() / totals);
+        }
+        return (float) mCompleted.size() / mTasks.size();
+    }
+
+    /**
+     * 等待整组完成，不能在主线程调用
+     */
+    public synchronized void await() throws InterruptedException {
+        while (!isCompleted()) {
+            wait();
+        }
+    }
+
+    public void pause() {
+        for (String url : pendingUrls()) {
+            mDownloadImpl.pause(url);
+        }
+    }
+
+    public void resume() {
+        for (String url : pendingUrls()) {
+            mDownloadImpl.resume(url);
+        }
+    }
+
+    public void cancel() {
+        for (String url : pendingUrls()) {
+            mDownloadImpl.cancel(url);
+        }
+    }
+
+    /**
+     * 修改整组的优先级，等待中的任务立即按新的优先级排序
+     */
+    public void setPriority(@DownloadTask.DownloadTaskPriority int priority) {
+        for (DownloadTask downloadTask : pendingTasks()) {
+            downloadTask.setPriority(priority);
+            DownloadScheduler.getInstance().setPriority(downloadTask, priority);
+        }
+    }
+
+    private synchronized List<DownloadTask> pendingTasks() {
+        List<DownloadTask> pending = new ArrayList<>();
+        for (DownloadTask downloadTask : mTasks) {
+            if (!mCompleted.containsKey(downloadTask)) {
+                pending.add(downloadTask);
+            }
+        }
+        return pending;
+    }
+
+    private List<String> pendingUrls() {
+        List<String> urls = new ArrayList<>();
+        for (DownloadTask downloadTask : pendingTasks()) {
+            String url = downloadTask.getUrl();
+            if (!TextUtils.isEmpty(url) && !urls.contains(url)) {
+                urls.add(url);
+            }
+        }
+        return urls;
+    }
+
+    public interface OnCompletedListener {
+        void onCompleted(DownloadGroup group);
+    }
+}
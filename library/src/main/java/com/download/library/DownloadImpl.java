@@ -24,9 +24,6 @@ import android.text.TextUtils;
 import java.io.File;
 import java.util.ArrayList;
 import java.util.List;
-import java.util.Map;
-import java.util.Set;
-import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * @author cenxiaozhong
@@ -36,7 +33,6 @@ import java.util.concurrent.ConcurrentHashMap;
 public final class DownloadImpl {
 
     private static volatile DownloadImpl sInstance;
-    private final ConcurrentHashMap<String, DownloadTask> mTasks = new ConcurrentHashMap<>();
     private volatile static Context mContext;
     public static final String TAG = Runtime.PREFIX + DownloadImpl.class.getSimpleName();
 
@@ -96,6 +92,20 @@ public final class DownloadImpl {
         return DownloadSubmitterImpl.getInstance().submit(downloadTask);
     }
 
+    /**
+     * 批量提交，整批校验通过后一次登记并进入调度队列
+     *
+     * @return 整组的句柄，用于查询进度以及整组暂停、取消、修改优先级
+     */
+    public DownloadGroup enqueueAll(@NonNull List<DownloadTask> downloadTasks) {
+        for (DownloadTask downloadTask : downloadTasks) {
+            safe(downloadTask);
+        }
+        DownloadGroup group = new DownloadGroup(this);
+        DownloadSubmitterImpl.getInstance().submitAll(downloadTasks, group);
+        return group;
+    }
+
     public File call(@NonNull DownloadTask downloadTask) {
         safe(downloadTask);
         try {
@@ -113,78 +123,74 @@ public final class DownloadImpl {
         return file;
     }
 
-    public synchronized DownloadTask cancel(@NonNull String url) {
+    public DownloadTask cancel(@NonNull String url) {
+        TaskRegistry registry = TaskRegistry.getInstance();
         DownloadTask downloadTask = null;
         try {
-            downloadTask = ExecuteTasksMap.getInstance().cancelTask(url);
+            ExecuteTask executeTask = registry.getRunning(url);
+            if (null != executeTask) {
+                downloadTask = executeTask.cancelDownload();
+            }
         } finally {
-            DownloadTask task = mTasks.get(url);
-            if (task != null && task.getStatus() == DownloadTask.STATUS_PAUSED) {
-                task.cancel();
+            DownloadTask task = registry.removePaused(url);
+            if (task != null && task.compareAndSetStatus(DownloadTask.STATUS_PAUSED, DownloadTask.STATUS_CANCELED)) {
+                task.completed();
                 DownloadNotifier.cancel(task);
+                DownloadSubmitterImpl.onCompleted(task);
                 downloadTask = task;
             }
-            remove(url);
         }
         return downloadTask;
     }
 
-    public synchronized List<DownloadTask> cancelAll() {
+    public List<DownloadTask> cancelAll() {
+        TaskRegistry registry = TaskRegistry.getInstance();
         List<DownloadTask> downloadTasks = new ArrayList<>();
         try {
-            List<DownloadTask> runningTask = ExecuteTasksMap.getInstance().cancelTasks();
-            if (null != runningTask) {
-                downloadTasks.addAll(runningTask);
+            for (ExecuteTask executeTask : registry.runningTasks()) {
+                DownloadTask downloadTask = executeTask.cancelDownload();
+                if (null != downloadTask) {
+                    downloadTasks.add(downloadTask);
+                }
             }
         } finally {
-            ConcurrentHashMap<String, DownloadTask> tasks = this.mTasks;
-            if (!tasks.isEmpty()) {
-                Set<Map.Entry<String, DownloadTask>> sets = tasks.entrySet();
-                for (Map.Entry<String, DownloadTask> entry : sets) {
-                    DownloadTask downloadTask = entry.getValue();
-                    if (downloadTask != null && downloadTask.getStatus() == DownloadTask.STATUS_PAUSED) {
-                        downloadTask.cancel();
-                        DownloadNotifier.cancel(downloadTask);
-                        downloadTasks.add(downloadTask);
-                    }
+            for (DownloadTask paused : registry.pausedTasks()) {
+                DownloadTask downloadTask = registry.removePaused(paused.getUrl());
+                if (downloadTask != null && downloadTask.compareAndSetStatus(DownloadTask.STATUS_PAUSED, DownloadTask.STATUS_CANCELED)) {
+                    downloadTask.completed();
+                    DownloadNotifier.cancel(downloadTask);
+                    DownloadSubmitterImpl.onCompleted(downloadTask);
+                    downloadTasks.add(downloadTask);
                 }
             }
-            cleanTasksCache();
         }
         return downloadTasks;
     }
 
-    public synchronized DownloadTask pause(@NonNull String url) {
-        DownloadTask downloadTask = ExecuteTasksMap.getInstance().pauseTask(url);
+    public DownloadTask pause(@NonNull String url) {
+        ExecuteTask executeTask = TaskRegistry.getInstance().getRunning(url);
+        DownloadTask downloadTask = null == executeTask ? null : executeTask.pauseDownload();
         if (downloadTask != null) {
-            mTasks.put(downloadTask.getUrl(), downloadTask);
+            TaskRegistry.getInstance().addPaused(downloadTask);
         }
         return downloadTask;
     }
 
-    public synchronized void resumeAll() {
-        ConcurrentHashMap<String, DownloadTask> tasks = this.mTasks;
-        if (tasks.size() <= 0) {
-            return;
-        }
-        Set<Map.Entry<String, DownloadTask>> sets = tasks.entrySet();
-        if (sets.size() > 0) {
-            for (Map.Entry<String, DownloadTask> entry : sets) {
-                DownloadTask downloadTask = entry.getValue();
-                if (null == downloadTask || null == downloadTask.getContext() || TextUtils.isEmpty(downloadTask.getUrl())) {
-                    Runtime.getInstance().logError(TAG, "downloadTask death .");
-                    continue;
-                }
-                Runtime.getInstance().logError(TAG, "downloadTask:" + downloadTask.getUrl());
-                enqueue(downloadTask);
+    public void resumeAll() {
+        TaskRegistry registry = TaskRegistry.getInstance();
+        for (DownloadTask paused : registry.pausedTasks()) {
+            DownloadTask downloadTask = registry.removePaused(paused.getUrl());
+            if (null == downloadTask || null == downloadTask.getContext() || TextUtils.isEmpty(downloadTask.getUrl())) {
+                Runtime.getInstance().logError(TAG, "downloadTask death .");
+                continue;
             }
+            Runtime.getInstance().logError(TAG, "downloadTask:" + downloadTask.getUrl());
+            enqueue(downloadTask);
         }
-        cleanTasksCache();
-
     }
 
-    public synchronized boolean resume(@NonNull String url) {
-        DownloadTask downloadTask = mTasks.remove(url);
+    public boolean resume(@NonNull String url) {
+        DownloadTask downloadTask = TaskRegistry.getInstance().removePaused(url);
         if (null == downloadTask || null == downloadTask.getContext() || TextUtils.isEmpty(downloadTask.getUrl())) {
             Runtime.getInstance().logError(TAG, "downloadTask death .");
             return false;
@@ -194,30 +200,91 @@ public final class DownloadImpl {
 
     }
 
-    private synchronized void cleanTasksCache() {
-        ConcurrentHashMap<String, DownloadTask> tasks = this.mTasks;
-        tasks.clear();
-    }
-
-    private synchronized void remove(@NonNull String url) {
-        ConcurrentHashMap<String, DownloadTask> tasks = this.mTasks;
-        tasks.remove(url);
-    }
-
     public boolean exist(@NonNull String url) {
-        return ExecuteTasksMap.getInstance().exist(url) || mTasks.contains(url);
+        return null != TaskRegistry.getInstance().getTask(url);
     }
 
     public boolean isPaused(@NonNull String url) {
-        DownloadTask downloadTask = mTasks.get(url);
+        DownloadTask downloadTask = TaskRegistry.getInstance().getPaused(url);
         return downloadTask != null && downloadTask.getStatus() == DownloadTask.STATUS_PAUSED;
     }
 
     public int pausedTasksTotals() {
-        return mTasks.size();
+        return TaskRegistry.getInstance().getPausedCount();
+    }
+
+    /**
+     * @return id对应的正在下载或者已暂停的任务
+     */
+    public DownloadTask getTask(int id) {
+        return TaskRegistry.getInstance().getTask(id);
+    }
+
+    /**
+     * @param status {@link DownloadTask#STATUS_DOWNLOADING} 等
+     */
+    public List<DownloadTask> getTasks(int status) {
+        return TaskRegistry.getInstance().getTasks(status);
+    }
+
+    /**
+     * 读取所有正在下载以及已暂停任务的进度
+     *
+     * @param reuse 复用的快照，任务数没有增加时不分配新的数组，为null时创建
+     */
+    public ProgressSnapshot snapshot(ProgressSnapshot reuse) {
+        return TaskRegistry.getInstance().snapshot(null == reuse ? new ProgressSnapshot() : reuse);
+    }
+
+    /**
+     * 按 {@link ProgressTicker#setInterval(long)} 的间隔在主线程推送所有任务的快照，有任务在下载时才推送
+     */
+    public void addSnapshotListener(@NonNull ProgressSnapshot.Listener listener) {
+        ProgressTicker.getInstance().addSnapshotListener(listener);
+    }
+
+    public void removeSnapshotListener(@NonNull ProgressSnapshot.Listener listener) {
+        ProgressTicker.getInstance().removeSnapshotListener(listener);
+    }
+
+    /**
+     * @return 所有任务的总下载速度，最近几秒的加权平均，字节每秒
+     */
+    public long getGlobalSpeed() {
+        return SpeedEstimator.global().getSpeed();
+    }
+
+    /**
+     * @return 所有任务在最近一个采样间隔的总下载速度，字节每秒
+     */
+    public long getGlobalInstantSpeed() {
+        return SpeedEstimator.global().getInstantSpeed();
+    }
+
+    /**
+     * 所有下载共享的限速，下载过程中修改立即生效
+     *
+     * @param bytesPerSecond 字节每秒，小于等于0时不限速
+     */
+    public void setGlobalRateLimit(long bytesPerSecond) {
+        RateLimiter.global().setRate(bytesPerSecond);
+    }
+
+    /**
+     * 修改正在下载或者已暂停任务的限速
+     *
+     * @return 任务不存在时返回false
+     */
+    public boolean setRateLimit(@NonNull String url, long bytesPerSecond) {
+        DownloadTask downloadTask = TaskRegistry.getInstance().getTask(url);
+        if (null == downloadTask) {
+            return false;
+        }
+        downloadTask.setRateLimit(bytesPerSecond);
+        return true;
     }
 
     public boolean isRunning(@NonNull String url) {
-        return ExecuteTasksMap.getInstance().exist(url);
+        return TaskRegistry.getInstance().isRunning(url);
     }
 }
@@ -0,0 +1,356 @@
+/*
+ * Copyright (C)  Justson(https://github.com/Justson/Downloader)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.download.library;
+
+import android.os.SystemClock;
+import android.text.TextUtils;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+
+/**
+ * 断点续传日志，记录每一段已完成的区间、ETag/Last-Modified、文件总长度以及边下载边计算的摘要中间状态，
+ * 以 url md5 命名保存在私有目录下。进程被杀死后据此恢复下载进度，只请求缺失的区间，
+ * 不再依赖目标文件的长度。
+ *
+ * @date 2026/10/18
+ * @since 4.2.0
+ */
+final class DownloadJournal {
+
+    private static final String TAG = Runtime.PREFIX + DownloadJournal.class.getSimpleName();
+    private static final int MAGIC = 0x444A524E;
+    private static final int VERSION = 1;
+    private static final String JOURNAL_DIR = "download-journal";
+    private static final String JOURNAL_SUFFIX = ".journal";
+
+    private final File mJournalFile;
+    private final String mPath;
+    private final long mTotalLength;
+    private final String mEtag;
+    private final String mLastModified;
+    private final Segment[] mSegments;
+    private final long mInterval;
+    /**
+     * 写日志前把目标文件同步到磁盘
+     */
+    private final boolean mSync;
+    private Digest mDigest;
+    private String mDigestAlgorithm = "";
+    private byte[] mDigestState;
+    private long mLastCheckpoint = 0L;
+    private boolean mDeleted = false;
+
+    private DownloadJournal(File journalFile, String path, long totalLength, String etag, String lastModified, Segment[] segments, long interval, boolean sync) {
+        this.mJournalFile = journalFile;
+        this.mPath = path;
+        this.mTotalLength = totalLength;
+        this.mEtag = null == etag ? "" : etag;
+        this.mLastModified = null == lastModified ? "" : lastModified;
+        this.mSegments = segments;
+        this.mInterval = interval;
+        this.mSync = sync;
+    }
+
+    static DownloadJournal create(DownloadTask downloadTask, long totalLength, String etag, String lastModified, Segment[] segments) {
+        DownloadJournal journal = new DownloadJournal(getJournalFile(downloadTask), downloadTask.getTransferFile().getAbsolutePath(),
+                totalLength, etag, lastModified, segments, downloadTask.getCheckpointInterval(),
+                downloadTask.getFsyncPolicy() == DownloadTask.FSYNC_ON_CHECKPOINT);
+        journal.checkpoint();
+        return journal;
+    }
+
+    /**
+     * @return 日志不存在、已损坏或者与目标文件不一致时返回null
+     */
+    static DownloadJournal load(DownloadTask downloadTask) {
+        File journalFile = getJournalFile(downloadTask);
+        if (!journalFile.isFile()) {
+            return null;
+        }
+        File file = downloadTask.getTransferFile();
+        DataInputStream in = null;
+        try {
+            in = new DataInputStream(new BufferedInputStream(new FileInputStream(journalFile)));
+            if (in.readInt() != MAGIC) {
+                throw new IOException("unknown journal format");
+            }
+            int version = in.readInt();
+            if (version != VERSION) {
+                throw new IOException("unknown journal version:" + version);
+            }
+            String path = in.readUTF();
+            long totalLength = in.readLong();
+            String etag = in.readUTF();
+            String lastModified = in.readUTF();
+            int count = in.readInt();
+            if (count <= 0 || count > 64) {
+                throw new IOException("segment count error:" + count);
+            }
+            Segment[] segments = new Segment[count];
+            long maxPosition = 0L;
+            for (int i = 0; i < count; i++) {
+                long start = in.readLong();
+                long end = in.readLong();
+                long position = in.readLong();
+                if (position < start || position > end + 1L) {
+                    throw new IOException("segment position error");
+                }
+                segments[i] = new Segment(i, start, end);
+                segments[i].position = position;
+                maxPosition = Math.max(maxPosition, position);
+            }
+            String digestAlgorithm = in.readUTF();
+            byte[] digestState = null;
+            int length = in.readInt();
+            if (length < 0 || length > 1024) {
+                throw new IOException("digest state length error:" + length);
+            }
+            if (length > 0) {
+                digestState = new byte[length];
+                in.readFully(digestState);
+            }
+            if (null == file || !file.getAbsolutePath().equals(path) || file.length() < maxPosition) {
+                Runtime.getInstance().log(TAG, "journal mismatch target file:" + path);
+                journalFile.delete();
+                return null;
+            }
+            DownloadJournal journal = new DownloadJournal(journalFile, path, totalLength, etag, lastModified, segments, downloadTask.getCheckpointInterval(),
+                    downloadTask.getFsyncPolicy() == DownloadTask.FSYNC_ON_CHECKPOINT);
+            journal.mDigestAlgorithm = digestAlgorithm;
+            journal.mDigestState = digestState;
+            return journal;
+        } catch (IOException e) {
+            Runtime.getInstance().log(TAG, "read journal error", e);
+            journalFile.delete();
+            return null;
+        } finally {
+            closeIO(in);
+        }
+    }
+
+    static void delete(DownloadTask downloadTask) {
+        getJournalFile(downloadTask).delete();
+    }
+
+    private static File getJournalFile(DownloadTask downloadTask) {
+        File dir = new File(downloadTask.getContext().getFilesDir(), JOURNAL_DIR);
+        if (!dir.exists()) {
+            dir.mkdirs();
+        }
+        return new File(dir, Runtime.getInstance().md5(downloadTask.getUrl()) + JOURNAL_SUFFIX);
+    }
+
+    /**
+     * 服务端的资源没有变化时才允许续传
+     */
+    boolean matches(long totalLength, String etag, String lastModified) {
+        if (mTotalLength != totalLength) {
+            return false;
+        }
+        if (!TextUtils.isEmpty(mEtag) && !mEtag.equals(etag)) {
+            return false;
+        }
+        return TextUtils.isEmpty(mLastModified) || mLastModified.equals(lastModified);
+    }
+
+    Segment[] getSegments() {
+        return mSegments;
+    }
+
+    boolean isSegmented() {
+        return mSegments.length > 1;
+    }
+
+    boolean isCompleted() {
+        for (Segment segment : mSegments) {
+            if (!segment.isCompleted()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * 关联正在计算的摘要，每次写日志时一起保存其中间状态
+     */
+    synchronized void setDigest(Digest digest) {
+        this.mDigest = digest;
+        this.mDigestAlgorithm = digest.getAlgorithm();
+        this.mDigestState = null;
+    }
+
+    /**
+     * @return 上次保存的摘要算法，没有时返回""
+     */
+    synchronized String getDigestAlgorithm() {
+        return mDigestAlgorithm;
+    }
+
+    /**
+     * @return 上次保存的摘要中间状态，没有或者算法不支持持久化时返回null
+     */
+    synchronized byte[] getDigestState() {
+        return mDigestState;
+    }
+
+    long getTotalLength() {
+        return mTotalLength;
+    }
+
+    long completedLength() {
+        long completed = 0L;
+        for (Segment segment : mSegments) {
+            completed += segment.position - segment.start;
+        }
+        return completed;
+    }
+
+    void checkpointIfNeeded() {
+        if (SystemClock.elapsedRealtime() - mLastCheckpoint < mInterval) {
+            return;
+        }
+        checkpoint();
+    }
+
+    /**
+     * 先写临时文件再重命名，避免进程在写日志的过程中被杀死导致日志损坏。
+     * 需要同步时先记下各分段进度，再同步目标文件，记录的进度不会超过已经落盘的数据。
+     */
+    synchronized void checkpoint() {
+        if (mDeleted) {
+            return;
+        }
+        mLastCheckpoint = SystemClock.elapsedRealtime();
+        long[] positions = new long[mSegments.length];
+        for (int i = 0; i < positions.length; i++) {
+            positions[i] = mSegments[i].position;
+        }
+        File tmp = new File(mJournalFile.getParentFile(), mJournalFile.getName() + ".tmp");
+        FileOutputStream fileOutputStream = null;
+        DataOutputStream out = null;
+        try {
+            if (mSync) {
+                syncTarget();
+            }
+            fileOutputStream = new FileOutputStream(tmp);
+            out = new DataOutputStream(new BufferedOutputStream(fileOutputStream));
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeUTF(mPath);
+            out.writeLong(mTotalLength);
+            out.writeUTF(mEtag);
+            out.writeUTF(mLastModified);
+            out.writeInt(mSegments.length);
+            for (int i = 0; i < mSegments.length; i++) {
+                out.writeLong(mSegments[i].start);
+                out.writeLong(mSegments[i].end);
+                out.writeLong(positions[i]);
+            }
+            out.writeUTF(mDigestAlgorithm);
+            byte[] digestState = mDigestState;
+            Digest digest = mDigest;
+            if (null != digest) {
+                synchronized (digest) {
+                    digestState = digest.exportState();
+                }
+            }
+            if (null == digestState) {
+                out.writeInt(0);
+            } else {
+                out.writeInt(digestState.length);
+                out.write(digestState);
+            }
+            out.flush();
+            if (mSync) {
+                fileOutputStream.getFD().sync();
+            }
+            out.close();
+            out = null;
+            if (!tmp.renameTo(mJournalFile)) {
+                mJournalFile.delete();
+                tmp.renameTo(mJournalFile);
+            }
+        } catch (IOException e) {
+            Runtime.getInstance().log(TAG, "write journal error", e);
+        } finally {
+            closeIO(out);
+            closeIO(fileOutputStream);
+        }
+    }
+
+    /**
+     * 同步的是整个文件，所有分段写入的数据都会落盘
+     */
+    private void syncTarget() throws IOException {
+        RandomAccessFile file = new RandomAccessFile(mPath, "rw");
+        try {
+            file.getFD().sync();
+        } finally {
+            closeIO(file);
+        }
+    }
+
+    synchronized void delete() {
+        mDeleted = true;
+        mJournalFile.delete();
+    }
+
+    private static void closeIO(Closeable closeable) {
+        try {
+            if (null != closeable) {
+                closeable.close();
+            }
+        } catch (IOException ignore) {
+        }
+    }
+
+    static final class Segment {
+        final int index;
+        final long start;
+        final long end;
+        volatile long position;
+
+        Segment(int index, long start, long end) {
+            this.index = index;
+            this.start = start;
+            this.end = end;
+            this.position = start;
+        }
+
+        long remaining() {
+            return end - position + 1L;
+        }
+
+        boolean isCompleted() {
+            return position > end;
+        }
+
+        @Override
+        public String toString() {
+            return index + "[" + start + "-" + end + "]@" + position;
+        }
+    }
+}
@@ -22,7 +22,7 @@ import android.net.Uri;
  * @author cenxiaozhong
  * @date 2018/2/11
  */
-public class DownloadListenerAdapter implements DownloadListener, DownloadingListener, DownloadStatusListener {
+public class DownloadListenerAdapter implements DownloadListener, DownloadingListener, DownloadSpeedListener, DownloadStatusListener {
 
     @MainThread
     @Override
@@ -33,6 +33,10 @@ public class DownloadListenerAdapter implements DownloadListener, DownloadingLis
     public void onProgress(String url, long downloaded, long length, long usedTime) {
     }
 
+    @Override
+    public void onSpeed(String url, long speed, long instantSpeed, long eta) {
+    }
+
     @MainThread
     @Override
     public boolean onResult(Throwable throwable, Uri path, String url, Extra extra) {
@@ -32,14 +32,15 @@ import android.text.TextUtils;
 import com.queue.library.DispatchThread;
 import com.queue.library.GlobalQueue;
 
-import java.lang.reflect.Field;
-import java.util.ArrayList;
 import java.util.Locale;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import static android.content.Context.NOTIFICATION_SERVICE;
 import static com.download.library.Downloader.DOWNLOAD_MESSAGE;
 
 /**
+ * 下载通知，进度更新经过 {@link NotificationGovernor} 去重、限频后在通知线程发送
+ *
  * @author cenxiaozhong
  * @date 2018/5/13
  */
@@ -57,10 +58,23 @@ public class DownloadNotifier {
     private NotificationCompat.Action mAction;
     private DownloadTask mDownloadTask;
     private String mContent = "";
-    private static long sLastUpdateNoticationTime = SystemClock.elapsedRealtime();
+    /**
+     * 等待发送的进度，总大小未知时为-1，此时使用mPendingLoaded
+     */
+    private volatile int mPendingProgress = -1;
+    private volatile long mPendingLoaded = -1L;
+    /**
+     * 已经交给 {@link NotificationGovernor} 等待发送
+     */
+    private final AtomicBoolean mDirty = new AtomicBoolean(false);
+    /**
+     * 进入暂停、完成等最终状态后不再更新进度
+     */
+    private volatile boolean mStopped = false;
+    private volatile long mLastNotifyTime = 0L;
     private static volatile DispatchThread NOTIFICATION_UPDATE_QUEUE;
 
-    private static DispatchThread getNotificationUpdateQueue() {
+    static DispatchThread getNotificationUpdateQueue() {
         if (null == NOTIFICATION_UPDATE_QUEUE) {
             synchronized (DownloadNotifier.class) {
                 if (null == NOTIFICATION_UPDATE_QUEUE) {
@@ -77,15 +91,22 @@ public class DownloadNotifier {
         mContext = context;
         mNotificationManager = (NotificationManager) mContext
                 .getSystemService(NOTIFICATION_SERVICE);
+        mBuilder = createBuilder(mContext);
+    }
+
+    /**
+     * @return 使用下载通知渠道的Builder，创建失败时返回null
+     */
+    static NotificationCompat.Builder createBuilder(Context context) {
         try {
             if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.O) {
                 String channelId = "";
-                mBuilder = new NotificationCompat.Builder(mContext,
-                        channelId = mContext.getPackageName().concat(Runtime.getInstance().getVersion()));
+                NotificationCompat.Builder builder = new NotificationCompat.Builder(context,
+                        channelId = context.getPackageName().concat(Runtime.getInstance().getVersion()));
                 NotificationChannel mNotificationChannel = new NotificationChannel(channelId,
                         Runtime.getInstance().getApplicationName(context),
                         NotificationManager.IMPORTANCE_LOW);
-                NotificationManager mNotificationManager = (NotificationManager) mContext
+                NotificationManager mNotificationManager = (NotificationManager) context
                         .getSystemService(NOTIFICATION_SERVICE);
                 if (null != mNotificationManager) {
                     mNotificationManager.createNotificationChannel(mNotificationChannel);
@@ -93,14 +114,16 @@ public class DownloadNotifier {
                 mNotificationChannel.enableLights(false);
                 mNotificationChannel.enableVibration(false);
                 mNotificationChannel.setSound(null, null);
+                return builder;
             } else {
-                mBuilder = new NotificationCompat.Builder(mContext);
+                return new NotificationCompat.Builder(context);
             }
         } catch (Throwable ignore) {
             if (Runtime.getInstance().isDebug()) {
                 ignore.printStackTrace();
             }
         }
+        return null;
     }
 
     void initBuilder(DownloadTask downloadTask) {
@@ -110,6 +133,9 @@ public class DownloadNotifier {
             flags |= PendingIntent.FLAG_IMMUTABLE;
         }
         this.mDownloadTask = downloadTask;
+        this.mPendingProgress = -1;
+        this.mPendingLoaded = -1L;
+        this.mStopped = false;
         mBuilder.setContentIntent(PendingIntent.getActivity(mContext, 200, new Intent(), flags));
         mBuilder.setSmallIcon(mDownloadTask.getDownloadIcon());
         mBuilder.setTicker(mContext.getString(R.string.download_trickter));
@@ -121,6 +147,9 @@ public class DownloadNotifier {
         int defaults = 0;
         mBuilder.setDeleteIntent(buildCancelContent(mContext, downloadTask.getId(), downloadTask.getUrl()));
         mBuilder.setDefaults(defaults);
+        if (NotificationGovernor.getInstance().isGroupEnabled()) {
+            mBuilder.setGroup(NotificationGovernor.GROUP_KEY);
+        }
     }
 
     void updateTitle(DownloadTask downloadTask) {
@@ -128,6 +157,31 @@ public class DownloadNotifier {
         mBuilder.setContentTitle(title);
     }
 
+    Context getContext() {
+        return mContext;
+    }
+
+    DownloadTask getDownloadTask() {
+        return mDownloadTask;
+    }
+
+    long getLastNotifyTime() {
+        return mLastNotifyTime;
+    }
+
+    boolean isStopped() {
+        return mStopped;
+    }
+
+    void clearDirty() {
+        mDirty.set(false);
+    }
+
+    @NonNull
+    String getTitle() {
+        return getTitle(mDownloadTask);
+    }
+
     @NonNull
     private String getTitle(DownloadTask downloadTask) {
         String title = (null == downloadTask.getFile() || TextUtils.isEmpty(downloadTask.getFile().getName())) ?
@@ -152,12 +206,6 @@ public class DownloadNotifier {
         return pendingIntentCancel;
     }
 
-    private void setProgress(int maxprogress, int currentprogress, boolean exc) {
-        mBuilder.setProgress(maxprogress, currentprogress, exc);
-        sent();
-    }
-
-
     private boolean hasDeleteContent() {
         return mBuilder.getNotification().deleteIntent != null;
     }
@@ -173,73 +221,79 @@ public class DownloadNotifier {
         getNotificationUpdateQueue().post(new Runnable() {
             @Override
             public void run() {
-                mNotification = mBuilder.build();
-                mNotificationManager.notify(mNotificationId, mNotification);
+                notifyNow();
             }
         });
     }
 
-    void onPreDownload() {
-        sent();
+    private void notifyNow() {
+        mNotification = mBuilder.build();
+        mNotificationManager.notify(mNotificationId, mNotification);
+        mLastNotifyTime = SystemClock.elapsedRealtime();
     }
 
-    void onDownloading(final int progress) {
+    void onPreDownload() {
         getNotificationUpdateQueue().postRunnable(new Runnable() {
             @Override
             public void run() {
-                if (!hasDeleteContent()) {
-                    setDelecte(buildCancelContent(mContext, mNotificationId, mDownloadTask.mUrl));
-                }
-                if (!mAddedCancelAction) {
-                    mAddedCancelAction = true;
-                    mAction = new NotificationCompat.Action(android.R.color.transparent,
-                            mContext.getString(android.R.string.cancel),
-                            buildCancelContent(mContext, mNotificationId, mDownloadTask.mUrl));
-                    mBuilder.addAction(mAction);
-
-                }
-                mBuilder.setContentText(mContent = mContext.getString(R.string.download_current_downloading_progress, (progress + "%")));
-                setProgress(100, progress, false);
-//                sent();
+                notifyNow();
             }
-        });
+        }, NotificationGovernor.getInstance().reserve());
+    }
 
+    /**
+     * 百分比没有变化时不更新
+     */
+    void onDownloading(int progress) {
+        if (mStopped || progress == mPendingProgress) {
+            return;
+        }
+        mPendingProgress = progress;
+        update();
     }
 
-    void onDownloaded(final long loaded) {
-        getNotificationUpdateQueue().postRunnable(new Runnable() {
-            @Override
-            public void run() {
-                if (!hasDeleteContent()) {
-                    setDelecte(buildCancelContent(mContext, mNotificationId, mDownloadTask.mUrl));
-                }
-                if (!mAddedCancelAction) {
-                    mAddedCancelAction = true;
-                    mAction = new NotificationCompat.Action(mDownloadTask.getDownloadIcon(),
-                            mContext.getString(android.R.string.cancel),
-                            buildCancelContent(mContext, mNotificationId, mDownloadTask.mUrl));
-                    mBuilder.addAction(mAction);
-                }
-                mBuilder.setContentText(mContent = mContext.getString(R.string.download_current_downloaded_length, byte2FitMemorySize(loaded)));
-                setProgress(100, 20, true);
-//                sent();
-            }
-        });
+    void onDownloaded(long loaded) {
+        if (mStopped || loaded == mPendingLoaded) {
+            return;
+        }
+        mPendingProgress = -1;
+        mPendingLoaded = loaded;
+        update();
+    }
 
+    private void update() {
+        if (mDirty.compareAndSet(false, true)) {
+            NotificationGovernor.getInstance().onUpdate(this);
+        }
     }
 
-    private long getDelayTime() {
-        synchronized (DownloadNotifier.class) {
-            long current = SystemClock.elapsedRealtime();
-            if (current >= (sLastUpdateNoticationTime + 500)) {
-                sLastUpdateNoticationTime = current;
-                return 0;
-            } else {
-                long detal = 500 - (current - sLastUpdateNoticationTime);
-                sLastUpdateNoticationTime += detal;
-                return detal;
-            }
+    /**
+     * 发送最新的进度，由 {@link NotificationGovernor} 在通知线程调用
+     */
+    void applyProgress() {
+        mDirty.set(false);
+        if (mStopped) {
+            return;
+        }
+        int progress = mPendingProgress;
+        if (!hasDeleteContent()) {
+            setDelecte(buildCancelContent(mContext, mNotificationId, mDownloadTask.mUrl));
         }
+        if (!mAddedCancelAction) {
+            mAddedCancelAction = true;
+            mAction = new NotificationCompat.Action(progress >= 0 ? android.R.color.transparent : mDownloadTask.getDownloadIcon(),
+                    mContext.getString(android.R.string.cancel),
+                    buildCancelContent(mContext, mNotificationId, mDownloadTask.mUrl));
+            mBuilder.addAction(mAction);
+        }
+        if (progress >= 0) {
+            mBuilder.setContentText(mContent = mContext.getString(R.string.download_current_downloading_progress, (progress + "%")));
+            mBuilder.setProgress(100, progress, false);
+        } else {
+            mBuilder.setContentText(mContent = mContext.getString(R.string.download_current_downloaded_length, byte2FitMemorySize(mPendingLoaded)));
+            mBuilder.setProgress(100, 20, true);
+        }
+        notifyNow();
     }
 
     private static String byte2FitMemorySize(final long byteNum) {
@@ -258,9 +312,11 @@ public class DownloadNotifier {
 
     void onDownloadPaused() {
         Runtime.getInstance().log(TAG, " onDownloadPaused:" + mDownloadTask.getUrl());
+        mStopped = true;
         getNotificationUpdateQueue().postRunnable(new Runnable() {
             @Override
             public void run() {
+                NotificationGovernor.getInstance().remove(DownloadNotifier.this);
                 if (!hasDeleteContent()) {
                     setDelecte(buildCancelContent(mContext, mNotificationId, mDownloadTask.mUrl));
                 }
@@ -271,14 +327,23 @@ public class DownloadNotifier {
                 mBuilder.setSmallIcon(mDownloadTask.getDownloadDoneIcon());
                 removeCancelAction();
                 mAddedCancelAction = false;
-                sent();
+                mBuilder.setGroup(null);
+                notifyNow();
             }
-        }, getDelayTime());
+        }, NotificationGovernor.getInstance().reserve());
     }
 
     void onDownloadFinished() {
+        mStopped = true;
         final Intent mIntent = Runtime.getInstance().getCommonFileIntentCompat(mContext, mDownloadTask);
-        if (null != mIntent) {
+        if (null == mIntent) {
+            getNotificationUpdateQueue().postRunnable(new Runnable() {
+                @Override
+                public void run() {
+                    NotificationGovernor.getInstance().remove(DownloadNotifier.this);
+                }
+            });
+        } else {
             if (!(mContext instanceof Activity)) {
                 mIntent.addFlags(Intent.FLAG_ACTIVITY_NEW_TASK);
             }
@@ -286,6 +351,7 @@ public class DownloadNotifier {
             getNotificationUpdateQueue().postRunnable(new Runnable() {
                 @Override
                 public void run() {
+                    NotificationGovernor.getInstance().remove(DownloadNotifier.this);
                     removeCancelAction();
                     setDelecte(null);
                     int flags = PendingIntent.FLAG_UPDATE_CURRENT;
@@ -298,33 +364,16 @@ public class DownloadNotifier {
                     mBuilder.setContentText(mContext.getString(R.string.download_click_open));
                     mBuilder.setProgress(100, 100, false);
                     mBuilder.setContentIntent(rightPendIntent);
-                    sent();
+                    mBuilder.setGroup(null);
+                    notifyNow();
                 }
-            }, getDelayTime());
+            }, NotificationGovernor.getInstance().reserve());
         }
     }
 
     private void removeCancelAction() {
-        try {
-            /**
-             * 用反射获取 mActions 该 Field , mBuilder.mActions 防止迭代该Field域访问不到，或者该Field
-             * 改名导致程序崩溃。
-             */
-            Class<? extends NotificationCompat.Builder> clazz = mBuilder.getClass();
-            Field mField = clazz.getDeclaredField("mActions");
-            ArrayList<NotificationCompat.Action> mActions = null;
-            if (null != mField) {
-                mActions = (ArrayList<NotificationCompat.Action>) mField.get(mBuilder);
-            }
-            int index = -1;
-            if (null != mActions && (index = mActions.indexOf(mAction)) != -1) {
-                mActions.remove(index);
-            }
-
-        } catch (Throwable ignore) {
-            if (Runtime.getInstance().isDebug()) {
-                ignore.printStackTrace();
-            }
+        if (null != mBuilder.mActions) {
+            mBuilder.mActions.remove(mAction);
         }
     }
 
@@ -333,9 +382,11 @@ public class DownloadNotifier {
      */
     void cancel() {
         final int notificationId = mNotificationId;
+        mStopped = true;
         getNotificationUpdateQueue().postRunnableScissors(new Runnable() {
             @Override
             public void run() {
+                NotificationGovernor.getInstance().remove(DownloadNotifier.this);
                 mNotificationManager.cancel(notificationId);
             }
         });
@@ -345,9 +396,16 @@ public class DownloadNotifier {
         final int notificationId = downloadTask.mId;
         final Context context = downloadTask.getContext();
         final DownloadListener downloadListener = downloadTask.getDownloadListener();
+        final DownloadNotifier downloadNotifier = downloadTask.mDownloadNotifier;
+        if (null != downloadNotifier) {
+            downloadNotifier.mStopped = true;
+        }
         getNotificationUpdateQueue().postRunnableScissors(new Runnable() {
             @Override
             public void run() {
+                if (null != downloadNotifier) {
+                    NotificationGovernor.getInstance().remove(downloadNotifier);
+                }
                 NotificationManager notificationManager = (NotificationManager) context
                         .getSystemService(NOTIFICATION_SERVICE);
                 if (null != notificationManager) {
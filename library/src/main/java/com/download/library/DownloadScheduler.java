@@ -0,0 +1,489 @@
+/*
+ * Copyright (C)  Justson(https://github.com/Justson/Downloader)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.download.library;
+
+import android.os.SystemClock;
+
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * 下载任务调度，替代按提交顺序执行的线程池队列。任务先进入等待队列，有空闲位置时按优先级以及等待时间选出下一个任务，
+ * 每等待 {@link #setAgingInterval(long)} 时长相当于提升一级优先级，低优先级的任务不会一直等待。
+ * 并行任务在 {@link Executors#io()} 中执行，串行任务同一时间只执行一个。
+ * 同一host同时执行的任务数有上限，相同优先级的任务在不同host之间轮流执行，一个慢速的源站不会占满所有位置。
+ * 开启抢占后，高优先级任务等待时会暂停一个优先级更低、支持断点续传的任务，该任务重新排队，之后从断点继续下载。
+ *
+ * @date 2026/10/18
+ * @since 4.2.0
+ */
+public final class DownloadScheduler {
+
+    private static final String TAG = Runtime.PREFIX + DownloadScheduler.class.getSimpleName();
+    private static final DownloadScheduler sInstance = new DownloadScheduler();
+
+    /**
+     * 等待执行的任务
+     */
+    private final List<Job> mQueued = new ArrayList<>();
+    /**
+     * 执行中的任务
+     */
+    private final List<Job> mRunning = new ArrayList<>();
+    /**
+     * 同时执行的并行任务数
+     */
+    private int mMaxParallelDownloads = 4;
+    /**
+     * 同一host同时执行的任务数，包括串行任务
+     */
+    private int mMaxDownloadsPerHost = 3;
+    /**
+     * host最近一次开始执行任务的序号，用于轮流执行
+     */
+    private final Map<String, Long> mHostServed = new HashMap<>();
+    private long mServed = 0L;
+    /**
+     * 等待多久提升一级优先级，默认30s
+     */
+    private long mAgingInterval = 30L * 1000L;
+    private boolean mPreemptive = false;
+    private long mSequence = 0L;
+    /**
+     * 自适应调整并行数，为null时使用固定的并行数
+     */
+    private volatile ConcurrencyController mController;
+    /**
+     * 是否有并行任务因为并行数上限而等待
+     */
+    private volatile boolean mDemand = false;
+
+    private DownloadScheduler() {
+    }
+
+    public static DownloadScheduler getInstance() {
+        return sInstance;
+    }
+
+    /**
+     * 任务进入等待队列
+     *
+     * @param command 执行下载，执行完成后释放位置
+     */
+    void schedule(Downloader downloader, Runnable command) {
+        enqueue(downloader, command);
+        dispatch();
+    }
+
+    /**
+     * 任务进入等待队列但不立即分配，批量提交时全部入队后调用一次 {@link #dispatch()}
+     */
+    synchronized void enqueue(Downloader downloader, Runnable command) {
+        mQueued.add(new Job(downloader, command, SystemClock.elapsedRealtime(), mSequence++));
+    }
+
+    /**
+     * 修改任务的优先级，等待中的任务按新的优先级排序，开启抢占时可能暂停低优先级的任务
+     */
+    void setPriority(DownloadTask downloadTask, int priority) {
+        synchronized (this) {
+            for (Job job : mQueued) {
+                if (job.downloadTask == downloadTask) {
+                    job.priority = priority;
+                }
+            }
+            for (Job job : mRunning) {
+                if (job.downloadTask == downloadTask) {
+                    job.priority = priority;
+                }
+            }
+        }
+        dispatch();
+    }
+
+    /**
+     * 等待中的任务被取消，从等待队列中移除，不再分配执行
+     *
+     * @return 任务是否还在等待队列中，已经开始执行时返回false
+     */
+    synchronized boolean remove(Downloader downloader) {
+        Iterator<Job> iterator = mQueued.iterator();
+        while (iterator.hasNext()) {
+            if (iterator.next().downloader == downloader) {
+                iterator.remove();
+                mDemand = isLimited();
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @return 任务是否因为抢占而暂停
+     */
+    synchronized boolean isPreempted(Downloader downloader) {
+        for (Job job : mRunning) {
+            if (job.downloader == downloader) {
+                return job.preempted;
+            }
+        }
+        return false;
+    }
+
+    private void finish(Job job) {
+        synchronized (this) {
+            mRunning.remove(job);
+            Iterator<String> iterator = mHostServed.keySet().iterator();
+            while (iterator.hasNext()) {
+                String host = iterator.next();
+                if (count(mRunning, host) == 0 && count(mQueued, host) == 0) {
+                    iterator.remove();
+                }
+            }
+        }
+        dispatch();
+    }
+
+    void dispatch() {
+        List<Job> started = new ArrayList<>();
+        Job victim;
+        synchronized (this) {
+            long now = SystemClock.elapsedRealtime();
+            Job job;
+            while (null != (job = next(now))) {
+                mQueued.remove(job);
+                mRunning.add(job);
+                mHostServed.put(job.host, ++mServed);
+                started.add(job);
+            }
+            mDemand = isLimited();
+            victim = mPreemptive ? victim() : null;
+            if (null != victim) {
+                victim.preempted = true;
+            }
+        }
+        for (Job job : started) {
+            Runtime.getInstance().log(TAG, "start priority:" + job.priority + " url:" + job.downloadTask.getUrl());
+            if (job.parallel) {
+                Executors.io().execute(job);
+            } else {
+                Executors.getSerialExecutor().execute(job);
+            }
+        }
+        if (null != victim) {
+            Runtime.getInstance().log(TAG, "preempt priority:" + victim.priority + " url:" + victim.downloadTask.getUrl());
+            victim.downloader.pauseDownload();
+        }
+    }
+
+    /**
+     * 先比较加上等待时间后的优先级，相同时选择最久没有执行任务的host，同一host内按排队顺序
+     *
+     * @return 可以开始执行的任务中优先级最高的一个
+     */
+    private Job next(long now) {
+        int parallel = 0;
+        boolean serial = false;
+        Map<String, Integer> hosts = new HashMap<>();
+        for (Job job : mRunning) {
+            if (job.parallel) {
+                parallel++;
+            } else {
+                serial = true;
+            }
+            Integer running = hosts.get(job.host);
+            hosts.put(job.host, null == running ? 1 : running + 1);
+        }
+        Job next = null;
+        long nextLevel = 0L;
+        for (Job job : mQueued) {
+            if (job.parallel ? parallel >= limit() : serial) {
+                continue;
+            }
+            Integer running = hosts.get(job.host);
+            if (null != running && running >= mMaxDownloadsPerHost && !job.host.isEmpty()) {
+                continue;
+            }
+            long level = mAgingInterval > 0L ? job.priority + (now - job.enqueuedAt) / mAgingInterval : job.priority;
+            if (null == next || level > nextLevel || (level == nextLevel && compare(job, next) < 0)) {
+                next = job;
+                nextLevel = level;
+            }
+        }
+        return next;
+    }
+
+    private int compare(Job left, Job right) {
+        if (!left.host.equals(right.host)) {
+            Long leftServed = mHostServed.get(left.host);
+            Long rightServed = mHostServed.get(right.host);
+            long leftOrder = null == leftServed ? 0L : leftServed;
+            long rightOrder = null == rightServed ? 0L : rightServed;
+            if (leftOrder != rightOrder) {
+                return leftOrder < rightOrder ? -1 : 1;
+            }
+        }
+        if (left.enqueuedAt != right.enqueuedAt) {
+            return left.enqueuedAt < right.enqueuedAt ? -1 : 1;
+        }
+        return left.sequence < right.sequence ? -1 : 1;
+    }
+
+    private int limit() {
+        ConcurrencyController controller = mController;
+        return null != controller ? controller.getLimit() : mMaxParallelDownloads;
+    }
+
+    private boolean isLimited() {
+        int parallel = 0;
+        for (Job job : mRunning) {
+            if (job.parallel) {
+                parallel++;
+            }
+        }
+        if (parallel < limit()) {
+            return false;
+        }
+        for (Job job : mQueued) {
+            if (job.parallel) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * 写入文件的字节数，用于自适应调整并行数
+     */
+    void onTransferred(long bytes) {
+        ConcurrencyController controller = mController;
+        if (null == controller) {
+            return;
+        }
+        controller.onTransferred(bytes);
+        if (controller.evaluate(mDemand)) {
+            Executors.ensureIOPoolSize(controller.getLimit());
+            dispatch();
+        }
+    }
+
+    /**
+     * 请求从发出到收到响应头的耗时
+     */
+    void onLatency(long millis) {
+        ConcurrencyController controller = mController;
+        if (null != controller) {
+            controller.onLatency(millis);
+        }
+    }
+
+    private static int count(List<Job> jobs, String host) {
+        int count = 0;
+        for (Job job : jobs) {
+            if (job.host.equals(host)) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * 让出的位置需要能被等待的任务使用，同一host已满时只抢占该host的任务
+     *
+     * @return 需要让出位置的任务，每类任务同一时间只抢占一个
+     */
+    private Job victim() {
+        Map<String, Integer> hosts = countPerHost(mRunning);
+        Job victim = null;
+        for (Job waiting : mQueued) {
+            Integer running = hosts.get(waiting.host);
+            boolean hostFull = null != running && running >= mMaxDownloadsPerHost && !waiting.host.isEmpty();
+            for (Job job : mRunning) {
+                if (job.parallel != waiting.parallel || job.priority >= waiting.priority || !job.isResumable()
+                        || (hostFull && !job.host.equals(waiting.host))) {
+                    continue;
+                }
+                if (null == victim || job.priority < victim.priority
+                        || (job.priority == victim.priority && job.sequence > victim.sequence)) {
+                    victim = job;
+                }
+            }
+        }
+        if (null != victim) {
+            for (Job job : mRunning) {
+                if (job.parallel == victim.parallel && job.preempted) {
+                    return null;
+                }
+            }
+        }
+        return victim;
+    }
+
+    /**
+     * 同时执行的并行下载数，默认4，串行下载不受影响。超过 {@link Executors#io()} 线程数的部分在线程池中排队
+     */
+    public void setMaxParallelDownloads(int maxParallelDownloads) {
+        synchronized (this) {
+            this.mMaxParallelDownloads = Math.max(1, maxParallelDownloads);
+        }
+        dispatch();
+    }
+
+    public synchronized int getMaxParallelDownloads() {
+        return mMaxParallelDownloads;
+    }
+
+    /**
+     * 根据吞吐量以及延迟自动调整并行数，调整范围由controller决定，设置后 {@link #setMaxParallelDownloads(int)} 不再生效，
+     * 为null时恢复固定的并行数
+     */
+    public void setConcurrencyController(ConcurrencyController controller) {
+        synchronized (this) {
+            if (null != controller) {
+                controller.start(limit());
+            }
+            this.mController = controller;
+        }
+        Executors.ensureIOPoolSize(null != controller ? controller.getLimit() : 0);
+        dispatch();
+    }
+
+    public ConcurrencyController getConcurrencyController() {
+        return mController;
+    }
+
+    /**
+     * 同一host同时执行的下载数，默认3
+     */
+    public void setMaxDownloadsPerHost(int maxDownloadsPerHost) {
+        synchronized (this) {
+            this.mMaxDownloadsPerHost = Math.max(1, maxDownloadsPerHost);
+        }
+        dispatch();
+    }
+
+    public synchronized int getMaxDownloadsPerHost() {
+        return mMaxDownloadsPerHost;
+    }
+
+    /**
+     * 等待多久相当于提升一级优先级，默认30s
+     */
+    public synchronized void setAgingInterval(long agingInterval) {
+        this.mAgingInterval = Math.max(0L, agingInterval);
+    }
+
+    /**
+     * 高优先级任务等待时，是否暂停低优先级且支持断点续传的任务，默认关闭
+     */
+    public void setPreemptive(boolean preemptive) {
+        synchronized (this) {
+            this.mPreemptive = preemptive;
+        }
+        dispatch();
+    }
+
+    public synchronized int getQueuedCount() {
+        return mQueued.size();
+    }
+
+    public synchronized int getRunningCount() {
+        return mRunning.size();
+    }
+
+    /**
+     * @return key为scheme://host:port，value为执行中的任务数
+     */
+    public synchronized Map<String, Integer> getRunningCountPerHost() {
+        return countPerHost(mRunning);
+    }
+
+    /**
+     * @return key为scheme://host:port，value为等待中的任务数
+     */
+    public synchronized Map<String, Integer> getQueuedCountPerHost() {
+        return countPerHost(mQueued);
+    }
+
+    private static Map<String, Integer> countPerHost(List<Job> jobs) {
+        Map<String, Integer> counts = new HashMap<>();
+        for (Job job : jobs) {
+            Integer count = counts.get(job.host);
+            counts.put(job.host, null == count ? 1 : count + 1);
+        }
+        return counts;
+    }
+
+    /**
+     * @return 无法解析的链接（如data uri）返回空字符串，不受host上限限制
+     */
+    static String hostOf(String url) {
+        try {
+            URL parsed = new URL(url);
+            int port = parsed.getPort() == -1 ? parsed.getDefaultPort() : parsed.getPort();
+            return parsed.getProtocol().toLowerCase(Locale.US) + "://" + parsed.getHost().toLowerCase(Locale.US) + ":" + port;
+        } catch (MalformedURLException e) {
+            return "";
+        }
+    }
+
+    private final class Job implements Runnable {
+        final Downloader downloader;
+        final DownloadTask downloadTask;
+        final Runnable command;
+        final String host;
+        int priority;
+        final boolean parallel;
+        final long enqueuedAt;
+        final long sequence;
+        boolean preempted = false;
+
+        Job(Downloader downloader, Runnable command, long enqueuedAt, long sequence) {
+            this.downloader = downloader;
+            this.downloadTask = downloader.getDownloadTask();
+            this.command = command;
+            this.host = hostOf(downloadTask.getUrl());
+            this.priority = downloadTask.getPriority();
+            this.parallel = downloadTask.isParallelDownload();
+            this.enqueuedAt = enqueuedAt;
+            this.sequence = sequence;
+        }
+
+        /**
+         * 正在下载且支持断点续传，暂停后可以继续
+         */
+        boolean isResumable() {
+            return downloadTask.getStatus() == DownloadTask.STATUS_DOWNLOADING
+                    && downloadTask.isBreakPointDownload() && !downloadTask.isDataURI();
+        }
+
+        @Override
+        public void run() {
+            try {
+                command.run();
+            } finally {
+                finish(this);
+            }
+        }
+    }
+}
@@ -0,0 +1,34 @@
+/*
+ * Copyright (C)  Justson(https://github.com/Justson/Downloader)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.download.library;
+
+/**
+ * 由 {@link DownloadingListener} 同时实现，每次回调进度之后在同一线程回调速度
+ *
+ * @date 2026/10/18
+ * @since 4.2.0
+ */
+public interface DownloadSpeedListener {
+	/**
+	 * @param url          下载链接
+	 * @param speed        最近几秒的加权平均速度，字节每秒
+	 * @param instantSpeed 最近一个采样间隔的速度，字节每秒
+	 * @param eta          估计的剩余时间，单位ms，无法估计时为-1
+	 */
+	void onSpeed(String url, long speed, long instantSpeed, long eta);
+}
@@ -13,13 +13,16 @@ import com.queue.library.GlobalQueue;
 
 import java.io.File;
 import java.io.IOException;
-import java.lang.annotation.Annotation;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.concurrent.Callable;
 import java.util.concurrent.Executor;
 
 import static com.download.library.DownloadTask.STATUS_PAUSED;
+import static com.download.library.DownloadTask.STATUS_PENDDING;
 import static com.download.library.Downloader.DOWNLOAD_MESSAGE;
 import static com.download.library.Downloader.ERROR_LOAD;
+import static com.download.library.Downloader.ERROR_STORAGE;
 import static com.download.library.Downloader.ERROR_USER_CANCEL;
 import static com.download.library.Downloader.ERROR_USER_PAUSE;
 import static com.download.library.Downloader.SUCCESSFUL;
@@ -52,17 +55,94 @@ public class DownloadSubmitterImpl implements DownloadSubmitter {
             return false;
         }
         synchronized (mLock) {
-            if (ExecuteTasksMap.getInstance().exist(downloadTask.getUrl())) {
-                Log.e(TAG, "task exists:" + downloadTask.getUrl());
-                return false;
+            ExecuteTask running = TaskRegistry.getInstance().getRunning(downloadTask.getUrl());
+            if (null != running) {
+                if (running.getDownloadTask() == downloadTask || null == running.getDownloadTask()) {
+                    Log.e(TAG, "task exists:" + downloadTask.getUrl());
+                    return false;
+                }
+                subscribe((Downloader) running, downloadTask);
+                return true;
             }
             Downloader downloader = (Downloader) Downloader.create(downloadTask);
-            ExecuteTasksMap.getInstance().addTask(downloadTask.getUrl(), downloader);
+            TaskRegistry.getInstance().addRunning(downloadTask.getUrl(), downloader);
             execute(new DownloadStartTask(downloadTask, downloader));
         }
         return true;
     }
 
+    /**
+     * 批量提交，一次加锁登记所有任务，在同一个准备任务中创建文件，全部进入调度队列后只分配一次
+     *
+     * @param group 被接受的任务加入该组，包括合并到正在下载任务的重复请求
+     */
+    void submitAll(List<DownloadTask> downloadTasks, DownloadGroup group) {
+        final List<DownloadStartTask> startTasks = new ArrayList<>(downloadTasks.size());
+        synchronized (mLock) {
+            for (DownloadTask downloadTask : downloadTasks) {
+                ExecuteTask running = TaskRegistry.getInstance().getRunning(downloadTask.getUrl());
+                if (null != running) {
+                    if (running.getDownloadTask() == downloadTask || null == running.getDownloadTask()) {
+                        Log.e(TAG, "task exists:" + downloadTask.getUrl());
+                        continue;
+                    }
+                    downloadTask.mGroup = group;
+                    group.add(downloadTask);
+                    subscribe((Downloader) running, downloadTask);
+                    continue;
+                }
+                downloadTask.mGroup = group;
+                group.add(downloadTask);
+                Downloader downloader = (Downloader) Downloader.create(downloadTask);
+                TaskRegistry.getInstance().addRunning(downloadTask.getUrl(), downloader);
+                startTasks.add(new DownloadStartTask(downloadTask, downloader));
+            }
+        }
+        if (startTasks.isEmpty()) {
+            return;
+        }
+        execute(new Runnable() {
+            @Override
+            public void run() {
+                DownloadScheduler scheduler = DownloadScheduler.getInstance();
+                for (DownloadStartTask startTask : startTasks) {
+                    try {
+                        if (startTask.prepare()) {
+                            scheduler.enqueue(startTask.mDownloader, command(startTask.mDownloadTask, startTask.mDownloader));
+                        }
+                    } catch (Throwable throwable) {
+                        // 单个任务失败不影响同一批的其他任务
+                        startTask.mDownloadTask.error();
+                        onCompleted(startTask.mDownloadTask);
+                    }
+                }
+                scheduler.dispatch();
+            }
+        });
+    }
+
+    /**
+     * 任务成功、失败或者取消，通知所属的组
+     */
+    static void onCompleted(DownloadTask downloadTask) {
+        DownloadGroup group = downloadTask.mGroup;
+        if (null != group) {
+            group.onTaskCompleted(downloadTask);
+        }
+    }
+
+    /**
+     * 同一URL正在下载，重复的请求合并到正在下载的任务，共享进度以及结果回调
+     */
+    private void subscribe(Downloader downloader, DownloadTask subscriber) {
+        DownloadTask downloadTask = downloader.getDownloadTask();
+        Runtime.getInstance().log(TAG, "coalesce duplicate request:" + subscriber.getUrl());
+        if (null != subscriber.getDownloadingListener()) {
+            downloader.enableProgress = true;
+        }
+        downloadTask.addSubscriber(subscriber);
+    }
+
     @Override
     public File submit0(@NonNull final DownloadTask downloadTask) throws Exception {
         if (Looper.getMainLooper() == Looper.myLooper()) {
@@ -117,7 +197,7 @@ public class DownloadSubmitterImpl implements DownloadSubmitter {
         if (!TextUtils.isEmpty(downloadTask.getUrl())) {
             synchronized (mLock) {
                 if (!TextUtils.isEmpty(downloadTask.getUrl())) {
-                    ExecuteTasksMap.getInstance().removeTask(downloadTask.getUrl());
+                    TaskRegistry.getInstance().removeRunning(downloadTask.getUrl());
                 }
             }
         }
@@ -136,21 +216,26 @@ public class DownloadSubmitterImpl implements DownloadSubmitter {
 
         @Override
         public void run() {
+            if (prepare()) {
+                schedule(mDownloadTask, mDownloader);
+            }
+        }
+
+        /**
+         * 创建目标文件等下载前的准备，失败时移除任务
+         */
+        boolean prepare() {
             try {
-                if (null != mDownloadTask.getDownloadingListener()) {
-                    try {
-                        Annotation annotation = mDownloadTask.getDownloadingListener().getClass().getDeclaredMethod("onProgress", String.class, long.class, long.class, long.class).getAnnotation(DownloadingListener.MainThread.class);
-                        boolean mCallbackInMainThread = null != annotation;
-                        mDownloader.mCallbackInMainThread = mCallbackInMainThread;
-                        Runtime.getInstance().log(TAG, " callback in main-Thread:" + mCallbackInMainThread);
-                    } catch (Exception e) {
-                        e.printStackTrace();
-                    }
-                }
+                mDownloader.mDispatchPolicy = mDownloadTask.getDispatchPolicy();
                 if (mDownloadTask.getStatus() != STATUS_PAUSED) {
                     mDownloadTask.resetTime();
                 }
-                mDownloadTask.setStatus(DownloadTask.STATUS_PENDDING);
+                if (!mDownloadTask.pendingIfNotStopped()) {
+                    // 提交后、排队前被暂停或者取消
+                    mDownloadTask.compareAndSetStatus(DownloadTask.STATUS_PAUSING, STATUS_PAUSED);
+                    finishParked(mDownloadTask, mDownloader);
+                    return false;
+                }
 
                 if (null == mDownloadTask.getFile()) {
                     File file = mDownloadTask.isUniquePath()
@@ -173,13 +258,12 @@ public class DownloadSubmitterImpl implements DownloadSubmitter {
                 if (null == mDownloadTask.getFile()) {
                     throw new RuntimeException("target file can't be created . ");
                 }
-                mDownloadTask.createNotifier();
-
-                if (this.mDownloadTask.isParallelDownload()) {
-                    executeOnExecutor(Executors.io());
-                } else {
-                    executeOnExecutor(Executors.getSerialExecutor());
+                if (mDownloadTask.isStaging() && mDownloadTask.getFile().isFile() && mDownloadTask.getFile().length() == 0L) {
+                    // 下载到临时文件时，目标文件在校验通过后才出现
+                    mDownloadTask.getFile().delete();
                 }
+                mDownloadTask.createNotifier();
+                return true;
             } catch (Throwable throwable) {
                 releaseTask(mDownloadTask);
                 throwable.printStackTrace();
@@ -187,23 +271,100 @@ public class DownloadSubmitterImpl implements DownloadSubmitter {
             }
         }
 
+    }
 
-        private void executeOnExecutor(Executor threadPoolExecutor) {
-            threadPoolExecutor.execute(new Runnable() {
-                @Override
-                public void run() {
-                    try {
-                        int result = mDownloader.doInBackground();
-                        DownloadSubmitterImpl.getInstance().execute0(new DownloadTaskOver(result, mDownloader, mDownloadTask));
-                    } catch (Throwable throwable) {
-                        throwable.printStackTrace();
-                        mDownloadTask.error();
-                        releaseTask(mDownloadTask);
+    private void schedule(final DownloadTask downloadTask, final Downloader downloader) {
+        DownloadScheduler.getInstance().schedule(downloader, command(downloadTask, downloader));
+    }
+
+    private Runnable command(final DownloadTask downloadTask, final Downloader downloader) {
+        return new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    int result = downloader.doInBackground();
+                    if (result == ERROR_USER_PAUSE && downloadTask.getStatus() == STATUS_PAUSED
+                            && DownloadScheduler.getInstance().isPreempted(downloader)) {
+                        requeue(downloadTask, downloader, STATUS_PAUSED);
+                        return;
                     }
+                    if (result == ERROR_STORAGE && downloader.isSpaceInsufficient()) {
+                        if (awaitSpace(downloadTask, downloader)) {
+                            return;
+                        }
+                        downloadTask.error();
+                    }
+                    DownloadSubmitterImpl.getInstance().execute0(new DownloadTaskOver(result, downloader, downloadTask));
+                } catch (Throwable throwable) {
+                    throwable.printStackTrace();
+                    downloadTask.error();
+                    releaseTask(downloadTask);
                 }
-            });
+            }
+        };
+    }
+
+    /**
+     * 被抢占暂停或者等待空间的任务重新排队，从断点继续下载。
+     * 状态已经不是expect时（等待期间被取消）不再排队，按结束处理
+     *
+     * @param expect 任务当前应处的状态
+     */
+    private void requeue(DownloadTask downloadTask, Downloader previous, int expect) {
+        synchronized (mLock) {
+            if (!downloadTask.compareAndSetStatus(expect, STATUS_PENDDING)) {
+                Runtime.getInstance().log(TAG, "requeue dropped , status:" + downloadTask.getStatus() + " url:" + downloadTask.getUrl());
+                finishParked(downloadTask, previous);
+                return;
+            }
+            Downloader downloader = (Downloader) Downloader.create(downloadTask);
+            downloader.mDispatchPolicy = previous.mDispatchPolicy;
+            TaskRegistry.getInstance().addRunning(downloadTask.getUrl(), downloader);
+            schedule(downloadTask, downloader);
         }
+    }
 
+    /**
+     * 暂停或者取消等待空间以及还在调度队列中等待的任务，任务不会再开始下载，直接按结束处理
+     *
+     * @param result {@link Downloader#ERROR_USER_PAUSE} 或者 {@link Downloader#ERROR_USER_CANCEL}
+     * @return 任务是否在等待
+     */
+    boolean abandon(Downloader downloader, int result) {
+        DownloadTask downloadTask = downloader.getDownloadTask();
+        boolean parked = DiskSpaceManager.getInstance().cancelWait(downloadTask);
+        parked = DownloadScheduler.getInstance().remove(downloader) || parked;
+        if (!parked) {
+            return false;
+        }
+        if (result == ERROR_USER_PAUSE && !downloadTask.compareAndSetStatus(STATUS_PENDDING, STATUS_PAUSED)) {
+            downloadTask.compareAndSetStatus(DownloadTask.STATUS_NEW, STATUS_PAUSED);
+        }
+        finishParked(downloadTask, downloader);
+        return true;
+    }
+
+    /**
+     * 没有在执行的任务被暂停或者取消，以当前状态决定结果，与下载结束一样回调以及释放
+     */
+    private void finishParked(DownloadTask downloadTask, Downloader downloader) {
+        int result = downloadTask.isCanceled() ? ERROR_USER_CANCEL : ERROR_USER_PAUSE;
+        execute0(new DownloadTaskOver(result, downloader, downloadTask));
+    }
+
+    /**
+     * 空间不足的任务等待其他任务释放空间后重新排队，没有其他任务占用空间时直接失败
+     */
+    private boolean awaitSpace(final DownloadTask downloadTask, final Downloader downloader) {
+        downloadTask.setStatus(STATUS_PENDDING);
+        boolean waiting = DiskSpaceManager.getInstance().await(downloadTask, new Runnable() {
+            @Override
+            public void run() {
+                requeue(downloadTask, downloader, STATUS_PENDDING);
+            }
+        });
+        Runtime.getInstance().log(TAG, "insufficient space , url:" + downloadTask.getUrl() + " waiting:" + waiting);
+        return waiting;
     }
 
     private final class DownloadTaskOver implements Runnable {
@@ -266,11 +427,67 @@ public class DownloadSubmitterImpl implements DownloadSubmitter {
                 }
             } finally {
                 releaseTask(downloadTask);
+                notifySubscribers();
+                if (mResult != ERROR_USER_PAUSE) {
+                    onCompleted(downloadTask);
+                }
                 destroyTask();
                 downloadTask.anotify();
             }
         }
 
+        /**
+         * 合并的请求得到与下载任务相同的结果，暂停时保持合并，恢复下载后继续接收回调
+         */
+        private void notifySubscribers() {
+            DownloadTask downloadTask = mDownloadTask;
+            if (mResult == ERROR_USER_PAUSE) {
+                for (DownloadTask subscriber : downloadTask.getSubscribers()) {
+                    subscriber.anotify();
+                }
+                return;
+            }
+            for (DownloadTask subscriber : downloadTask.removeSubscribers()) {
+                int result = mResult;
+                try {
+                    subscriber.setTotalsLength(downloadTask.getTotalsLength());
+                    subscriber.setLoaded(downloadTask.getLoaded());
+                    subscriber.setThrowable(downloadTask.getThrowable());
+                    subscriber.setFileMD5(downloadTask.fileMD5);
+                    subscriber.setFileDigest(downloadTask.getFileDigestAlgorithm(), downloadTask.getFileDigest());
+                    subscriber.completed();
+                    if (result == SUCCESSFUL && !deliver(downloadTask, subscriber)) {
+                        result = ERROR_STORAGE;
+                        subscriber.error();
+                    }
+                    doCallback(subscriber, result);
+                } catch (Throwable throwable) {
+                    if (Runtime.getInstance().isDebug()) {
+                        throwable.printStackTrace();
+                    }
+                } finally {
+                    onCompleted(subscriber);
+                    if (subscriber.isSuccessful() && !subscriber.isAWait) {
+                        subscriber.destroy();
+                    }
+                    subscriber.anotify();
+                }
+            }
+        }
+
+        /**
+         * 合并的请求指定了其他文件时复制一份（同一文件系统下为硬链接），否则直接使用下载得到的文件
+         */
+        private boolean deliver(DownloadTask downloadTask, DownloadTask subscriber) {
+            File file = downloadTask.getFile();
+            File target = subscriber.getFile();
+            if (null == target || target.isDirectory() || target.equals(file)) {
+                subscriber.setFileSafe(file);
+                return true;
+            }
+            return ContentCache.copy(file, target);
+        }
+
         void destroyTask() {
             DownloadTask downloadTask = mDownloadTask;
             if (!downloadTask.isSuccessful()) {
@@ -303,7 +520,10 @@ public class DownloadSubmitterImpl implements DownloadSubmitter {
         }
 
         private boolean doCallback(final Integer code) {
-            final DownloadTask downloadTask = this.mDownloadTask;
+            return doCallback(this.mDownloadTask, code);
+        }
+
+        private boolean doCallback(final DownloadTask downloadTask, final Integer code) {
             final DownloadListener mDownloadListener = downloadTask.getDownloadListener();
             if (null == mDownloadListener) {
                 return false;
@@ -313,7 +533,7 @@ public class DownloadSubmitterImpl implements DownloadSubmitter {
                 public Boolean call() {
                     return mDownloadListener.onResult(code <= SUCCESSFUL ? null
                                     : new DownloadException(code, "failed , cause:" + DOWNLOAD_MESSAGE.get(code)), downloadTask.getFileUri(),
-                            downloadTask.getUrl(), mDownloadTask);
+                            downloadTask.getUrl(), downloadTask);
                 }
             });
 
@@ -25,12 +25,15 @@ import android.support.annotation.NonNull;
 import android.text.TextUtils;
 import android.util.Base64;
 
-import com.queue.library.GlobalQueue;
-
 import java.io.File;
 import java.io.IOException;
 import java.io.Serializable;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
 import java.util.concurrent.locks.Condition;
 import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReentrantLock;
@@ -49,6 +52,10 @@ public class DownloadTask extends Extra implements Serializable, Cloneable {
     protected File mFile;
     protected DownloadListener mDownloadListener;
     protected DownloadingListener mDownloadingListener;
+    /**
+     * 注册监听时指定的回调线程，为null时按注解解析
+     */
+    protected DispatchPolicy mDispatchPolicy;
     protected String authority = "";
     public static final int STATUS_NEW = 1000;
     public static final int STATUS_PENDDING = 1001;
@@ -58,6 +65,31 @@ public class DownloadTask extends Extra implements Serializable, Cloneable {
     public static final int STATUS_SUCCESSFUL = 1005;
     public static final int STATUS_CANCELED = 1006;
     public static final int STATUS_ERROR = 1007;
+    /**
+     * 后台预加载，可被抢占
+     */
+    public static final int PRIORITY_BACKGROUND = 0;
+    public static final int PRIORITY_NORMAL = 1;
+    /**
+     * 用户正在等待的下载
+     */
+    public static final int PRIORITY_USER_VISIBLE = 2;
+    /**
+     * 不主动同步到磁盘，由系统决定
+     */
+    public static final int FSYNC_NEVER = 0;
+    /**
+     * 每写入 {@link #setFsyncBytes(long)} 字节同步一次
+     */
+    public static final int FSYNC_PER_BYTES = 1;
+    /**
+     * 写入断点续传日志前同步，日志记录的进度一定已经落盘
+     */
+    public static final int FSYNC_ON_CHECKPOINT = 2;
+    /**
+     * 下载中的临时文件后缀
+     */
+    static final String PART_SUFFIX = ".part";
     long beginTime = 0L;
     long pauseTime = 0L;
     long endTime = 0L;
@@ -66,6 +98,14 @@ public class DownloadTask extends Extra implements Serializable, Cloneable {
     boolean uniquePath = true;
     int connectTimes = 0;
     volatile long loaded = 0L;
+    /**
+     * 平滑后的下载速度，字节每秒
+     */
+    volatile long speed = 0L;
+    /**
+     * 最近一个采样间隔的下载速度，字节每秒
+     */
+    volatile long instantSpeed = 0L;
     String redirect = "";
     DownloadStatusListener mDownloadStatusListener;
     Throwable mThrowable;
@@ -73,6 +113,15 @@ public class DownloadTask extends Extra implements Serializable, Cloneable {
     Condition mCondition = null;
     volatile boolean isAWait = false;
     protected DownloadNotifier mDownloadNotifier;
+    transient volatile RateLimiter mRateLimiter;
+    /**
+     * 合并到该任务的重复请求，共享同一次下载的进度以及结果
+     */
+    transient volatile List<DownloadTask> mSubscribers;
+    /**
+     * 批量提交时所属的组，完成回调需要读取，任务回收时才清除
+     */
+    transient volatile DownloadGroup mGroup;
 
 
     protected synchronized void setup() {
@@ -91,27 +140,70 @@ public class DownloadTask extends Extra implements Serializable, Cloneable {
     @interface DownloadTaskStatus {
     }
 
+    @IntDef({PRIORITY_BACKGROUND, PRIORITY_NORMAL, PRIORITY_USER_VISIBLE})
+    @interface DownloadTaskPriority {
+    }
+
+    @IntDef({FSYNC_NEVER, FSYNC_PER_BYTES, FSYNC_ON_CHECKPOINT})
+    @interface FsyncPolicy {
+    }
+
     private volatile int status = STATUS_NEW;
+    private static final AtomicIntegerFieldUpdater<DownloadTask> STATUS_UPDATER = AtomicIntegerFieldUpdater.newUpdater(DownloadTask.class, "status");
 
     public DownloadTask() {
         super();
     }
 
-    public synchronized int getStatus() {
+    public int getStatus() {
         return status;
     }
 
-    synchronized void setStatus(@DownloadTaskStatus final int status) {
-        this.status = status;
-        final DownloadStatusListener downloadStatusListener = mDownloadStatusListener;
-        final DownloadTask downloadTask = this;
+    void setStatus(@DownloadTaskStatus final int status) {
+        onStatusChanged(STATUS_UPDATER.getAndSet(this, status), status);
+    }
+
+    /**
+     * 状态为expect时原子地修改为update
+     *
+     * @return 状态不是expect时返回false，不做修改
+     */
+    boolean compareAndSetStatus(@DownloadTaskStatus int expect, @DownloadTaskStatus int update) {
+        if (!STATUS_UPDATER.compareAndSet(this, expect, update)) {
+            return false;
+        }
+        if (expect != update) {
+            onStatusChanged(expect, update);
+        }
+        return true;
+    }
+
+    /**
+     * 未结束时原子地修改状态，已经成功、失败或者取消的任务保持原状态
+     */
+    private boolean transitionIfNotFinished(@DownloadTaskStatus int update) {
+        while (true) {
+            int current = status;
+            if (current == STATUS_SUCCESSFUL || current == STATUS_ERROR || current == STATUS_CANCELED) {
+                return false;
+            }
+            if (compareAndSetStatus(current, update)) {
+                return true;
+            }
+        }
+    }
+
+    private void onStatusChanged(int from, @DownloadTaskStatus final int status) {
+        TaskRegistry.getInstance().onStatusChanged(this, from, status);
+        List<DownloadTask> subscribers = mSubscribers;
+        if (null != subscribers) {
+            for (DownloadTask subscriber : subscribers) {
+                subscriber.setStatus(status);
+            }
+        }
+        DownloadStatusListener downloadStatusListener = mDownloadStatusListener;
         if (null != downloadStatusListener) {
-            GlobalQueue.getMainQueue().postRunnable(new Runnable() {
-                @Override
-                public void run() {
-                    downloadStatusListener.onDownloadStatusChanged(downloadTask.clone(), status);
-                }
-            });
+            ProgressTicker.getInstance().onStatusChanged(downloadStatusListener, this, status);
         }
     }
 
@@ -234,6 +326,43 @@ public class DownloadTask extends Extra implements Serializable, Cloneable {
         return getStatus() == STATUS_PAUSING;
     }
 
+    /**
+     * 正在下载时原子地进入暂停中状态，其他状态不做修改
+     */
+    boolean pausingIfDownloading() {
+        if (!compareAndSetStatus(STATUS_DOWNLOADING, STATUS_PAUSING)) {
+            return false;
+        }
+        pauseTime = SystemClock.elapsedRealtime();
+        return true;
+    }
+
+    /**
+     * 还没有开始下载（新建或者排队中）时原子地进入暂停中状态，开始下载前检查到该状态后按暂停结束
+     */
+    boolean pausingIfPending() {
+        if (!compareAndSetStatus(STATUS_PENDDING, STATUS_PAUSING) && !compareAndSetStatus(STATUS_NEW, STATUS_PAUSING)) {
+            return false;
+        }
+        pauseTime = SystemClock.elapsedRealtime();
+        return true;
+    }
+
+    /**
+     * 进入排队状态，已经被暂停或者取消时不做修改
+     */
+    boolean pendingIfNotStopped() {
+        while (true) {
+            int current = status;
+            if (current == STATUS_PAUSING || current == STATUS_CANCELED) {
+                return false;
+            }
+            if (compareAndSetStatus(current, STATUS_PENDDING)) {
+                return true;
+            }
+        }
+    }
+
     public void pausing() {
         setStatus(STATUS_PAUSING);
         pauseTime = SystemClock.elapsedRealtime();
@@ -260,7 +389,7 @@ public class DownloadTask extends Extra implements Serializable, Cloneable {
 
     protected void cancel() {
         endTime = SystemClock.elapsedRealtime();
-        setStatus(STATUS_CANCELED);
+        transitionIfNotFinished(STATUS_CANCELED);
     }
 
     protected void error() {
@@ -309,6 +438,24 @@ public class DownloadTask extends Extra implements Serializable, Cloneable {
         fileMD5 = "";
         targetCompareMD5 = "";
         this.calculateMD5 = false;
+        mTargetDigests = null;
+        digestAlgorithm = "";
+        fileDigest = "";
+        fileDigestAlgorithm = "";
+        segments = 1;
+        minSegmentSize = 2L * 1024L * 1024L;
+        checkpointInterval = 1000L;
+        channelTransfer = false;
+        priority = PRIORITY_NORMAL;
+        rateLimit = 0L;
+        mRateLimiter = null;
+        mSubscribers = null;
+        mGroup = null;
+        writeBehind = false;
+        fsyncPolicy = FSYNC_NEVER;
+        fsyncBytes = 8L * 1024L * 1024L;
+        preallocate = false;
+        staging = false;
 //		status.set(STATUS_NEW);
     }
 
@@ -318,10 +465,23 @@ public class DownloadTask extends Extra implements Serializable, Cloneable {
 
     protected DownloadTask
     setDownloadingListener(DownloadingListener downloadingListener) {
+        return setDownloadingListener(downloadingListener, null);
+    }
+
+    /**
+     * @param dispatchPolicy 回调线程，为null时按 {@link DownloadingListener.MainThread} 注解决定
+     */
+    protected DownloadTask setDownloadingListener(DownloadingListener downloadingListener, DispatchPolicy dispatchPolicy) {
         mDownloadingListener = downloadingListener;
+        mDispatchPolicy = dispatchPolicy;
         return this;
     }
 
+    DispatchPolicy getDispatchPolicy() {
+        DispatchPolicy dispatchPolicy = mDispatchPolicy;
+        return null != dispatchPolicy ? dispatchPolicy : DispatchPolicy.of(mDownloadingListener);
+    }
+
     public DownloadListener getDownloadListener() {
         return mDownloadListener;
     }
@@ -351,6 +511,28 @@ public class DownloadTask extends Extra implements Serializable, Cloneable {
         return loaded;
     }
 
+    /**
+     * @return 当前的下载速度，最近几秒的加权平均，字节每秒
+     */
+    public long getSpeed() {
+        return speed;
+    }
+
+    /**
+     * @return 最近一个采样间隔的下载速度，字节每秒
+     */
+    public long getInstantSpeed() {
+        return instantSpeed;
+    }
+
+    /**
+     * @return 按当前速度估计的剩余时间，单位毫秒，总大小未知或者速度为0时返回-1
+     */
+    public long getEta() {
+        long totals = getTotalsLength();
+        return totals > 0L ? SpeedEstimator.eta(totals - loaded, speed) : -1L;
+    }
+
     void setLoaded(long loaded) {
         this.loaded = loaded;
     }
@@ -474,6 +656,74 @@ public class DownloadTask extends Extra implements Serializable, Cloneable {
         return this;
     }
 
+    protected DownloadTask addTargetDigest(String algorithm, String digest) {
+        String name = Digest.normalize(algorithm);
+        if (null == name) {
+            Runtime.getInstance().logError(TAG, "unsupported digest algorithm:" + algorithm);
+            return this;
+        }
+        if (null == mTargetDigests) {
+            mTargetDigests = new HashMap<>();
+        }
+        if (TextUtils.isEmpty(digest)) {
+            mTargetDigests.remove(name);
+        } else {
+            mTargetDigests.put(name, digest.trim());
+        }
+        return this;
+    }
+
+    protected DownloadTask setDigestAlgorithm(String algorithm) {
+        String name = Digest.normalize(algorithm);
+        if (null == name && !TextUtils.isEmpty(algorithm)) {
+            Runtime.getInstance().logError(TAG, "unsupported digest algorithm:" + algorithm);
+        }
+        this.digestAlgorithm = null == name ? "" : name;
+        return this;
+    }
+
+    DownloadTask setFileDigest(String algorithm, String digest) {
+        this.fileDigestAlgorithm = algorithm;
+        this.fileDigest = digest;
+        return this;
+    }
+
+    /**
+     * @return 用于校验的算法，提供了多种期望摘要时选择计算开销最低的，没有期望摘要时返回null
+     */
+    String getVerifyAlgorithm() {
+        HashSet<String> algorithms = new HashSet<>();
+        if (null != mTargetDigests) {
+            algorithms.addAll(mTargetDigests.keySet());
+        }
+        if (!TextUtils.isEmpty(getTargetCompareMD5())) {
+            algorithms.add(Digest.MD5);
+        }
+        return Digest.cheapest(algorithms);
+    }
+
+    String getTargetDigest(String algorithm) {
+        String digest = null == mTargetDigests ? null : mTargetDigests.get(algorithm);
+        if (TextUtils.isEmpty(digest) && Digest.MD5.equals(algorithm)) {
+            digest = getTargetCompareMD5();
+        }
+        return null == digest ? "" : digest;
+    }
+
+    /**
+     * @return 下载过程中需要计算的算法，优先使用校验算法，不需要计算时返回null
+     */
+    String getCalculateAlgorithm() {
+        String algorithm = getVerifyAlgorithm();
+        if (null != algorithm) {
+            return algorithm;
+        }
+        if (!TextUtils.isEmpty(digestAlgorithm)) {
+            return digestAlgorithm;
+        }
+        return calculateMD5 ? Digest.MD5 : null;
+    }
+
 
     @Override
     public String getFileMD5() {
@@ -497,6 +747,107 @@ public class DownloadTask extends Extra implements Serializable, Cloneable {
         return this;
     }
 
+    protected DownloadTask setSegments(int segments) {
+        if (segments > 16) {
+            segments = 16;
+        }
+        if (segments < 1) {
+            segments = 1;
+        }
+        this.segments = segments;
+        return this;
+    }
+
+    protected DownloadTask setMinSegmentSize(long minSegmentSize) {
+        if (minSegmentSize < 64L * 1024L) {
+            minSegmentSize = 64L * 1024L;
+        }
+        this.minSegmentSize = minSegmentSize;
+        return this;
+    }
+
+    protected DownloadTask setCheckpointInterval(long checkpointInterval) {
+        if (checkpointInterval < 100L) {
+            checkpointInterval = 100L;
+        }
+        this.checkpointInterval = checkpointInterval;
+        return this;
+    }
+
+    protected DownloadTask setChannelTransfer(boolean channelTransfer) {
+        this.channelTransfer = channelTransfer;
+        return this;
+    }
+
+    protected DownloadTask setWriteBehind(boolean writeBehind) {
+        this.writeBehind = writeBehind;
+        return this;
+    }
+
+    protected DownloadTask setFsyncPolicy(@FsyncPolicy int fsyncPolicy) {
+        this.fsyncPolicy = fsyncPolicy;
+        return this;
+    }
+
+    protected DownloadTask setFsyncBytes(long fsyncBytes) {
+        if (fsyncBytes < 64L * 1024L) {
+            fsyncBytes = 64L * 1024L;
+        }
+        this.fsyncBytes = fsyncBytes;
+        return this;
+    }
+
+    protected DownloadTask setPreallocate(boolean preallocate) {
+        this.preallocate = preallocate;
+        return this;
+    }
+
+    protected DownloadTask setStaging(boolean staging) {
+        this.staging = staging;
+        return this;
+    }
+
+    /**
+     * @return 正在写入的文件，下载到临时文件时为目标文件加上 {@link #PART_SUFFIX}
+     */
+    File getTransferFile() {
+        File file = mFile;
+        if (!staging || null == file) {
+            return file;
+        }
+        return new File(file.getParentFile(), file.getName() + PART_SUFFIX);
+    }
+
+    protected DownloadTask setRateLimit(long rateLimit) {
+        this.rateLimit = rateLimit;
+        RateLimiter rateLimiter = mRateLimiter;
+        if (null != rateLimiter) {
+            rateLimiter.setRate(rateLimit);
+        }
+        return this;
+    }
+
+    /**
+     * 限速随任务创建，下载过程中修改 {@link #setRateLimit(long)} 立即生效
+     */
+    RateLimiter getRateLimiter() {
+        RateLimiter rateLimiter = mRateLimiter;
+        if (null == rateLimiter) {
+            synchronized (this) {
+                rateLimiter = mRateLimiter;
+                if (null == rateLimiter) {
+                    rateLimiter = mRateLimiter = new RateLimiter(rateLimit);
+                }
+            }
+        }
+        return rateLimiter;
+    }
+
+    protected DownloadTask setPriority(@DownloadTaskPriority int priority) {
+        this.priority = priority;
+        return this;
+    }
+
     protected void createNotifier() {
         if (mDownloadNotifier != null) {
             mDownloadNotifier.initBuilder(this);
@@ -567,6 +918,31 @@ public class DownloadTask extends Extra implements Serializable, Cloneable {
         mThrowable = throwable;
     }
 
+    synchronized void addSubscriber(DownloadTask subscriber) {
+        if (null == mSubscribers) {
+            mSubscribers = new CopyOnWriteArrayList<>();
+        }
+        mSubscribers.add(subscriber);
+        subscriber.setStatus(getStatus());
+    }
+
+    /**
+     * @return 合并到该任务的请求，没有时返回空列表
+     */
+    List<DownloadTask> getSubscribers() {
+        List<DownloadTask> subscribers = mSubscribers;
+        return null == subscribers ? Collections.<DownloadTask>emptyList() : subscribers;
+    }
+
+    /**
+     * 下载结束，移除并返回所有合并的请求
+     */
+    synchronized List<DownloadTask> removeSubscribers() {
+        List<DownloadTask> subscribers = getSubscribers();
+        mSubscribers = null;
+        return subscribers;
+    }
+
     void await() throws InterruptedException {
         if (mutex == null) {
             return;
@@ -16,25 +16,31 @@
 
 package com.download.library;
 
+import android.os.Build;
 import android.os.Handler;
 import android.os.Looper;
 import android.os.StatFs;
 import android.os.SystemClock;
+import android.system.ErrnoException;
+import android.system.Os;
+import android.system.OsConstants;
 import android.text.TextUtils;
 import android.util.Base64;
 import android.util.SparseArray;
 
-import java.io.BufferedInputStream;
 import java.io.Closeable;
 import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.RandomAccessFile;
-import java.net.HttpURLConnection;
 import java.net.MalformedURLException;
 import java.net.URL;
 import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.zip.GZIPInputStream;
 import java.util.zip.Inflater;
 import java.util.zip.InflaterInputStream;
@@ -65,7 +71,15 @@ public class Downloader extends com.download.library.AsyncTask implements IDownl
     /**
      * 已经下载的大小
      */
-    private volatile long mLoaded = 0L;
+    private final AtomicLong mLoaded = new AtomicLong(0L);
+    /**
+     * 本次下载实际写入的字节数，只增不减，用于计算速度
+     */
+    private final AtomicLong mTransferred = new AtomicLong(0L);
+    /**
+     * 下载速度，由 {@link ProgressTicker} 采样
+     */
+    final SpeedEstimator mSpeedEstimator = new SpeedEstimator();
     /**
      * 总大小
      */
@@ -74,22 +88,18 @@ public class Downloader extends com.download.library.AsyncTask implements IDownl
      * 上一次下载，文件缓存长度
      */
     private long mLastLoaded = 0L;
-    /**
-     * 耗时
-     */
-    private long mUsedTime = 0L;
     /**
      * 上一次更新通知的时间
      */
     private long mLastTime = 0L;
     /**
-     * 下载开始时间
+     * 上一次采样回调时的长度
      */
-    private volatile long mBeginTime = 0L;
+    private long mSampledLoaded = -1L;
     /**
-     * 当前下载平均速度
+     * 下载开始时间
      */
-    private volatile long mAverageSpeed = 0L;
+    private volatile long mBeginTime = 0L;
     /**
      * 下载异常
      */
@@ -110,7 +120,6 @@ public class Downloader extends com.download.library.AsyncTask implements IDownl
     /**
      * Download read buffer size
      */
-    private static final int BUFFER_SIZE = 1024 * 8;
     /**
      * 最多允许7次重定向
      */
@@ -133,8 +142,47 @@ public class Downloader extends com.download.library.AsyncTask implements IDownl
     protected static final SparseArray<String> DOWNLOAD_MESSAGE = new SparseArray<>(13);
     private static final Handler HANDLER = new Handler(Looper.getMainLooper());
     protected volatile boolean enableProgress = false;
-    protected boolean mCallbackInMainThread = false;
+    /**
+     * 进度回调的线程，提交任务时由 {@link DownloadTask#getDispatchPolicy()} 决定
+     */
+    protected volatile DispatchPolicy mDispatchPolicy = DispatchPolicy.DIRECT;
+    /**
+     * 已经投递到 {@link DispatchPolicy#MODE_EXECUTOR} 线程池还没有执行
+     */
+    private final AtomicBoolean mDeliverPending = new AtomicBoolean(false);
+    private volatile boolean mDeliverNotify = false;
+    private final Runnable mDeliverer = new Runnable() {
+        @Override
+        public void run() {
+            mDeliverPending.set(false);
+            boolean notify = mDeliverNotify;
+            mDeliverNotify = false;
+            deliverProgress(notify);
+        }
+    };
     protected boolean quickProgress = false;
+    /**
+     * 服务端不支持Range，分段下载退回单连接下载
+     */
+    private boolean mSegmentDisabled = false;
+    /**
+     * 断点续传日志
+     */
+    private DownloadJournal mJournal;
+    /**
+     * 文件名冲突时预留的新文件名，下载结束后释放
+     */
+    private File mReservedFile;
+    /**
+     * 预留空间失败
+     */
+    private volatile boolean mSpaceInsufficient;
+    /**
+     * 边下载边计算的摘要，覆盖文件开头连续的已写入数据
+     */
+    private volatile Digest mDigest;
+    private String mEtag;
+    private String mLastModified;
 
     private StringBuffer mDownloadMessage = new StringBuffer();
 
@@ -178,15 +226,90 @@ public class Downloader extends com.download.library.AsyncTask implements IDownl
     }
 
 
+    /**
+     * 通过 {@link DiskSpaceManager} 预留剩余长度的空间，空间不足时由调用方决定等待或失败
+     */
     private boolean checkSpace() {
         DownloadTask downloadTask = this.mDownloadTask;
-        if (downloadTask.getTotalsLength() - downloadTask.getFile().length() > (getFsAvailableSize(downloadTask.getFile().getParent()) - (100 * 1024 * 1024))) {
+        long completed = null != mJournal ? mJournal.completedLength() : downloadTask.getTransferFile().length();
+        if (null != mJournal && downloadTask.isPreallocate()) {
+            // 之前预分配的文件已经占用了全部长度，续传写入不再占用新的空间
+            completed = Math.max(completed, downloadTask.getTransferFile().length());
+        }
+        if (!DiskSpaceManager.getInstance().reserve(downloadTask, downloadTask.getTotalsLength(), completed)) {
             Runtime.getInstance().logError(TAG, " 空间不足");
+            mSpaceInsufficient = true;
             return false;
         }
         return true;
     }
 
+    /**
+     * @return 是否因为空间不足而结束，此时任务状态没有置为失败
+     */
+    boolean isSpaceInsufficient() {
+        return mSpaceInsufficient;
+    }
+
+    /**
+     * 按断点续传日志记录的总长度预分配文件，续传进度只来自日志，不再使用文件长度
+     *
+     * @return 是否执行了预分配，空间不足时返回false
+     */
+    boolean preallocate(DownloadJournal journal) {
+        DownloadTask downloadTask = this.mDownloadTask;
+        if (!downloadTask.isPreallocate() || null == journal) {
+            return false;
+        }
+        try {
+            preallocate(downloadTask.getTransferFile(), journal.getTotalLength());
+            DiskSpaceManager.getInstance().allocated(downloadTask);
+            return true;
+        } catch (IOException e) {
+            Runtime.getInstance().logError(TAG, "preallocate error:" + e.getMessage());
+            mDownloadMessage.append("preallocate error=").append(e.getMessage()).append("\n");
+            return false;
+        }
+    }
+
+    /**
+     * API 21以上使用posix_fallocate真正分配磁盘块，空间不足时立即失败；
+     * 文件系统不支持时使用 {@link RandomAccessFile#setLength(long)}，大部分文件系统会创建稀疏文件
+     */
+    private void preallocate(File file, long length) throws IOException {
+        if (length <= 0L || file.length() >= length) {
+            return;
+        }
+        RandomAccessFile out = new RandomAccessFile(file, "rw");
+        try {
+            if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.LOLLIPOP) {
+                try {
+                    Os.posix_fallocate(out.getFD(), 0L, length);
+                    return;
+                } catch (ErrnoException e) {
+                    if (e.errno == OsConstants.ENOSPC) {
+                        throw new IOException("no space left on device , length:" + length);
+                    }
+                }
+            }
+            out.setLength(length);
+        } finally {
+            closeIO(out);
+        }
+    }
+
+    private void truncate(File file, long length) throws IOException {
+        if (file.length() <= length) {
+            return;
+        }
+        RandomAccessFile out = new RandomAccessFile(file, "rw");
+        try {
+            out.setLength(length);
+        } finally {
+            closeIO(out);
+        }
+    }
+
     public static long getFsAvailableSize(final String anyPathInFs) {
         if (TextUtils.isEmpty(anyPathInFs)) {
             return 0;
@@ -238,8 +361,26 @@ public class Downloader extends com.download.library.AsyncTask implements IDownl
         }
 
         this.mBeginTime = SystemClock.elapsedRealtime();
+        String contentKey = ContentCache.digestKey(downloadTask);
+        if (null != contentKey && ContentCache.getInstance().isEnabled()) {
+            // 同一内容正在被其他任务下载时在这里等待
+            File cached = ContentCache.getInstance().acquire(contentKey, downloadTask);
+            if (downloadTask.isPausing()) {
+                ContentCache.getInstance().release(downloadTask);
+                downloadTask.pause();
+                return ERROR_USER_PAUSE;
+            }
+            if (downloadTask.isPaused() || downloadTask.isCanceled()) {
+                ContentCache.getInstance().release(downloadTask);
+                return downloadTask.isCanceled() ? ERROR_USER_CANCEL : ERROR_USER_PAUSE;
+            }
+            if (null != cached && completeFromCache(cached)) {
+                return SUCCESSFUL;
+            }
+        }
         if (!checkNet()) {
             Runtime.getInstance().logError(TAG, " Network error,isForceDownload:" + mDownloadTask.isForceDownload());
+            ContentCache.getInstance().release(downloadTask);
             downloadTask.error();
             return ERROR_NETWORK_CONNECTION;
         }
@@ -256,7 +397,17 @@ public class Downloader extends com.download.library.AsyncTask implements IDownl
         String name = Thread.currentThread().getName();
         Thread.currentThread().setName("pool-download-thread-" + Runtime.getInstance().generateGlobalThreadId());
         try {
-            downloadTask.setStatus(DownloadTask.STATUS_DOWNLOADING);
+            if (!downloadTask.compareAndSetStatus(DownloadTask.STATUS_PENDDING, DownloadTask.STATUS_DOWNLOADING)) {
+                // 开始前被暂停或者取消
+                if (downloadTask.compareAndSetStatus(DownloadTask.STATUS_PAUSING, DownloadTask.STATUS_PAUSED)) {
+                    return ERROR_USER_PAUSE;
+                }
+                if (downloadTask.isPaused() || downloadTask.isCanceled()) {
+                    return downloadTask.isCanceled() ? ERROR_USER_CANCEL : ERROR_USER_PAUSE;
+                }
+                downloadTask.setStatus(DownloadTask.STATUS_DOWNLOADING);
+            }
+            ProgressTicker.getInstance().register(this);
             IOException ioException = null;
             for (int i = 0; i <= downloadTask.retry; i++) {
                 try {
@@ -292,9 +443,9 @@ public class Downloader extends com.download.library.AsyncTask implements IDownl
             mDownloadMessage.append("error=").append("0x" + Integer.toHexString(error)).append("\n");
             mDownloadMessage.append("error table: ERROR_NETWORK_CONNECTION = 0x4000,ERROR_RESPONSE_STATUS = 0x4001,ERROR_STORAGE = 0x4002,ERROR_TIME_OUT = 0x4003,ERROR_USER_PAUSE = 0x4004,ERROR_USER_CANCEL = 0x4006,ERROR_SHUTDOWN = 0x4007,ERROR_TOO_MANY_REDIRECTS = 0x4008,ERROR_LOAD = 0x4009,ERROR_RESOURCE_NOT_FOUND = 0x4010,ERROR_MD5 = 0x4011,ERROR_SERVICE = 0x5003,SUCCESSFUL = 0x2000,HTTP_RANGE_NOT_SATISFIABLE = 4016").append("\n");
             mDownloadMessage.append("error message=").append(DOWNLOAD_MESSAGE.get(error)).append("\n");
-            mDownloadMessage.append("mLoaded=").append(mLoaded).append("\n");
+            mDownloadMessage.append("mLoaded=").append(mLoaded.get()).append("\n");
             mDownloadMessage.append("mLastLoaded=").append(mLastLoaded).append("\n");
-            mDownloadMessage.append("mLoaded+mLastLoaded=").append(mLoaded + mLastLoaded).append("\n");
+            mDownloadMessage.append("mLoaded+mLastLoaded=").append(mLoaded.get() + mLastLoaded).append("\n");
             mDownloadMessage.append("totals=").append(this.mTotals).append("\n");
             if (downloadTask.getStatus() == DownloadTask.STATUS_SUCCESSFUL || error == ERROR_MD5) {
                 mDownloadMessage.append("isCalculateMD5=").append(downloadTask.isCalculateMD5()).append("\n");
@@ -307,6 +458,9 @@ public class Downloader extends com.download.library.AsyncTask implements IDownl
             if (!TextUtils.isEmpty(downloadTask.getTargetCompareMD5())) {
                 mDownloadMessage.append("targetCompareMD5=").append(downloadTask.getTargetCompareMD5()).append("\n");
             }
+            if (!TextUtils.isEmpty(downloadTask.getFileDigest())) {
+                mDownloadMessage.append("FileDigest=").append(downloadTask.getFileDigestAlgorithm()).append(":").append(downloadTask.getFileDigest()).append("\n");
+            }
             mDownloadMessage.append("current downloadTask status=").append(downloadTask.getStatus()).append("\n");
             mDownloadMessage.append("status table: STATUS_NEW = 1000,STATUS_PENDDING = 1001,STATUS_DOWNLOADING = 1002,STATUS_PAUSING = 1003,STATUS_PAUSED = 1004,STATUS_SUCCESSFUL = 1005,STATUS_CANCELED = 1006,STATUS_ERROR = 1007").append("\n");
             mDownloadMessage.append("used time=").append(downloadTask.getUsedTime()).append("ms").append("\n");
@@ -314,6 +468,15 @@ public class Downloader extends com.download.library.AsyncTask implements IDownl
             Runtime.getInstance().log(TAG, "\r\n" + mDownloadMessage.toString());
         } finally {
             Thread.currentThread().setName(name);
+            ProgressTicker.getInstance().unregister(this);
+            downloadTask.speed = 0L;
+            downloadTask.instantSpeed = 0L;
+            DiskSpaceManager.getInstance().release(downloadTask);
+            ContentCache.getInstance().release(downloadTask);
+            if (null != mReservedFile) {
+                DirectoryIndex.getInstance().release(mReservedFile);
+                mReservedFile = null;
+            }
         }
         return error;
     }
@@ -381,6 +544,8 @@ public class Downloader extends com.download.library.AsyncTask implements IDownl
         DownloadTask downloadTask = this.mDownloadTask;
         downloadTask.updateTime(this.mBeginTime);
         downloadTask.resetConnectTimes();
+        mJournal = null;
+        mDigest = null;
         int redirectionCount = 0;
         URL url;
         if (TextUtils.isEmpty(downloadTask.redirect)) {
@@ -388,27 +553,31 @@ public class Downloader extends com.download.library.AsyncTask implements IDownl
         } else {
             url = new URL(downloadTask.getRedirect());
         }
-        HttpURLConnection httpURLConnection = null;
+        DownloadConnection connection = null;
+        // 响应体已读完或者不含下载内容时连接才能复用，否则（未读取的200/206响应）必须断开
+        boolean drained = false;
         try {
             for (; redirectionCount++ <= MAX_REDIRECTS; ) {
                 mDownloadMessage.append("redirectionCount=").append(redirectionCount).append("\n");
-                if (null != httpURLConnection) {
-                    httpURLConnection.disconnect();
+                if (null != connection) {
+                    closeConnection(connection, drained);
+                    connection = null;
                 }
+                drained = false;
                 if (downloadTask.connectTimes <= 0) {
-                    httpURLConnection = createUrlConnection(url);
-                    settingHeaders(downloadTask, httpURLConnection);
+                    connection = createUrlConnection(url);
+                    settingHeaders(downloadTask, connection);
                     try {
-                        httpURLConnection.connect();
+                        connect(connection);
                     } catch (IOException e) {
                         throw e;
                     }
                 } else {
-                    httpURLConnection = createUrlConnection(url);
-                    settingHeaders(downloadTask, httpURLConnection);
-                    rangeHeaders(downloadTask, httpURLConnection);
+                    connection = createUrlConnection(url);
+                    settingHeaders(downloadTask, connection);
+                    rangeHeaders(downloadTask, connection);
                     try {
-                        httpURLConnection.connect();
+                        connect(connection);
                     } catch (IOException e) {
                         throw e;
                     }
@@ -429,15 +598,16 @@ public class Downloader extends com.download.library.AsyncTask implements IDownl
                 boolean isEncodingChunked = false;
                 try {
                     isEncodingChunked = "chunked".equalsIgnoreCase(
-                            httpURLConnection.getHeaderField("Transfer-Encoding"));
+                            connection.getHeaderField("Transfer-Encoding"));
                 } catch (Throwable throwable) {
                     throwable.printStackTrace();
                 }
                 long contentLength = -1;
-                final boolean hasLength = ((contentLength = getHeaderFieldLong(httpURLConnection, "Content-Length")) > 0);
+                final boolean hasLength = ((contentLength = getHeaderFieldLong(connection, "Content-Length")) > 0);
                 // 获取不到文件长度
                 final boolean finishKnown = (isEncodingChunked && hasLength || !isEncodingChunked && !hasLength);
-                int responseCode = httpURLConnection.getResponseCode();
+                int responseCode = connection.getResponseCode();
+                drained = responseCode != HTTP_OK && responseCode != HTTP_PARTIAL;
                 Runtime.getInstance().log(TAG, "responseCode:" + responseCode);
                 mDownloadMessage.append("responseCode=").append(responseCode).append("\n");
                 if (responseCode == HTTP_PARTIAL && !hasLength) {
@@ -455,47 +625,52 @@ public class Downloader extends com.download.library.AsyncTask implements IDownl
                         }
                         this.mTotals = contentLength;
                         if (downloadTask.connectTimes <= 0) {
-                            start(httpURLConnection);
+                            start(connection);
                             downloadTask.connectTimes++;
-                            if (downloadTask.getFile().length() > 0 && !isEncodingChunked) {
+                            mEtag = connection.getHeaderField("ETag");
+                            mLastModified = connection.getHeaderField("Last-Modified");
+                            if (!isEncodingChunked && loadJournal(contentLength)) {
+                                if (!mJournal.isSegmented()) {
+                                    continue;
+                                }
+                            } else if (downloadTask.getFile().length() > 0 && !isEncodingChunked) {
                                 if (downloadTask.getFile().length() == contentLength) {
                                     mDownloadMessage.append("file already exist, file name=").append(downloadTask.getFile().getName()).append(", file length==contentLength").append(",contentLength=").append(contentLength).append("\n");
-                                    String fileMD5 = Runtime.getInstance().md5(downloadTask.getFile());
+                                    String verifyAlgorithm = downloadTask.getVerifyAlgorithm();
+                                    if (null == verifyAlgorithm) {
+                                        verifyAlgorithm = Digest.MD5;
+                                    }
+                                    String fileDigest = Runtime.getInstance().digest(downloadTask.getFile(), verifyAlgorithm);
                                     int compareResult = Runtime.getInstance().getFileComparator().compare(downloadTask.getUrl(),
-                                            downloadTask.getFile(), downloadTask.getTargetCompareMD5(), fileMD5);
+                                            downloadTask.getFile(), downloadTask.getTargetDigest(verifyAlgorithm), fileDigest);
                                     mDownloadMessage.append("compareResult=").append(compareResult).append("\n");
                                     mDownloadMessage.append("compare Result table:").append("COMPARE_RESULT_SUCCESSFUL = 1").append(",COMPARE_RESULT_REDOWNLOAD_COVER = 2").append(",COMPARE_RESULT_REDOWNLOAD_RENAME = 3").append("\n");
                                     if (compareResult == COMPARE_RESULT_SUCCESSFUL) {
-                                        downloadTask.setFileMD5(fileMD5);
+                                        downloadTask.setFileDigest(verifyAlgorithm, fileDigest);
+                                        if (Digest.MD5.equals(verifyAlgorithm)) {
+                                            downloadTask.setFileMD5(fileDigest);
+                                        }
                                         mLastLoaded = contentLength;
                                         publishProgressUpdate(1);
                                         downloadTask.successful();
                                         return SUCCESSFUL;
                                     } else if (compareResult == COMPARE_RESULT_REDOWNLOAD_COVER) {
-                                        downloadTask.getFile().delete();
-                                        downloadTask.getFile().createNewFile();
+                                        // 下载到临时文件时保留原文件，发布时直接替换
+                                        if (!downloadTask.isStaging()) {
+                                            downloadTask.getFile().delete();
+                                            downloadTask.getFile().createNewFile();
+                                        }
                                     } else {
-                                        for (int i = 1; i < Integer.MAX_VALUE; i++) {
-                                            String fileName = "(" + i + ")" + downloadTask.getFile().getName();
-                                            File targetFile = new File(downloadTask.getFile().getParent(), fileName);
-                                            if (targetFile.exists()) {
-                                                if (targetFile.length() >= contentLength) {
-                                                    Runtime.getInstance().log(TAG, "rename download , targetFile exists:" + targetFile.getName());
-                                                } else {
-                                                    mDownloadMessage.append("origin file name=").append(downloadTask.getFile().getName()).append(" target file name=").append(targetFile.getName()).append(",current target file length=").append(targetFile.length()).append("\n");
-                                                    downloadTask.setFileSafe(targetFile);
-                                                    break;
-                                                }
-                                            } else {
-                                                mDownloadMessage.append("target file is not exist, create new target file ,file name=").append(targetFile.getName()).append("\n");
-
-                                                targetFile.createNewFile();
-                                                downloadTask.setFileSafe(targetFile);
-                                                break;
-                                            }
+                                        File targetFile = DirectoryIndex.getInstance().reserveUnique(downloadTask.getFile());
+                                        mDownloadMessage.append("origin file name=").append(downloadTask.getFile().getName()).append(" target file name=").append(targetFile.getName()).append("\n");
+                                        if (!downloadTask.isStaging()) {
+                                            targetFile.createNewFile();
+                                            DirectoryIndex.getInstance().add(targetFile);
                                         }
+                                        mReservedFile = targetFile;
+                                        downloadTask.setFileSafe(targetFile);
                                     }
-                                } else if (downloadTask.getFile().length() >= contentLength) {
+                                } else if (downloadTask.getFile().length() >= contentLength && !downloadTask.isStaging()) {
                                     mDownloadMessage.append("file length error .").append("\n");
                                     downloadTask.getFile().delete();
                                     downloadTask.getFile().createNewFile();
@@ -505,22 +680,48 @@ public class Downloader extends com.download.library.AsyncTask implements IDownl
                         }
                         if (isEncodingChunked) {
                             this.mTotals = -1L;
-                        } else if (downloadTask.getFile().length() >= contentLength) {
+                        } else if (null == mJournal && !downloadTask.isStaging() && downloadTask.getFile().length() >= contentLength) {
                             this.mTotals = contentLength;
                             downloadTask.successful();
                             return SUCCESSFUL;
                         }
                         downloadTask.setTotalsLength(this.mTotals);
+                        if (!isEncodingChunked) {
+                            File cached = ContentCache.getInstance().get(ContentCache.etagKey(url.toString(), connection.getHeaderField("ETag"), contentLength));
+                            if (null != cached && completeFromCache(cached)) {
+                                // 没有读取响应体，连接无法复用
+                                connection.disconnect();
+                                connection = null;
+                                return SUCCESSFUL;
+                            }
+                        }
                         if (!isEncodingChunked && !checkSpace()) {
-                            downloadTask.error();
                             return ERROR_STORAGE;
                         }
-                        saveEtag(httpURLConnection);
+                        saveEtag(connection);
                         downloadTask.setTotalsLength(this.mTotals);
                         mDownloadMessage.append("totals=").append(this.mTotals).append("\n");
-                        return transferData(getInputStream(httpURLConnection),
-                                new LoadingRandomAccessFile(downloadTask.getFile()),
-                                false);
+                        if (!isEncodingChunked && isSegmentable(connection, contentLength)) {
+                            // 没有读取完整的响应体，连接无法复用
+                            connection.disconnect();
+                            connection = null;
+                            int result = new SegmentTransfer(this, url, mJournal).transfer(contentLength, mEtag, mLastModified);
+                            if (result != SegmentTransfer.RANGE_NOT_SUPPORTED) {
+                                return result;
+                            }
+                            mJournal = null;
+                            mSegmentDisabled = true;
+                            mDownloadMessage.append("range not supported, fallback to single connection .").append("\n");
+                            continue;
+                        }
+                        if (null != mJournal) {
+                            // 从头下载会覆盖已写入的区间
+                            mJournal.delete();
+                            mJournal = null;
+                        }
+                        int result = transferData(getInputStream(connection), false);
+                        drained = result == SUCCESSFUL;
+                        return result;
                     case HTTP_PARTIAL:
                         if (finishKnown) {
                             Runtime.getInstance().logError(TAG, " error , giving up ,"
@@ -530,41 +731,40 @@ public class Downloader extends com.download.library.AsyncTask implements IDownl
                             return ERROR_LOAD;
                         }
                         if (this.mTotals <= 0L) {
-                            this.mTotals = contentLength + downloadTask.getFile().length();
+                            this.mTotals = contentLength + mLastLoaded;
                         }
-                        if (this.mTotals > 0L && contentLength + downloadTask.getFile().length() != this.mTotals) {  // 服务端响应文件长度不正确，或者本地文件长度被修改。
+                        if (this.mTotals > 0L && contentLength + mLastLoaded != this.mTotals) {  // 服务端响应文件长度不正确，或者本地文件长度被修改。
                             downloadTask.error();
-                            Runtime.getInstance().logError(TAG, "length error, this.mTotals:" + this.mTotals + " contentLength:" + contentLength + " file length:" + downloadTask.getFile().length());
+                            Runtime.getInstance().logError(TAG, "length error, this.mTotals:" + this.mTotals + " contentLength:" + contentLength + " range start:" + mLastLoaded);
                             return ERROR_LOAD;
                         }
                         downloadTask.setTotalsLength(this.mTotals);
                         if (!checkSpace()) {
-                            downloadTask.error();
                             return ERROR_STORAGE;
                         }
                         Runtime.getInstance().log(TAG, "last:" + mLastLoaded + " totals:" + this.mTotals);
                         mDownloadMessage.append("last=").append(mLastLoaded).append(" totals=").append(this.mTotals).append("\n");
-                        return transferData(getInputStream(httpURLConnection),
-                                new LoadingRandomAccessFile(downloadTask.getFile()),
-                                true);
+                        int seekResult = transferData(getInputStream(connection), true);
+                        drained = seekResult == SUCCESSFUL;
+                        return seekResult;
                     case HTTP_RANGE_NOT_SATISFIABLE:
                         if (null != downloadTask.getFile()) {
                             Runtime.getInstance().log(TAG, "range not satisfiable .");
                             mDownloadMessage.append("range not satisfiable .").append("\n");
-                            downloadTask.getFile().delete();
-                            downloadTask.getFile().createNewFile();
+                            downloadTask.getTransferFile().delete();
+                            downloadTask.getTransferFile().createNewFile();
                         }
                         break;
                     case HTTP_MOVED_PERM:
                     case HTTP_MOVED_TEMP:
                     case HTTP_SEE_OTHER:
                     case HTTP_TEMP_REDIRECT:
-                        final String location = httpURLConnection.getHeaderField("Location");
+                        final String location = connection.getHeaderField("Location");
                         if (TextUtils.isEmpty(location)) {
                             downloadTask.error();
                             return ERROR_SERVICE;
                         } else {
-                            mDownloadMessage.append("original url=").append(httpURLConnection.getURL().toString()).append("  ,redirect url=" + location).append("\n");
+                            mDownloadMessage.append("original url=").append(connection.getURL().toString()).append("  ,redirect url=" + location).append("\n");
                         }
                         try {
                             url = new URL(url, location);
@@ -589,29 +789,113 @@ public class Downloader extends com.download.library.AsyncTask implements IDownl
             }
             downloadTask.error();
             return ERROR_TOO_MANY_REDIRECTS;
+        } catch (IOException e) {
+            if (null != connection) {
+                connection.disconnect();
+                connection = null;
+            }
+            throw e;
         } finally {
-            if (null != httpURLConnection) {
-                httpURLConnection.disconnect();
+            if (null != connection) {
+                closeConnection(connection, drained);
             }
         }
     }
 
-    private void rangeHeaders(DownloadTask downloadTask, HttpURLConnection httpURLConnection) {
-        if (null != downloadTask.getFile() && downloadTask.getFile().length() > 0) {
-            httpURLConnection.setRequestProperty("Range", "bytes=" + (mLastLoaded = downloadTask.getFile().length()) + "-");
+    private void closeConnection(DownloadConnection connection, boolean drained) {
+        if (drained) {
+            connection.release();
+        } else {
+            connection.disconnect();
+        }
+    }
+
+    /**
+     * 读取断点续传日志，服务端资源发生变化时丢弃日志以及已下载的数据
+     */
+    private boolean loadJournal(long contentLength) throws IOException {
+        DownloadTask downloadTask = this.mDownloadTask;
+        if (!downloadTask.isBreakPointDownload()) {
+            return false;
+        }
+        DownloadJournal journal = DownloadJournal.load(downloadTask);
+        if (null == journal) {
+            return false;
+        }
+        if (journal.isCompleted()) {
+            journal.delete();
+            return false;
+        }
+        if (!journal.matches(contentLength, mEtag, mLastModified)) {
+            mDownloadMessage.append("journal expired , download from zero .").append("\n");
+            journal.delete();
+            downloadTask.getTransferFile().delete();
+            downloadTask.getTransferFile().createNewFile();
+            return false;
+        }
+        mJournal = journal;
+        mDownloadMessage.append("journal segments=").append(journal.getSegments().length)
+                .append(" completed=").append(journal.completedLength()).append("\n");
+        return true;
+    }
+
+    private boolean isSegmentable(DownloadConnection connection, long contentLength) {
+        DownloadTask downloadTask = this.mDownloadTask;
+        if (mSegmentDisabled || downloadTask.getSegments() <= 1) {
+            return false;
+        }
+        boolean resumable = null != mJournal && mJournal.isSegmented();
+        if (contentLength < downloadTask.getMinSegmentSize() * 2L || (!resumable && downloadTask.getTransferFile().length() > 0L)) {
+            return false;
+        }
+        String contentEncoding = connection.getContentEncoding();
+        if (!TextUtils.isEmpty(contentEncoding) && !"identity".equalsIgnoreCase(contentEncoding)) {
+            return false;
+        }
+        String acceptRanges = connection.getHeaderField("Accept-Ranges");
+        return !TextUtils.isEmpty(acceptRanges) && acceptRanges.toLowerCase().contains("bytes");
+    }
+
+    private void rangeHeaders(DownloadTask downloadTask, DownloadConnection connection) {
+        long position = 0L;
+        if (null != mJournal) {
+            position = mJournal.getSegments()[0].position;
+        } else if (null != downloadTask.getFile() && !downloadTask.isPreallocate()) {
+            // 预分配的文件长度不代表进度
+            position = downloadTask.getTransferFile().length();
+        }
+        if (position > 0) {
+            connection.setRange(mLastLoaded = position, -1L);
         }
         mDownloadMessage.append("range=").append(mLastLoaded).append("\n");
-        httpURLConnection.setRequestProperty("Connection", "close");
     }
 
-    private final void start(HttpURLConnection httpURLConnection) throws IOException {
+    /**
+     * 发出请求并等待响应头，耗时用于自适应调整并行数
+     */
+    void connect(DownloadConnection connection) throws IOException {
+        long begin = SystemClock.elapsedRealtime();
+        connection.connect();
+        connection.getResponseCode();
+        DownloadScheduler.getInstance().onLatency(SystemClock.elapsedRealtime() - begin);
+    }
+
+    private final void start(DownloadConnection connection) throws IOException {
         DownloadTask downloadTask = this.mDownloadTask;
         if (TextUtils.isEmpty(downloadTask.getContentDisposition())) {
-            downloadTask.setContentDisposition(httpURLConnection.getHeaderField("Content-Disposition"));
+            downloadTask.setContentDisposition(connection.getHeaderField("Content-Disposition"));
             String fileName = Runtime.getInstance().getFileNameByContentDisposition(downloadTask.getContentDisposition());
             if (!TextUtils.isEmpty(fileName) && !downloadTask.getFile().getName().equals(fileName)) {
                 File renameTarget = new File(downloadTask.getFile().getParent(), fileName);
-                if (renameTarget.exists()) {
+                if (downloadTask.isStaging()) {
+                    // 目标文件在发布时才出现，只需要移动已下载的临时文件
+                    File originPart = downloadTask.getTransferFile();
+                    downloadTask.setFileSafe(renameTarget);
+                    if (originPart.exists()) {
+                        originPart.renameTo(downloadTask.getTransferFile());
+                    }
+                    updateNotifierTitle();
+                } else if (renameTarget.exists()) {
                     downloadTask.setFileSafe(renameTarget);
                     updateNotifierTitle();
                 } else {
@@ -628,16 +912,16 @@ public class Downloader extends com.download.library.AsyncTask implements IDownl
             }
         }
         if (TextUtils.isEmpty(downloadTask.getMimetype())) {
-            downloadTask.setMimetype(httpURLConnection.getHeaderField("Content-Type"));
+            downloadTask.setMimetype(connection.getHeaderField("Content-Type"));
         }
         if (TextUtils.isEmpty(downloadTask.getUserAgent())) {
-            String ua = httpURLConnection.getHeaderField("User-Agent");
+            String ua = connection.getHeaderField("User-Agent");
             if (ua == null) {
                 ua = "";
             }
             downloadTask.setUserAgent(ua);
         }
-        downloadTask.setContentLength(getHeaderFieldLong(httpURLConnection, "Content-Length"));
+        downloadTask.setContentLength(getHeaderFieldLong(connection, "Content-Length"));
         onStart();
     }
 
@@ -666,18 +950,18 @@ public class Downloader extends com.download.library.AsyncTask implements IDownl
         }
     }
 
-    private InputStream getInputStream(HttpURLConnection httpURLConnection) throws IOException {
-        if ("gzip".equalsIgnoreCase(httpURLConnection.getContentEncoding())) {
-            return new GZIPInputStream(httpURLConnection.getInputStream());
-        } else if ("deflate".equalsIgnoreCase(httpURLConnection.getContentEncoding())) {
-            return new InflaterInputStream(httpURLConnection.getInputStream(), new Inflater(true));
+    InputStream getInputStream(DownloadConnection connection) throws IOException {
+        if ("gzip".equalsIgnoreCase(connection.getContentEncoding())) {
+            return new GZIPInputStream(connection.getInputStream());
+        } else if ("deflate".equalsIgnoreCase(connection.getContentEncoding())) {
+            return new InflaterInputStream(connection.getInputStream(), new Inflater(true));
         } else {
-            return httpURLConnection.getInputStream();
+            return connection.getInputStream();
         }
     }
 
-    private long getHeaderFieldLong(HttpURLConnection httpURLConnection, String name) {
-        String field = httpURLConnection.getHeaderField(name);
+    long getHeaderFieldLong(DownloadConnection connection, String name) {
+        String field = connection.getHeaderField(name);
         try {
             return null == field ? -1L : Long.parseLong(field);
         } catch (NumberFormatException e) {
@@ -688,8 +972,8 @@ public class Downloader extends com.download.library.AsyncTask implements IDownl
         return -1L;
     }
 
-    private void saveEtag(HttpURLConnection httpURLConnection) {
-        String etag = httpURLConnection.getHeaderField("ETag");
+    private void saveEtag(DownloadConnection connection) {
+        String etag = connection.getHeaderField("ETag");
         if (TextUtils.isEmpty(etag)) {
             return;
         }
@@ -711,18 +995,12 @@ public class Downloader extends com.download.library.AsyncTask implements IDownl
         }
     }
 
-    private HttpURLConnection createUrlConnection(URL url) throws IOException {
+    DownloadConnection createUrlConnection(URL url) throws IOException {
         DownloadTask downloadTask = this.mDownloadTask;
-        HttpURLConnection httpURLConnection = (HttpURLConnection) url.openConnection();
-        httpURLConnection.setConnectTimeout((int) mConnectTimeOut);
-        httpURLConnection.setInstanceFollowRedirects(false);
-        httpURLConnection.setReadTimeout((int) downloadTask.getBlockMaxTime());
-        httpURLConnection.setRequestProperty("Accept", "*/*");
-        httpURLConnection.setRequestProperty("Accept-Encoding", "deflate,gzip");
-        return httpURLConnection;
+        return Runtime.getInstance().getTransport().newConnection(url, (int) mConnectTimeOut, (int) downloadTask.getBlockMaxTime());
     }
 
-    private void settingHeaders(DownloadTask downloadTask, HttpURLConnection httpURLConnection) {
+    void settingHeaders(DownloadTask downloadTask, DownloadConnection connection) {
         Map<String, String> headers = null;
         if (null != (headers = downloadTask.getHeaders()) &&
                 !headers.isEmpty()) {
@@ -730,116 +1008,337 @@ public class Downloader extends com.download.library.AsyncTask implements IDownl
                 if (TextUtils.isEmpty(entry.getKey()) || TextUtils.isEmpty(entry.getValue())) {
                     continue;
                 }
-                httpURLConnection.setRequestProperty(entry.getKey(), entry.getValue());
+                connection.setRequestProperty(entry.getKey(), entry.getValue());
             }
         }
         String eTag = "";
         if (!TextUtils.isEmpty((eTag = getEtag()))) {
             Runtime.getInstance().log(TAG, "Etag:" + eTag);
-            httpURLConnection.setRequestProperty("If-Match", getEtag());
+            connection.setRequestProperty("If-Match", getEtag());
         }
     }
 
 
     @Override
     protected void onProgressUpdate(Integer... values) {
+        deliverProgress(values != null && values.length > 0 && values[0] == 1);
+    }
+
+    /**
+     * @param notify 是否同时更新通知栏
+     */
+    void deliverProgress(boolean notify) {
         DownloadTask downloadTask = this.mDownloadTask;
         DownloadNotifier downloadNotifier = downloadTask.mDownloadNotifier;
         try {
-            long currentTime = SystemClock.elapsedRealtime();
-            this.mUsedTime = currentTime - this.mBeginTime;
-            if (mUsedTime == 0) {
-                this.mAverageSpeed = 0;
-            } else {
-                this.mAverageSpeed = mLoaded * 1000 / this.mUsedTime;
-            }
-            if (values != null && values.length > 0 && values[0] == 1) {
+            if (notify) {
                 if (null != downloadNotifier) {
                     if (mTotals > 0) {
-                        int mProgress = (int) ((mLastLoaded + mLoaded) / Float.valueOf(mTotals) * 100);
+                        int mProgress = (int) ((mLastLoaded + mLoaded.get()) / Float.valueOf(mTotals) * 100);
                         downloadNotifier.onDownloading(mProgress);
                     } else {
-                        downloadNotifier.onDownloaded((mLastLoaded + mLoaded));
+                        downloadNotifier.onDownloaded((mLastLoaded + mLoaded.get()));
                     }
                 }
             }
-            if (null != downloadTask.getDownloadListener()) {
-                downloadTask
-                        .getDownloadingListener()
-                        .onProgress(downloadTask.getUrl(), (mLastLoaded + mLoaded), mTotals, downloadTask.getUsedTime());
+            final long loaded = mLastLoaded + mLoaded.get();
+            final long totals = mTotals;
+            final long usedTime = downloadTask.getUsedTime();
+            deliverTo(downloadTask, loaded, totals, usedTime);
+            DispatchPolicy policy = mDispatchPolicy;
+            for (final DownloadTask subscriber : downloadTask.getSubscribers()) {
+                if (null == subscriber.getDownloadingListener()) {
+                    continue;
+                }
+                // 合并的请求各自注册监听，按各自的策略回调
+                DispatchPolicy subscriberPolicy = subscriber.getDispatchPolicy();
+                if (subscriberPolicy.isSameThread(policy)) {
+                    deliverTo(subscriber, loaded, totals, usedTime);
+                } else {
+                    subscriberPolicy.execute(new Runnable() {
+                        @Override
+                        public void run() {
+                            deliverTo(subscriber, loaded, totals, usedTime);
+                        }
+                    });
+                }
             }
         } catch (Throwable e) {
             e.printStackTrace();
         }
     }
 
+    /**
+     * 在 {@link DispatchPolicy#MODE_EXECUTOR} 的线程池回调，上一次还没有执行时合并
+     */
+    void deliverProgress(Executor executor, boolean notify) {
+        if (notify) {
+            mDeliverNotify = true;
+        }
+        if (mDeliverPending.compareAndSet(false, true)) {
+            try {
+                executor.execute(mDeliverer);
+            } catch (RejectedExecutionException e) {
+                mDeliverPending.set(false);
+                Runtime.getInstance().logError(TAG, "progress callback rejected:" + e.getMessage());
+            }
+        }
+    }
+
+    private void deliverTo(DownloadTask target, long loaded, long totals, long usedTime) {
+        DownloadingListener listener = target.getDownloadingListener();
+        if (null == listener) {
+            return;
+        }
+        try {
+            listener.onProgress(target.getUrl(), loaded, totals, usedTime);
+            if (listener instanceof DownloadSpeedListener) {
+                DownloadTask downloadTask = mDownloadTask;
+                ((DownloadSpeedListener) listener).onSpeed(target.getUrl(), downloadTask.getSpeed(), downloadTask.getInstantSpeed(), downloadTask.getEta());
+            }
+        } catch (Throwable e) {
+            e.printStackTrace();
+        }
+    }
 
-    private int transferData(InputStream inputStream, RandomAccessFile randomAccessFile, boolean isSeek) throws IOException {
-        byte[] buffer = new byte[BUFFER_SIZE];
-        BufferedInputStream bis = new BufferedInputStream(inputStream, BUFFER_SIZE);
-        RandomAccessFile out = randomAccessFile;
+    private int transferData(InputStream inputStream, boolean isSeek) throws IOException {
         DownloadTask downloadTask = mDownloadTask;
-        mLoaded = 0L;
+        mLoaded.set(0L);
+        if (!isSeek) {
+            mLastLoaded = 0L;
+        }
+        DownloadJournal journal = null;
+        int result = ERROR_LOAD;
         try {
-            if (isSeek) {
-                out.seek(out.length());
-            } else {
-                out.seek(0);
-                mLastLoaded = 0L;
+            DownloadJournal.Segment segment = null;
+            if (null != (journal = prepareJournal())) {
+                segment = journal.getSegments()[0];
             }
-            int bytes = 0;
-            while (!downloadTask.isPausing() && !downloadTask.isCanceled() && !downloadTask.isPaused()) {
-                int n = -1;
-                try {
-                    n = bis.read(buffer, 0, BUFFER_SIZE);
-                } catch (IOException e) {
-                    downloadTask.error();
-                    throw e;
-                }
-                if (n == -1) {
-                    break;
-                }
-                out.write(buffer, 0, n);
-                bytes += n;
-                if ((SystemClock.elapsedRealtime() - this.mBeginTime) > mDownloadTimeOut) {
-                    mDownloadTask.error();
-                    return ERROR_TIME_OUT;
-                }
+            prepareDigest(journal);
+            if (!isSeek && downloadTask.isStaging()) {
+                // 从头下载时清掉之前残留的临时文件
+                truncate(downloadTask.getTransferFile(), 0L);
             }
-            if (downloadTask.isPausing()) {
-                downloadTask.pause();
-                return ERROR_USER_PAUSE;
+            boolean preallocated = preallocate(journal);
+            if (null != journal && downloadTask.isPreallocate() && !preallocated) {
+                downloadTask.error();
+                return result = ERROR_STORAGE;
             }
-            if (downloadTask.isPaused()) {
-                return ERROR_USER_PAUSE;
+            try {
+                result = new FileTransfer(this).transfer(inputStream, mLastLoaded, -1L, journal, segment);
+            } catch (IOException e) {
+                downloadTask.error();
+                throw e;
             }
-            if (downloadTask.isCanceled()) {
-                return ERROR_USER_CANCEL;
+            if (result != SUCCESSFUL) {
+                return result;
             }
-            if (downloadTask.isCalculateMD5()) {
-                String md5 = Runtime.getInstance().md5(mDownloadTask.mFile);
-                mDownloadTask.setFileMD5(md5);
+            if (preallocated && !downloadTask.isPausing() && !downloadTask.isPaused() && !downloadTask.isCanceled()) {
+                // 解压后的长度可能与Content-Length不同，去掉预分配多出的部分
+                truncate(downloadTask.getTransferFile(), mLastLoaded + mLoaded.get());
             }
-            if (!TextUtils.isEmpty(downloadTask.getTargetCompareMD5())) {
-                if (TextUtils.isEmpty(downloadTask.fileMD5)) {
-                    String md5 = Runtime.getInstance().md5(mDownloadTask.mFile);
-                    mDownloadTask.setFileMD5(md5);
-                }
-                if (!downloadTask.getTargetCompareMD5().equalsIgnoreCase(downloadTask.getFileMD5())) {
-                    downloadTask.error();
-                    return ERROR_MD5;
+            return result = completeTransfer();
+        } finally {
+            if (null != journal) {
+                if (result == ERROR_USER_PAUSE || result == ERROR_USER_CANCEL || result == ERROR_LOAD || result == ERROR_TIME_OUT) {
+                    journal.checkpoint();
+                } else {
+                    journal.delete();
                 }
             }
-            progressFinaly();
-            downloadTask.successful();
-            return SUCCESSFUL;
-        } finally {
-            closeIO(out);
-            closeIO(bis);
             closeIO(inputStream);
         }
     }
 
+    /**
+     * 单连接下载的断点续传日志，长度未知时无法续传
+     */
+    private DownloadJournal prepareJournal() {
+        DownloadTask downloadTask = this.mDownloadTask;
+        if (this.mTotals <= 0L || !downloadTask.isBreakPointDownload()) {
+            return null;
+        }
+        DownloadJournal journal = this.mJournal;
+        if (null == journal || journal.isSegmented() || journal.getTotalLength() != this.mTotals) {
+            DownloadJournal.Segment segment = new DownloadJournal.Segment(0, 0L, this.mTotals - 1L);
+            segment.position = mLastLoaded;
+            journal = this.mJournal = DownloadJournal.create(downloadTask, this.mTotals, mEtag, mLastModified, new DownloadJournal.Segment[]{segment});
+        }
+        return journal;
+    }
+
+    /**
+     * 需要计算摘要时准备边下载边计算的摘要，优先从断点续传日志中恢复中间状态
+     */
+    Digest prepareDigest(DownloadJournal journal) {
+        String algorithm = this.mDownloadTask.getCalculateAlgorithm();
+        if (null == algorithm) {
+            return mDigest = null;
+        }
+        Digest digest = null;
+        if (null != journal && algorithm.equals(journal.getDigestAlgorithm())) {
+            digest = Digest.restore(algorithm, journal.getDigestState());
+            if (null != digest && digest.getLength() > journal.getTotalLength()) {
+                digest = null;
+            }
+        }
+        if (null == digest) {
+            digest = Digest.create(algorithm);
+        }
+        if (null != journal) {
+            journal.setDigest(digest);
+        }
+        return mDigest = digest;
+    }
+
+    Digest getDigest() {
+        return mDigest;
+    }
+
+    /**
+     * 下载过程中未能连续计算的部分（分段下载的后续分段、没有中间状态的续传）从文件中补算，
+     * 没有可用的中间状态时才完整读取一遍文件
+     */
+    private String fileDigest(String algorithm) {
+        File file = mDownloadTask.getTransferFile();
+        Digest digest = mDigest;
+        if (null == digest || !digest.getAlgorithm().equals(algorithm) || digest.getLength() > file.length()) {
+            return Runtime.getInstance().digest(file, algorithm);
+        }
+        if (digest.getLength() < file.length()) {
+            Runtime.getInstance().log(TAG, "digest catch up from:" + digest.getLength() + " length:" + file.length());
+            BufferPool bufferPool = BufferPool.getInstance();
+            byte[] buffer = bufferPool.acquire(1024 * 64);
+            RandomAccessFile in = null;
+            try {
+                in = new RandomAccessFile(file, "r");
+                in.seek(digest.getLength());
+                int n;
+                while ((n = in.read(buffer, 0, buffer.length)) != -1) {
+                    digest.update(buffer, 0, n);
+                }
+            } catch (IOException e) {
+                e.printStackTrace();
+                return Runtime.getInstance().digest(file, algorithm);
+            } finally {
+                closeIO(in);
+                bufferPool.release(buffer);
+            }
+        }
+        return digest.hexDigest();
+    }
+
+    void resetLoaded(long lastLoaded) {
+        mLastLoaded = lastLoaded;
+        mLoaded.set(0L);
+    }
+
+    boolean isTimeOut() {
+        return (SystemClock.elapsedRealtime() - this.mBeginTime) > mDownloadTimeOut;
+    }
+
+    int completeTransfer() {
+        DownloadTask downloadTask = mDownloadTask;
+        if (downloadTask.isPausing()) {
+            downloadTask.pause();
+            return ERROR_USER_PAUSE;
+        }
+        if (downloadTask.isPaused()) {
+            return ERROR_USER_PAUSE;
+        }
+        if (downloadTask.isCanceled()) {
+            return ERROR_USER_CANCEL;
+        }
+        String algorithm = downloadTask.getCalculateAlgorithm();
+        boolean md5Calculated = false;
+        if (null != algorithm) {
+            String digest = fileDigest(algorithm);
+            downloadTask.setFileDigest(algorithm, null == digest ? "" : digest);
+            if (Digest.MD5.equals(algorithm)) {
+                downloadTask.setFileMD5(digest);
+                md5Calculated = true;
+            }
+        }
+        if (downloadTask.isCalculateMD5() && !md5Calculated) {
+            // 使用其他算法校验时仍然需要MD5，只能再读一遍文件
+            downloadTask.setFileMD5(Runtime.getInstance().md5(downloadTask.getTransferFile()));
+        }
+        String verifyAlgorithm = downloadTask.getVerifyAlgorithm();
+        if (null != verifyAlgorithm) {
+            String target = downloadTask.getTargetDigest(verifyAlgorithm);
+            if (!target.equalsIgnoreCase(downloadTask.getFileDigest())) {
+                Runtime.getInstance().logError(TAG, verifyAlgorithm + " mismatch , target:" + target + " file:" + downloadTask.getFileDigest());
+                downloadTask.error();
+                return ERROR_MD5;
+            }
+        }
+        if (downloadTask.isStaging() && !publish()) {
+            downloadTask.error();
+            return ERROR_STORAGE;
+        }
+        if (ContentCache.getInstance().isEnabled()) {
+            ContentCache.getInstance().put(downloadTask.getFile(), ContentCache.digestKey(downloadTask), ContentCache.etagKey(TextUtils.isEmpty(downloadTask.getRedirect()) ? downloadTask.getUrl() : downloadTask.getRedirect(), mEtag, this.mTotals));
+        }
+        progressFinaly();
+        downloadTask.successful();
+        return SUCCESSFUL;
+    }
+
+    /**
+     * 从内容缓存得到目标文件，摘要使用缓存的key，不再读取文件
+     */
+    private boolean completeFromCache(File cached) {
+        DownloadTask downloadTask = mDownloadTask;
+        File target = downloadTask.getFile();
+        if (!ContentCache.copy(cached, target)) {
+            return false;
+        }
+        if (null != mJournal) {
+            mJournal.delete();
+            mJournal = null;
+        }
+        if (downloadTask.isStaging()) {
+            downloadTask.getTransferFile().delete();
+        }
+        DirectoryIndex.getInstance().add(target);
+        long length = target.length();
+        this.mTotals = length;
+        downloadTask.setTotalsLength(length);
+        resetLoaded(length);
+        String algorithm = downloadTask.getVerifyAlgorithm();
+        if (null != algorithm) {
+            downloadTask.setFileDigest(algorithm, downloadTask.getTargetDigest(algorithm));
+        }
+        if (downloadTask.isCalculateMD5()) {
+            downloadTask.setFileMD5(Digest.MD5.equals(algorithm) ? downloadTask.getFileDigest() : Runtime.getInstance().md5(target));
+        }
+        mDownloadMessage.append("content cache hit=").append(cached.getName()).append("\n");
+        Runtime.getInstance().log(TAG, "content cache hit , url:" + downloadTask.getUrl());
+        progressFinaly();
+        downloadTask.successful();
+        return true;
+    }
+
+    /**
+     * 校验通过后把临时文件重命名为目标文件，同一目录内的重命名是原子操作，读取方只会看到完整的文件
+     */
+    private boolean publish() {
+        DownloadTask downloadTask = mDownloadTask;
+        File part = downloadTask.getTransferFile();
+        File target = downloadTask.getFile();
+        if (!part.renameTo(target)) {
+            target.delete();
+            if (!part.renameTo(target)) {
+                Runtime.getInstance().logError(TAG, "publish error , part:" + part.getAbsolutePath());
+                return false;
+            }
+        }
+        DirectoryIndex.getInstance().remove(part);
+        DirectoryIndex.getInstance().add(target);
+        mDownloadMessage.append("publish=").append(target.getName()).append("\n");
+        return true;
+    }
+
     public void closeIO(Closeable closeable) {
         try {
             if (closeable != null) {
@@ -857,6 +1356,8 @@ public class Downloader extends com.download.library.AsyncTask implements IDownl
             return downloadTask;
         } finally {
             downloadTask.cancel();
+            // 没有在执行的任务不会再检查状态，由这里结束
+            DownloadSubmitterImpl.getInstance().abandon(this, ERROR_USER_CANCEL);
         }
     }
 
@@ -875,11 +1376,14 @@ public class Downloader extends com.download.library.AsyncTask implements IDownl
 
     private final DownloadTask pause() {
         DownloadTask downloadTask = this.mDownloadTask;
-        try {
+        if (downloadTask.pausingIfDownloading()) {
+            return downloadTask;
+        }
+        if (DownloadSubmitterImpl.getInstance().abandon(this, ERROR_USER_PAUSE)) {
             return downloadTask;
-        } finally {
-            downloadTask.pausing();
         }
+        // 已经交给线程池但还没有开始下载，开始前检查到暂停中状态后结束
+        return downloadTask.pausingIfPending() ? downloadTask : null;
     }
 
     @Override
@@ -897,7 +1401,7 @@ public class Downloader extends com.download.library.AsyncTask implements IDownl
         return this.mDownloadTask;
     }
 
-    private final class LoadingRandomAccessFile extends RandomAccessFile {
+    final class LoadingRandomAccessFile extends RandomAccessFile {
         public LoadingRandomAccessFile(File file) throws FileNotFoundException {
             super(file, "rw");
         }
@@ -905,12 +1409,16 @@ public class Downloader extends com.download.library.AsyncTask implements IDownl
         @Override
         public void write(byte[] buffer, int offset, int count) throws IOException {
             super.write(buffer, offset, count);
-            mLoaded += count;
-            DownloadTask downloadTask = mDownloadTask;
-            if (null != downloadTask) {
-                downloadTask.setLoaded(mLastLoaded + mLoaded);
-            }
-            onProgress();
+            onLoaded(count);
+        }
+    }
+
+    void onLoaded(int count) {
+        long loaded = mLoaded.addAndGet(count);
+        mTransferred.addAndGet(count);
+        DownloadTask downloadTask = mDownloadTask;
+        if (null != downloadTask) {
+            downloadTask.setLoaded(mLastLoaded + loaded);
         }
     }
 
@@ -920,31 +1428,51 @@ public class Downloader extends com.download.library.AsyncTask implements IDownl
         publishProgressUpdate(1);
     }
 
-    private void onProgress() {
+    /**
+     * 更新下载速度，每次采样都调用，只在采样线程调用
+     *
+     * @return 距离上一次采样写入的字节数
+     */
+    long measure(long now) {
+        SpeedEstimator estimator = mSpeedEstimator;
+        long delta = estimator.update(now, mTransferred.get());
+        DownloadTask downloadTask = mDownloadTask;
+        downloadTask.speed = estimator.getSpeed();
+        downloadTask.instantSpeed = estimator.getInstantSpeed();
+        return delta;
+    }
+
+    /**
+     * 由 {@link ProgressTicker} 定时采样，只在采样线程调用
+     *
+     * @return 需要的回调，0表示不回调
+     */
+    int sample(long now) {
+        long loaded = mLoaded.get();
         if (!enableProgress) {
-            return;
+            return 0;
+        }
+        if (loaded == mSampledLoaded) {
+            return 0;
+        }
+        if (now - mLastTime >= 1200L) {
+            mLastTime = now;
+            mSampledLoaded = loaded;
+            return ProgressTicker.PROGRESS_NOTIFY;
         }
         if (quickProgress) {
-            long currentTime = SystemClock.elapsedRealtime();
-            if (currentTime - mLastTime < 1200) {
-                publishProgressUpdate(0);
-            } else {
-                mLastTime = currentTime;
-                publishProgressUpdate(1);
-            }
-        } else {
-            long currentTime = SystemClock.elapsedRealtime();
-            if (currentTime - mLastTime < 1200L) {
-                return;
-            }
-            mLastTime = currentTime;
-            publishProgressUpdate(1);
+            mSampledLoaded = loaded;
+            return ProgressTicker.PROGRESS;
         }
+        return 0;
     }
 
     private void publishProgressUpdate(int i) {
-        if (mCallbackInMainThread) {
+        DispatchPolicy policy = mDispatchPolicy;
+        if (policy.isMainThread()) {
             publishProgress(i);
+        } else if (policy.getMode() == DispatchPolicy.MODE_EXECUTOR) {
+            deliverProgress(policy.getExecutor(), i == 1);
         } else {
             onProgressUpdate(i);
         }
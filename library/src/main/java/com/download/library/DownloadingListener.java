@@ -17,7 +17,7 @@ public interface DownloadingListener {
 	 * @param length     文件的总大小
 	 * @param usedTime   耗时,单位ms
 	 * 默认450左右毫秒回调一次,该方法默认回调在子线程， 如果加上注解MainThread注解修饰
-	 * 该方法， 会回调到主线程
+	 * 该方法， 会回调到主线程；也可以在注册时通过 {@link DispatchPolicy} 指定回调线程
 	 */
 	void onProgress(String url, long downloaded, long length, long usedTime);
 
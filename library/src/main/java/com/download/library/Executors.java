@@ -6,6 +6,7 @@ import android.support.annotation.NonNull;
 import java.util.concurrent.Executor;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.SynchronousQueue;
 import java.util.concurrent.ThreadFactory;
 import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
@@ -20,8 +21,19 @@ public final class Executors {
     private volatile static Executor IO;
     private volatile static Executor TASK_ENQUEUE_DISPATCH;
     private volatile static Executor TASK_QUEUEDUP_DISPATCH;
+    private volatile static Executor WRITE_BEHIND;
+    private volatile static Executor SEGMENTS;
     private static final String TAG = Executors.class.getSimpleName();
     protected static final Executor SERIAL_EXECUTOR = new SerialExecutor();
+    private static final int IO_POOL_SIZE = 4;
+    /**
+     * 分段下载线程数上限，所有任务共用
+     */
+    private static final int SEGMENT_POOL_SIZE = IO_POOL_SIZE * 4;
+    /**
+     * 默认创建的io线程池，只调整该线程池的大小
+     */
+    private volatile static ThreadPoolExecutor DEFAULT_IO;
 
     public static Executor io() {
         if (IO != null) {
@@ -29,20 +41,82 @@ public final class Executors {
         }
         synchronized (Executors.class) {
             if (IO == null) {
-                ThreadPoolExecutor service = new ThreadPoolExecutor(4, 4, 30L, TimeUnit.MILLISECONDS, new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+                ThreadPoolExecutor service = new ThreadPoolExecutor(IO_POOL_SIZE, IO_POOL_SIZE, 30L, TimeUnit.MILLISECONDS, new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
                     @Override
                     public Thread newThread(@NonNull Runnable r) {
                         return new Thread(r);
                     }
                 });
                 service.allowCoreThreadTimeOut(true);
-                IO = service;
+                IO = DEFAULT_IO = service;
             }
 
         }
         return IO;
     }
 
+    /**
+     * 自适应并行数超过默认线程数时扩大io线程池，不低于默认的4个线程，通过 {@link #setIO(Executor)} 设置的线程池不做调整
+     */
+    static void ensureIOPoolSize(int size) {
+        Executor io = io();
+        synchronized (Executors.class) {
+            if (io != DEFAULT_IO) {
+                return;
+            }
+            ThreadPoolExecutor service = DEFAULT_IO;
+            int poolSize = Math.max(IO_POOL_SIZE, size);
+            if (poolSize > service.getMaximumPoolSize()) {
+                service.setMaximumPoolSize(poolSize);
+                service.setCorePoolSize(poolSize);
+            } else if (poolSize < service.getMaximumPoolSize()) {
+                service.setCorePoolSize(poolSize);
+                service.setMaximumPoolSize(poolSize);
+            }
+        }
+    }
+
+    /**
+     * 写入后置的写入线程，每个写入独占一个线程，不与下载线程共用，避免读取线程等待写入时互相阻塞
+     */
+    static Executor writeBehind() {
+        if (WRITE_BEHIND != null) {
+            return WRITE_BEHIND;
+        }
+        synchronized (Executors.class) {
+            if (WRITE_BEHIND == null) {
+                WRITE_BEHIND = new ThreadPoolExecutor(0, Integer.MAX_VALUE, 30L, TimeUnit.SECONDS, new SynchronousQueue<Runnable>(), new ThreadFactory() {
+                    @Override
+                    public Thread newThread(@NonNull Runnable r) {
+                        return new Thread(r, "download-write-behind");
+                    }
+                });
+            }
+        }
+        return WRITE_BEHIND;
+    }
+
+    /**
+     * 分段下载的线程池，与执行整个下载任务的 {@link #io()} 分开，避免io线程被任务占满时分段只能串行。
+     * 线程数有上限且不排队，线程用完时提交被丢弃，未被领取的段由发起分段下载的线程自己完成。
+     */
+    static Executor segments() {
+        if (SEGMENTS != null) {
+            return SEGMENTS;
+        }
+        synchronized (Executors.class) {
+            if (SEGMENTS == null) {
+                SEGMENTS = new ThreadPoolExecutor(0, SEGMENT_POOL_SIZE, 30L, TimeUnit.SECONDS, new SynchronousQueue<Runnable>(), new ThreadFactory() {
+                    @Override
+                    public Thread newThread(@NonNull Runnable r) {
+                        return new Thread(r, "download-segment");
+                    }
+                }, new ThreadPoolExecutor.DiscardPolicy());
+            }
+        }
+        return SEGMENTS;
+    }
+
     public static Executor getSerialExecutor() {
         return SERIAL_EXECUTOR;
     }
@@ -114,6 +114,63 @@ public abstract class Extra implements Serializable, Cloneable {
      * 是否计算md5
      */
     protected boolean calculateMD5;
+    /**
+     * 期望的文件摘要，key为 {@link Digest} 中的算法名，多个算法时使用计算开销最低的一个校验
+     */
+    protected HashMap<String, String> mTargetDigests;
+    /**
+     * 没有期望摘要时需要计算的摘要算法
+     */
+    protected String digestAlgorithm = "";
+    /**
+     * 下载完成后计算的文件摘要
+     */
+    protected String fileDigest = "";
+    protected String fileDigestAlgorithm = "";
+    /**
+     * 分段下载的段数，小于等于1时使用单连接下载
+     */
+    protected int segments = 1;
+    /**
+     * 每段最小长度，默认2MB，文件过小时自动减少段数
+     */
+    protected long minSegmentSize = 2L * 1024L * 1024L;
+    /**
+     * 断点续传日志刷新间隔，默认1s
+     */
+    protected long checkpointInterval = 1000L;
+    /**
+     * 使用FileChannel写入文件，默认使用RandomAccessFile流式写入
+     */
+    protected boolean channelTransfer = false;
+    /**
+     * 调度优先级，排队时优先级高的任务先执行
+     */
+    protected int priority = DownloadTask.PRIORITY_NORMAL;
+    /**
+     * 下载限速，字节每秒，小于等于0时不限速
+     */
+    protected long rateLimit = 0L;
+    /**
+     * 写入后置，由写入线程合并写入文件
+     */
+    protected boolean writeBehind = false;
+    /**
+     * 同步到磁盘的时机，默认不主动同步
+     */
+    protected int fsyncPolicy = DownloadTask.FSYNC_NEVER;
+    /**
+     * {@link DownloadTask#FSYNC_PER_BYTES} 时每写入多少字节同步一次，默认8MB
+     */
+    protected long fsyncBytes = 8L * 1024L * 1024L;
+    /**
+     * 开始下载前按文件长度预分配磁盘空间，需要断点续传
+     */
+    protected boolean preallocate = false;
+    /**
+     * 先下载到同目录的临时文件，校验通过后重命名为目标文件
+     */
+    protected boolean staging = false;
 
 
     public Map<String, String> getHeaders() {
@@ -196,6 +253,22 @@ public abstract class Extra implements Serializable, Cloneable {
         return fileMD5;
     }
 
+    public Map<String, String> getTargetDigests() {
+        return null == mTargetDigests ? new HashMap<String, String>() : new HashMap<String, String>(mTargetDigests);
+    }
+
+    public String getDigestAlgorithm() {
+        return digestAlgorithm;
+    }
+
+    public String getFileDigest() {
+        return fileDigest;
+    }
+
+    public String getFileDigestAlgorithm() {
+        return fileDigestAlgorithm;
+    }
+
     public int getRetry() {
         return retry;
     }
@@ -204,6 +277,50 @@ public abstract class Extra implements Serializable, Cloneable {
         return calculateMD5;
     }
 
+    public int getSegments() {
+        return segments;
+    }
+
+    public long getMinSegmentSize() {
+        return minSegmentSize;
+    }
+
+    public long getCheckpointInterval() {
+        return checkpointInterval;
+    }
+
+    public boolean isChannelTransfer() {
+        return channelTransfer;
+    }
+
+    public int getPriority() {
+        return priority;
+    }
+
+    public long getRateLimit() {
+        return rateLimit;
+    }
+
+    public boolean isWriteBehind() {
+        return writeBehind;
+    }
+
+    public int getFsyncPolicy() {
+        return fsyncPolicy;
+    }
+
+    public long getFsyncBytes() {
+        return fsyncBytes;
+    }
+
+    public boolean isPreallocate() {
+        return preallocate;
+    }
+
+    public boolean isStaging() {
+        return staging;
+    }
+
 
     protected Extra copy(Extra copy) {
         copy.mIsForceDownload = this.mIsForceDownload;
@@ -234,6 +351,21 @@ public abstract class Extra implements Serializable, Cloneable {
         copy.targetCompareMD5 = this.targetCompareMD5;
         copy.fileMD5 = this.fileMD5;
         copy.calculateMD5 = this.calculateMD5;
+        copy.mTargetDigests = null == this.mTargetDigests ? null : new HashMap<String, String>(this.mTargetDigests);
+        copy.digestAlgorithm = this.digestAlgorithm;
+        copy.fileDigest = this.fileDigest;
+        copy.fileDigestAlgorithm = this.fileDigestAlgorithm;
+        copy.segments = this.segments;
+        copy.minSegmentSize = this.minSegmentSize;
+        copy.checkpointInterval = this.checkpointInterval;
+        copy.channelTransfer = this.channelTransfer;
+        copy.priority = this.priority;
+        copy.rateLimit = this.rateLimit;
+        copy.writeBehind = this.writeBehind;
+        copy.fsyncPolicy = this.fsyncPolicy;
+        copy.fsyncBytes = this.fsyncBytes;
+        copy.preallocate = this.preallocate;
+        copy.staging = this.staging;
         return copy;
     }
 }
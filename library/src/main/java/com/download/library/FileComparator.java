@@ -13,6 +13,12 @@ public interface FileComparator {
 	int COMPARE_RESULT_REDOWNLOAD_COVER = 2;
 	int COMPARE_RESULT_REDOWNLOAD_RENAME = 3;
 
+	/**
+	 * 目标文件已经存在时比较是否为同一个文件
+	 *
+	 * @param inputMD5      期望的摘要，设置了多种摘要时为计算开销最低的算法，见 {@link Digest}
+	 * @param originFileMD5 已存在文件同一算法的摘要，未设置期望摘要时为MD5
+	 */
 	int compare(String url, File originFile, String inputMD5, String originFileMD5);
 
 	interface FileComparatorFactory {
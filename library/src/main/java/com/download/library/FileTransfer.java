@@ -0,0 +1,364 @@
+/*
+ * Copyright (C)  Justson(https://github.com/Justson/Downloader)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.download.library;
+
+import android.os.SystemClock;
+
+import com.download.library.DownloadJournal.Segment;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static com.download.library.Downloader.ERROR_TIME_OUT;
+import static com.download.library.Downloader.SUCCESSFUL;
+
+/**
+ * 把响应数据写入目标文件的指定偏移，单连接下载与分段下载共用。
+ * 流式写入每读取一个缓冲区调用一次 {@link RandomAccessFile#write(byte[], int, int)}；
+ * 通道写入把数据攒在直接内存 {@link ByteBuffer} 中，攒够半个缓冲区后按显式偏移批量写入 {@link FileChannel}，
+ * 好处只是写入的系统调用更少：响应只提供 {@link InputStream}，{@link Channels#newChannel(InputStream)}
+ * 内部仍经过一个堆内存数组拷贝到直接内存，计算摘要时还要再拷贝出来，并不比流式写入少拷贝。
+ * 通过 {@link DownloadTask#setChannelTransfer(boolean)} 按任务选择。
+ * 开启写入后置时由 {@link WriteBehindWriter} 在另一个线程合并写入，优先于通道写入。
+ * 缓冲区都从 {@link BufferPool} 借用，大小按剩余长度与最近的下载速度选择。
+ * 读取的数据按 {@link RateLimiter} 的全局以及任务限速等待。
+ * 需要计算摘要时，紧接着已计算部分写入的数据同时更新 {@link Downloader#getDigest()}，下载完成后不必再读一遍文件。
+ *
+ * @date 2026/10/18
+ * @since 4.2.0
+ */
+final class FileTransfer {
+
+    /**
+     * 通道写入时缓冲区数据达到一半或者距离上次写入超过该间隔时写入文件
+     */
+    private static final long FLUSH_INTERVAL = 500L;
+    /**
+     * 限速等待时每次睡眠的最长时间
+     */
+    private static final long THROTTLE_SLICE = 100L;
+
+    private final Downloader mDownloader;
+    private final DownloadTask mDownloadTask;
+    private final boolean mChannel;
+    private final RateLimiter mRateLimiter;
+    private final boolean mWriteBehind;
+    private final int mFsyncPolicy;
+    private final long mFsyncBytes;
+    /**
+     * 上次同步到磁盘后写入的字节数，同一个文件的所有分段共用
+     */
+    private final AtomicLong mUnsynced = new AtomicLong(0L);
+    private volatile boolean mAborted = false;
+
+    FileTransfer(Downloader downloader) {
+        this.mDownloader = downloader;
+        this.mDownloadTask = downloader.getDownloadTask();
+        this.mChannel = mDownloadTask.isChannelTransfer();
+        this.mRateLimiter = mDownloadTask.getRateLimiter();
+        this.mWriteBehind = mDownloadTask.isWriteBehind();
+        this.mFsyncPolicy = mDownloadTask.getFsyncPolicy();
+        this.mFsyncBytes = mDownloadTask.getFsyncBytes();
+    }
+
+    /**
+     * 停止所有正在进行的写入，用于分段下载中某一段失败时让其他段尽快退出
+     */
+    void abort() {
+        mAborted = true;
+    }
+
+    boolean isAborted() {
+        return mAborted;
+    }
+
+    /**
+     * @param position 写入的起始偏移
+     * @param limit    最多写入的字节数，小于0时读取到流结束；读取到流结束仍未写满时抛出异常
+     * @param journal  断点续传日志，可以为null
+     * @param segment  写入后同步更新进度的分段，可以为null
+     * @return {@link Downloader#SUCCESSFUL} 或者 {@link Downloader#ERROR_TIME_OUT}，
+     * 暂停、取消以及中止时同样返回 {@link Downloader#SUCCESSFUL}，由调用方检查任务状态
+     */
+    int transfer(InputStream inputStream, long position, long limit, DownloadJournal journal, Segment segment) throws IOException {
+        BufferPool bufferPool = BufferPool.getInstance();
+        long expectedLength = limit >= 0L ? limit : mDownloadTask.getTotalsLength() - position;
+        int size = bufferPool.sizeFor(expectedLength, mDownloadTask.getSpeed());
+        long begin = SystemClock.elapsedRealtime();
+        long loaded = mDownloadTask.getLoaded();
+        RandomAccessFile out = new RandomAccessFile(mDownloadTask.getTransferFile(), "rw");
+        try {
+            if (mWriteBehind) {
+                return transferByWriteBehind(inputStream, out.getChannel(), size, position, limit, journal, segment);
+            }
+            if (mChannel) {
+                ByteBuffer buffer = bufferPool.acquireDirect(size);
+                try {
+                    return transferByChannel(inputStream, out.getChannel(), buffer, position, limit, journal, segment);
+                } finally {
+                    bufferPool.release(buffer);
+                }
+            }
+            byte[] buffer = bufferPool.acquire(size);
+            try {
+                return transferByStream(inputStream, out, buffer, position, limit, journal, segment);
+            } finally {
+                bufferPool.release(buffer);
+            }
+        } finally {
+            mDownloader.closeIO(out);
+            bufferPool.recordThroughput(mDownloadTask.getLoaded() - loaded, SystemClock.elapsedRealtime() - begin);
+        }
+    }
+
+    private int transferByStream(InputStream inputStream, RandomAccessFile out, byte[] buffer, long position, long limit, DownloadJournal journal, Segment segment) throws IOException {
+        long remaining = limit;
+        out.seek(position);
+        while (!isStopped() && remaining != 0L) {
+            int length = remaining < 0L ? buffer.length : (int) Math.min(buffer.length, remaining);
+            int n = inputStream.read(buffer, 0, length);
+            if (n == -1) {
+                if (remaining > 0L) {
+                    throw new IOException("unexpected end of stream , segment:" + segment);
+                }
+                break;
+            }
+            throttle(n);
+            out.write(buffer, 0, n);
+            if (remaining > 0L) {
+                remaining -= n;
+            }
+            digest(position, buffer, 0, n);
+            position += n;
+            onWritten(n, out.getChannel(), journal, segment);
+            if (mDownloader.isTimeOut()) {
+                mDownloadTask.error();
+                return ERROR_TIME_OUT;
+            }
+        }
+        return SUCCESSFUL;
+    }
+
+    private int transferByChannel(InputStream inputStream, FileChannel out, ByteBuffer buffer, long position, long limit, DownloadJournal journal, Segment segment) throws IOException {
+        int flushSize = buffer.capacity() / 2;
+        ReadableByteChannel in = Channels.newChannel(inputStream);
+        long remaining = limit;
+        long lastFlush = SystemClock.elapsedRealtime();
+        try {
+            while (!isStopped() && remaining != 0L) {
+                if (remaining > 0L) {
+                    buffer.limit((int) Math.min(buffer.capacity(), buffer.position() + remaining));
+                }
+                int n = in.read(buffer);
+                if (n == -1) {
+                    position += flush(buffer, out, position, journal, segment);
+                    if (remaining > 0L) {
+                        throw new IOException("unexpected end of stream , segment:" + segment);
+                    }
+                    break;
+                }
+                throttle(n);
+                if (remaining > 0L) {
+                    remaining -= n;
+                }
+                long currentTime = SystemClock.elapsedRealtime();
+                if (remaining == 0L || buffer.position() >= flushSize || currentTime - lastFlush >= FLUSH_INTERVAL) {
+                    position += flush(buffer, out, position, journal, segment);
+                    lastFlush = currentTime;
+                }
+                if (mDownloader.isTimeOut()) {
+                    mDownloadTask.error();
+                    return ERROR_TIME_OUT;
+                }
+            }
+            return SUCCESSFUL;
+        } finally {
+            // 暂停、取消以及超时前已读取的数据同样写入文件，保证日志记录的进度与文件一致
+            if (buffer.position() > 0) {
+                flush(buffer, out, position, journal, segment);
+            }
+        }
+    }
+
+    /**
+     * 读取线程攒满一个缓冲区或者超过 {@link #FLUSH_INTERVAL} 后交给 {@link WriteBehindWriter}，由写入线程合并写入
+     */
+    private int transferByWriteBehind(InputStream inputStream, FileChannel out, int size, long position, long limit, DownloadJournal journal, Segment segment) throws IOException {
+        BufferPool bufferPool = BufferPool.getInstance();
+        WriteBehindWriter writer = new WriteBehindWriter(this, out, size, journal, segment);
+        writer.start();
+        long remaining = limit;
+        int result = SUCCESSFUL;
+        try {
+            boolean eof = false;
+            while (!eof && !isStopped() && remaining != 0L) {
+                int length = remaining < 0L ? size : (int) Math.min(size, remaining);
+                byte[] buffer = bufferPool.acquire(size);
+                int filled = 0;
+                try {
+                    long begin = SystemClock.elapsedRealtime();
+                    while (filled < length) {
+                        int n = inputStream.read(buffer, filled, length - filled);
+                        if (n == -1) {
+                            eof = true;
+                            break;
+                        }
+                        throttle(n);
+                        filled += n;
+                        if (isStopped() || SystemClock.elapsedRealtime() - begin >= FLUSH_INTERVAL) {
+                            break;
+                        }
+                    }
+                    if (filled > 0) {
+                        writer.write(position, buffer, filled);
+                        buffer = null;
+                    }
+                } finally {
+                    if (null != buffer) {
+                        bufferPool.release(buffer);
+                    }
+                }
+                position += filled;
+                if (remaining > 0L) {
+                    remaining -= filled;
+                }
+                if (eof && remaining > 0L) {
+                    throw new IOException("unexpected end of stream , segment:" + segment);
+                }
+                if (mDownloader.isTimeOut()) {
+                    mDownloadTask.error();
+                    result = ERROR_TIME_OUT;
+                    break;
+                }
+            }
+        } catch (IOException e) {
+            try {
+                writer.close();
+            } catch (IOException ignore) {
+            }
+            throw e;
+        }
+        // 暂停、取消以及超时前已读取的数据同样写入文件，保证日志记录的进度与文件一致
+        writer.close();
+        return result;
+    }
+
+    /**
+     * 写入线程把数据写入文件后回调
+     */
+    void onFlushed(long position, byte[] buffer, int length, FileChannel out, DownloadJournal journal, Segment segment) throws IOException {
+        digest(position, buffer, 0, length);
+        onWritten(length, out, journal, segment);
+    }
+
+    private int flush(ByteBuffer buffer, FileChannel out, long position, DownloadJournal journal, Segment segment) throws IOException {
+        buffer.flip();
+        int count = buffer.remaining();
+        try {
+            long offset = position;
+            while (buffer.hasRemaining()) {
+                offset += out.write(buffer, offset);
+            }
+            if (count > 0) {
+                buffer.rewind();
+                digest(position, buffer);
+            }
+        } finally {
+            buffer.clear();
+        }
+        if (count > 0) {
+            onWritten(count, out, journal, segment);
+        }
+        return count;
+    }
+
+    /**
+     * 只有写入位置紧接着已计算部分时才更新，分段下载中的其他分段在下载完成后补算
+     */
+    private void digest(long position, byte[] buffer, int offset, int length) {
+        Digest digest = mDownloader.getDigest();
+        if (null == digest) {
+            return;
+        }
+        synchronized (digest) {
+            if (digest.getLength() == position) {
+                digest.update(buffer, offset, length);
+            }
+        }
+    }
+
+    private void digest(long position, ByteBuffer buffer) {
+        Digest digest = mDownloader.getDigest();
+        if (null == digest || digest.getLength() != position) {
+            return;
+        }
+        BufferPool bufferPool = BufferPool.getInstance();
+        byte[] bytes = bufferPool.acquire(Math.min(buffer.remaining(), 1024 * 16));
+        try {
+            while (buffer.hasRemaining()) {
+                int n = Math.min(buffer.remaining(), bytes.length);
+                buffer.get(bytes, 0, n);
+                digest(position, bytes, 0, n);
+                position += n;
+            }
+        } finally {
+            bufferPool.release(bytes);
+        }
+    }
+
+    private void onWritten(int count, FileChannel out, DownloadJournal journal, Segment segment) throws IOException {
+        if (mFsyncPolicy == DownloadTask.FSYNC_PER_BYTES && mUnsynced.addAndGet(count) >= mFsyncBytes) {
+            mUnsynced.set(0L);
+            // 同步的是整个文件，其他分段写入的数据同样落盘
+            out.force(false);
+        }
+        mDownloader.onLoaded(count);
+        if (null != segment) {
+            segment.position += count;
+            journal.checkpointIfNeeded();
+        }
+    }
+
+    /**
+     * 按全局以及任务的限速等待，分片睡眠以便及时响应暂停和取消
+     */
+    private void throttle(int count) throws IOException {
+        long wait = Math.max(RateLimiter.global().reserve(count), mRateLimiter.reserve(count));
+        try {
+            while (wait > 0L && !isStopped()) {
+                long slice = Math.min(wait, THROTTLE_SLICE);
+                Thread.sleep(slice);
+                wait -= slice;
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("throttle interrupted");
+        }
+    }
+
+    private boolean isStopped() {
+        DownloadTask downloadTask = mDownloadTask;
+        return mAborted || downloadTask.isPausing() || downloadTask.isPaused() || downloadTask.isCanceled();
+    }
+}
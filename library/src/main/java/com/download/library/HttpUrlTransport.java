@@ -0,0 +1,50 @@
+/*
+ * Copyright (C)  Justson(https://github.com/Justson/Downloader)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.download.library;
+
+import java.io.IOException;
+import java.net.HttpURLConnection;
+import java.net.URL;
+
+/**
+ * 默认的传输层，基于 {@link HttpURLConnection}，socket由系统的keep-alive连接池保持与复用，相关配置见 {@link KeepAliveConfig}
+ *
+ * @date 2026/10/18
+ * @since 4.2.0
+ */
+public class HttpUrlTransport implements Transport {
+
+    @Override
+    public DownloadConnection newConnection(URL url, int connectTimeout, int readTimeout) throws IOException {
+        KeepAliveConfig.getInstance().onRequest();
+        HttpURLConnection httpURLConnection = (HttpURLConnection) url.openConnection();
+        httpURLConnection.setConnectTimeout(connectTimeout);
+        httpURLConnection.setInstanceFollowRedirects(false);
+        httpURLConnection.setReadTimeout(readTimeout);
+        httpURLConnection.setRequestProperty("Accept", "*/*");
+        httpURLConnection.setRequestProperty("Accept-Encoding", "deflate,gzip");
+        return new HttpUrlDownloadConnection(httpURLConnection);
+    }
+
+    public static class HttpUrlTransportFactory implements TransportFactory {
+
+        @Override
+        public Transport newTransport() {
+            return new HttpUrlTransport();
+        }
+    }
+}
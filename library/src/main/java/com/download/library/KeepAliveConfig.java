@@ -0,0 +1,105 @@
+/*
+ * Copyright (C)  Justson(https://github.com/Justson/Downloader)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.download.library;
+
+/**
+ * 默认的 {@link HttpUrlTransport} 不直接持有socket，连接的保持与复用由系统 {@link java.net.HttpURLConnection}
+ * 的keep-alive连接池完成，这里只负责配置该连接池（系统属性 {@code http.keepAlive}、{@code http.maxConnections}），
+ * 并统计可以确定的数据：请求数、正常释放（响应体已关闭，连接可被系统复用）的次数以及被主动断开的次数。
+ * 系统不提供某个请求是否真正复用了socket的信息，因此这里不统计复用率。
+ *
+ * @date 2026/10/18
+ * @since 4.2.0
+ */
+public final class KeepAliveConfig {
+
+    private static final String TAG = Runtime.PREFIX + KeepAliveConfig.class.getSimpleName();
+    private static final String PROPERTY_KEEP_ALIVE = "http.keepAlive";
+    private static final String PROPERTY_MAX_CONNECTIONS = "http.maxConnections";
+    private static final KeepAliveConfig sInstance = new KeepAliveConfig();
+
+    private long mRequestCount = 0L;
+    private long mReleaseCount = 0L;
+    private long mDisconnectCount = 0L;
+
+    private KeepAliveConfig() {
+    }
+
+    public static KeepAliveConfig getInstance() {
+        return sInstance;
+    }
+
+    /**
+     * 是否启用系统的keep-alive，系统默认启用。系统在第一次建立连接时读取该属性，需在第一个请求之前调用。
+     */
+    public void setKeepAlive(boolean keepAlive) {
+        System.setProperty(PROPERTY_KEEP_ALIVE, String.valueOf(keepAlive));
+        Runtime.getInstance().log(TAG, PROPERTY_KEEP_ALIVE + "=" + keepAlive);
+    }
+
+    /**
+     * 每个host保持的空闲连接数上限，系统默认5。系统在第一次建立连接时读取该属性，需在第一个请求之前调用。
+     */
+    public void setMaxIdleConnectionsPerHost(int maxIdleConnectionsPerHost) {
+        if (maxIdleConnectionsPerHost <= 0) {
+            setKeepAlive(false);
+            return;
+        }
+        System.setProperty(PROPERTY_MAX_CONNECTIONS, String.valueOf(maxIdleConnectionsPerHost));
+        Runtime.getInstance().log(TAG, PROPERTY_MAX_CONNECTIONS + "=" + maxIdleConnectionsPerHost);
+    }
+
+    /**
+     * 发起新的请求
+     */
+    synchronized void onRequest() {
+        mRequestCount++;
+    }
+
+    /**
+     * 请求结束且响应体已关闭，连接交还给系统连接池
+     */
+    synchronized void onRelease() {
+        mReleaseCount++;
+    }
+
+    /**
+     * 连接被主动关闭，不会被复用
+     */
+    synchronized void onDisconnect() {
+        mDisconnectCount++;
+    }
+
+    public synchronized long getRequestCount() {
+        return mRequestCount;
+    }
+
+    /**
+     * @return 响应体被正常关闭、连接交还给系统连接池的次数
+     */
+    public synchronized long getReleaseCount() {
+        return mReleaseCount;
+    }
+
+    /**
+     * @return 连接被主动断开的次数
+     */
+    public synchronized long getDisconnectCount() {
+        return mDisconnectCount;
+    }
+}
@@ -0,0 +1,294 @@
+/*
+ * Copyright (C)  Justson(https://github.com/Justson/Downloader)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.download.library;
+
+import android.app.NotificationManager;
+import android.content.Context;
+import android.os.SystemClock;
+import android.support.v4.app.NotificationCompat;
+
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+
+import static android.content.Context.NOTIFICATION_SERVICE;
+
+/**
+ * 控制通知栏的更新频率。进度没有变化的更新直接丢弃；同一条通知两次更新的间隔不小于 {@link #setMinInterval(long)}；
+ * 所有通知共享一个令牌桶，每秒最多更新 {@link #setMaxRate(float)} 次，超出的进度更新合并到下一次，
+ * 暂停、完成等最终状态不会丢弃，按令牌桶延迟发送。
+ * 设置 {@link #setGroupThreshold(int)} 后，同时下载的任务达到该数量时各任务的进度不再更新，
+ * 改为更新一条汇总所有任务进度的分组通知，分组通知保留到所有任务结束；任务暂停或者完成后移出分组。
+ * 除令牌桶外的状态只在通知线程读写。
+ *
+ * @date 2026/10/18
+ * @since 4.2.0
+ */
+public final class NotificationGovernor {
+
+    private static final String TAG = Runtime.PREFIX + NotificationGovernor.class.getSimpleName();
+    private static final NotificationGovernor sInstance = new NotificationGovernor();
+    static final String GROUP_KEY = "com.download.library.DOWNLOADING";
+    private static final int SUMMARY_ID = Integer.MAX_VALUE;
+    private static final int SUMMARY_LINES = 5;
+
+    private volatile long mMinInterval = 1000L;
+    private volatile float mMaxRate = 5F;
+    private volatile int mGroupThreshold = 0;
+    /**
+     * 令牌桶，由 {@link #reserve()} 以及 {@link #tryAcquire(long)} 同步访问
+     */
+    private double mTokens = 5D;
+    private long mRefillTime = SystemClock.elapsedRealtime();
+    private final LinkedHashSet<DownloadNotifier> mActive = new LinkedHashSet<>();
+    private final LinkedHashSet<DownloadNotifier> mDirty = new LinkedHashSet<>();
+    private boolean mFlushScheduled = false;
+    private boolean mSummaryDirty = false;
+    private long mSummaryTime = 0L;
+    private NotificationCompat.Builder mSummaryBuilder;
+    private NotificationManager mNotificationManager;
+    private final Runnable mFlush = new Runnable() {
+        @Override
+        public void run() {
+            flush();
+        }
+    };
+
+    private NotificationGovernor() {
+    }
+
+    public static NotificationGovernor getInstance() {
+        return sInstance;
+    }
+
+    /**
+     * 同一条通知两次进度更新的最小间隔，默认1000ms
+     */
+    public void setMinInterval(long minInterval) {
+        this.mMinInterval = Math.max(0L, minInterval);
+    }
+
+    /**
+     * 所有通知每秒最多更新的次数，默认5次，与系统对单个应用的限制一致，超出时系统会丢弃更新
+     */
+    public void setMaxRate(float maxRate) {
+        this.mMaxRate = Math.max(0.1F, maxRate);
+    }
+
+    /**
+     * @param threshold 同时下载的任务达到该数量时合并为分组通知，小于等于0时不合并，默认不合并
+     */
+    public void setGroupThreshold(int threshold) {
+        this.mGroupThreshold = threshold;
+    }
+
+    boolean isGroupEnabled() {
+        return mGroupThreshold > 0;
+    }
+
+    /**
+     * 进度有变化，可以在任意线程调用
+     */
+    void onUpdate(final DownloadNotifier notifier) {
+        DownloadNotifier.getNotificationUpdateQueue().postRunnable(new Runnable() {
+            @Override
+            public void run() {
+                if (notifier.isStopped()) {
+                    notifier.clearDirty();
+                    return;
+                }
+                mActive.add(notifier);
+                mDirty.add(notifier);
+                schedule(0L);
+            }
+        });
+    }
+
+    /**
+     * 通知进入最终状态，在通知线程调用
+     */
+    void remove(DownloadNotifier notifier) {
+        mDirty.remove(notifier);
+        if (mActive.remove(notifier) && isGroupEnabled()) {
+            mSummaryDirty = true;
+            schedule(0L);
+        }
+    }
+
+    /**
+     * 为一次不能丢弃的更新预留令牌
+     *
+     * @return 需要延迟的时间，单位毫秒
+     */
+    synchronized long reserve() {
+        refill(SystemClock.elapsedRealtime());
+        mTokens -= 1D;
+        return mTokens >= 0D ? 0L : (long) Math.ceil(-mTokens * 1000D / mMaxRate);
+    }
+
+    private synchronized boolean tryAcquire(long now) {
+        refill(now);
+        if (mTokens >= 1D) {
+            mTokens -= 1D;
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * @return 下一个令牌可用前需要等待的时间
+     */
+    private synchronized long tokenWait() {
+        return mTokens >= 1D ? 0L : (long) Math.ceil((1D - mTokens) * 1000D / mMaxRate);
+    }
+
+    private void refill(long now) {
+        float rate = mMaxRate;
+        double burst = Math.max(1D, rate);
+        mTokens = Math.min(burst, mTokens + (now - mRefillTime) * rate / 1000D);
+        mRefillTime = now;
+    }
+
+    /**
+     * 已经安排了合并时不再重复安排，新的更新最多等待一个更新间隔
+     */
+    private void schedule(long delay) {
+        if (mFlushScheduled) {
+            return;
+        }
+        mFlushScheduled = true;
+        if (delay > 0L) {
+            DownloadNotifier.getNotificationUpdateQueue().postRunnable(mFlush, delay);
+        } else {
+            DownloadNotifier.getNotificationUpdateQueue().postRunnable(mFlush);
+        }
+    }
+
+    private void flush() {
+        mFlushScheduled = false;
+        long now = SystemClock.elapsedRealtime();
+        long next = Long.MAX_VALUE;
+        boolean folded = isGroupEnabled() && mActive.size() >= mGroupThreshold;
+        Iterator<DownloadNotifier> iterator = mDirty.iterator();
+        while (iterator.hasNext()) {
+            DownloadNotifier notifier = iterator.next();
+            if (folded) {
+                // 合并后只更新分组通知
+                iterator.remove();
+                notifier.clearDirty();
+                mSummaryDirty = true;
+                continue;
+            }
+            long wait = notifier.getLastNotifyTime() + mMinInterval - now;
+            if (wait > 0L) {
+                next = Math.min(next, now + wait);
+                continue;
+            }
+            if (!tryAcquire(now)) {
+                next = Math.min(next, now + tokenWait());
+                break;
+            }
+            iterator.remove();
+            notifier.applyProgress();
+            if (mSummaryTime > 0L) {
+                mSummaryDirty = true;
+            }
+        }
+        if (mSummaryDirty) {
+            if (mActive.isEmpty()) {
+                // 取消分组通知会同时取消组内的通知，只在没有下载中的任务时取消
+                cancelSummary();
+            } else if (!folded && mSummaryTime == 0L) {
+                mSummaryDirty = false;
+            } else if (now - mSummaryTime < mMinInterval) {
+                next = Math.min(next, mSummaryTime + mMinInterval);
+            } else if (!tryAcquire(now)) {
+                next = Math.min(next, now + tokenWait());
+            } else {
+                notifySummary(now);
+            }
+        }
+        if (next != Long.MAX_VALUE) {
+            schedule(Math.max(1L, next - now));
+        }
+    }
+
+    private void notifySummary(long now) {
+        mSummaryDirty = false;
+        mSummaryTime = now;
+        DownloadNotifier first = mActive.iterator().next();
+        if (null == mSummaryBuilder) {
+            Context context = first.getContext();
+            mSummaryBuilder = DownloadNotifier.createBuilder(context);
+            mNotificationManager = (NotificationManager) context.getSystemService(NOTIFICATION_SERVICE);
+            if (null == mSummaryBuilder || null == mNotificationManager) {
+                Runtime.getInstance().logError(TAG, "summary notification unavailable");
+                return;
+            }
+            mSummaryBuilder.setGroup(GROUP_KEY)
+                    .setGroupSummary(true)
+                    .setOnlyAlertOnce(true)
+                    .setAutoCancel(false)
+                    .setPriority(NotificationCompat.PRIORITY_LOW);
+        }
+        Context context = first.getContext();
+        long loaded = 0L;
+        long totals = 0L;
+        NotificationCompat.InboxStyle style = new NotificationCompat.InboxStyle();
+        int lines = 0;
+        for (DownloadNotifier notifier : mActive) {
+            DownloadTask downloadTask = notifier.getDownloadTask();
+            long length = downloadTask.getTotalsLength();
+            if (totals >= 0L && length > 0L) {
+                loaded += downloadTask.getLoaded();
+                totals += length;
+            } else {
+                totals = -1L;
+            }
+            if (lines < SUMMARY_LINES) {
+                lines++;
+                style.addLine(notifier.getTitle() + "  " + (length > 0L ? (int) (downloadTask.getLoaded() * 100L / length) + "%" : ""));
+            }
+        }
+        String title = context.getString(R.string.download_tasks_downloading, mActive.size());
+        style.setBigContentTitle(title);
+        mSummaryBuilder.setSmallIcon(first.getDownloadTask().getDownloadIcon())
+                .setContentTitle(title)
+                .setStyle(style);
+        if (totals > 0L) {
+            int progress = (int) (loaded * 100L / totals);
+            mSummaryBuilder.setContentText(context.getString(R.string.download_current_downloading_progress, progress + "%"));
+            mSummaryBuilder.setProgress(100, progress, false);
+        } else {
+            mSummaryBuilder.setContentText("");
+            mSummaryBuilder.setProgress(100, 20, true);
+        }
+        try {
+            mNotificationManager.notify(SUMMARY_ID, mSummaryBuilder.build());
+        } catch (Throwable throwable) {
+            Runtime.getInstance().logError(TAG, "notify summary error:" + throwable.getMessage());
+        }
+    }
+
+    private void cancelSummary() {
+        mSummaryDirty = false;
+        if (null != mNotificationManager && mSummaryTime > 0L) {
+            mSummaryTime = 0L;
+            mNotificationManager.cancel(SUMMARY_ID);
+        }
+    }
+}
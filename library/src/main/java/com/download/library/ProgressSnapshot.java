@@ -0,0 +1,110 @@
+/*
+ * Copyright (C)  Justson(https://github.com/Justson/Downloader)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.download.library;
+
+/**
+ * 多个任务的进度快照，按列保存，第i个任务的数据位于各数组的下标i，有效数据为前 {@link #size} 个。
+ * 同一个对象可以反复传给 {@link DownloadImpl#snapshot(ProgressSnapshot)}，任务数没有增加时不会重新分配数组，
+ * 适合列表界面每帧读取。
+ *
+ * @date 2026/10/18
+ * @since 4.2.0
+ */
+public final class ProgressSnapshot {
+
+    public int size;
+    public int[] ids;
+    public String[] urls;
+    public long[] loaded;
+    /**
+     * 长度未知时为-1
+     */
+    public long[] totals;
+    /**
+     * 字节每秒
+     */
+    public long[] speeds;
+    public int[] statuses;
+
+    public ProgressSnapshot() {
+        this(16);
+    }
+
+    public ProgressSnapshot(int capacity) {
+        allocate(Math.max(1, capacity));
+    }
+
+    private void allocate(int capacity) {
+        ids = new int[capacity];
+        urls = new String[capacity];
+        loaded = new long[capacity];
+        totals = new long[capacity];
+        speeds = new long[capacity];
+        statuses = new int[capacity];
+    }
+
+    public int capacity() {
+        return ids.length;
+    }
+
+    void clear() {
+        for (int i = 0; i < size; i++) {
+            urls[i] = null;
+        }
+        size = 0;
+    }
+
+    /**
+     * 追加一个任务，容量不足时扩容
+     */
+    void add(DownloadTask downloadTask) {
+        if (size == ids.length) {
+            grow();
+        }
+        int i = size++;
+        ids[i] = downloadTask.getId();
+        urls[i] = downloadTask.getUrl();
+        loaded[i] = downloadTask.getLoaded();
+        totals[i] = downloadTask.getTotalsLength() > 0L ? downloadTask.getTotalsLength() : -1L;
+        speeds[i] = downloadTask.getSpeed();
+        statuses[i] = downloadTask.getStatus();
+    }
+
+    private void grow() {
+        int[] ids = this.ids;
+        String[] urls = this.urls;
+        long[] loaded = this.loaded;
+        long[] totals = this.totals;
+        long[] speeds = this.speeds;
+        int[] statuses = this.statuses;
+        allocate(ids.length * 2);
+        System.arraycopy(ids, 0, this.ids, 0, size);
+        System.arraycopy(urls, 0, this.urls, 0, size);
+        System.arraycopy(loaded, 0, this.loaded, 0, size);
+        System.arraycopy(totals, 0, this.totals, 0, size);
+        System.arraycopy(speeds, 0, this.speeds, 0, size);
+        System.arraycopy(statuses, 0, this.statuses, 0, size);
+    }
+
+    /**
+     * 按采样间隔在主线程接收所有任务的快照，每次采样一批，快照对象会被复用，不能在回调之外保存
+     */
+    public interface Listener {
+        void onSnapshot(ProgressSnapshot snapshot);
+    }
+}
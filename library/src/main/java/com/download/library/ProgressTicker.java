@@ -0,0 +1,249 @@
+/*
+ * Copyright (C)  Justson(https://github.com/Justson/Downloader)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.download.library;
+
+import android.os.SystemClock;
+
+import com.queue.library.GlobalQueue;
+
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * 共享的进度采样线程。下载线程写入数据时只累加任务的计数器，由该线程按固定间隔采样所有正在下载的任务，
+ * 进度有变化时回调 {@link DownloadingListener}、通知栏以及 {@link DownloadStatusListener}。
+ * 每次采样同时更新各任务以及全局的 {@link SpeedEstimator}，并把写入的字节数汇总后交给 {@link DownloadScheduler} 调整并行数。
+ * 按任务的 {@link DispatchPolicy} 回调，需要在主线程回调的任务以及状态变化合并为一批，每次采样最多向主线程投递一次，上一批还没有执行时本次跳过；
+ * 批次使用复用的数组，采样过程不分配对象。注册了 {@link ProgressSnapshot.Listener} 时每次采样推送一批所有任务的快照。
+ *
+ * @date 2026/10/18
+ * @since 4.2.0
+ */
+public final class ProgressTicker implements Runnable {
+
+    private static final String TAG = Runtime.PREFIX + ProgressTicker.class.getSimpleName();
+    private static final ProgressTicker sInstance = new ProgressTicker();
+
+    /**
+     * 只回调进度
+     */
+    static final int PROGRESS = 1;
+    /**
+     * 回调进度并更新通知栏
+     */
+    static final int PROGRESS_NOTIFY = 2;
+
+    private final CopyOnWriteArrayList<Downloader> mDownloaders = new CopyOnWriteArrayList<>();
+    private final ConcurrentLinkedQueue<StatusEvent> mStatusEvents = new ConcurrentLinkedQueue<>();
+    private volatile long mInterval = 200L;
+    private Thread mThread;
+    /**
+     * 主线程批次，mMainPending为true时由主线程读取，否则由采样线程写入
+     */
+    private Downloader[] mMainBatch = new Downloader[16];
+    private int[] mMainTypes = new int[16];
+    private int mMainSize = 0;
+    private volatile boolean mMainPending = false;
+    /**
+     * 所有任务累计写入的字节数，只在采样线程读写
+     */
+    private long mTransferred = 0L;
+    private final CopyOnWriteArrayList<ProgressSnapshot.Listener> mSnapshotListeners = new CopyOnWriteArrayList<>();
+    /**
+     * 推送给 {@link ProgressSnapshot.Listener} 的快照，只在主线程读写
+     */
+    private final ProgressSnapshot mSnapshot = new ProgressSnapshot();
+    private final Runnable mMainDispatcher = new Runnable() {
+        @Override
+        public void run() {
+            dispatchMain();
+        }
+    };
+
+    private ProgressTicker() {
+    }
+
+    public static ProgressTicker getInstance() {
+        return sInstance;
+    }
+
+    /**
+     * 采样间隔，默认200ms
+     */
+    public void setInterval(long interval) {
+        this.mInterval = Math.max(16L, interval);
+    }
+
+    public long getInterval() {
+        return mInterval;
+    }
+
+    void register(Downloader downloader) {
+        mDownloaders.addIfAbsent(downloader);
+        start(false);
+    }
+
+    void unregister(Downloader downloader) {
+        mDownloaders.remove(downloader);
+    }
+
+    void addSnapshotListener(ProgressSnapshot.Listener listener) {
+        mSnapshotListeners.addIfAbsent(listener);
+    }
+
+    void removeSnapshotListener(ProgressSnapshot.Listener listener) {
+        mSnapshotListeners.remove(listener);
+    }
+
+    /**
+     * 状态变化在下一批中回调，不等待采样间隔
+     */
+    void onStatusChanged(DownloadStatusListener listener, DownloadTask downloadTask, int status) {
+        mStatusEvents.offer(new StatusEvent(listener, downloadTask, status));
+        start(true);
+    }
+
+    private synchronized void start(boolean immediately) {
+        if (null == mThread) {
+            mThread = new Thread(this, "download-progress-ticker");
+            mThread.setDaemon(true);
+            mThread.start();
+        } else if (immediately) {
+            notifyAll();
+        }
+    }
+
+    @Override
+    public void run() {
+        while (true) {
+            synchronized (this) {
+                if (mStatusEvents.isEmpty() || mMainPending) {
+                    try {
+                        wait(mInterval);
+                    } catch (InterruptedException e) {
+                        mThread = null;
+                        return;
+                    }
+                }
+            }
+            try {
+                tick(SystemClock.elapsedRealtime());
+            } catch (Throwable throwable) {
+                Runtime.getInstance().logError(TAG, "tick error:" + throwable.getMessage());
+            }
+            synchronized (this) {
+                // 最后一个任务结束后仍然采样一次，快照中可以看到任务的最终状态
+                if (mDownloaders.isEmpty() && mStatusEvents.isEmpty() && !mMainPending) {
+                    mThread = null;
+                    SpeedEstimator.global().reset();
+                    return;
+                }
+            }
+        }
+    }
+
+    private void tick(long now) {
+        boolean collectMain = !mMainPending;
+        int size = 0;
+        long transferred = 0L;
+        for (Downloader downloader : mDownloaders) {
+            transferred += downloader.measure(now);
+            DispatchPolicy policy = downloader.mDispatchPolicy;
+            if (policy.isMainThread()) {
+                if (!collectMain) {
+                    // 上一批还没有执行，留到下次采样
+                    continue;
+                }
+                int type = downloader.sample(now);
+                if (type != 0) {
+                    if (size == mMainBatch.length) {
+                        grow();
+                    }
+                    mMainBatch[size] = downloader;
+                    mMainTypes[size] = type;
+                    size++;
+                }
+            } else {
+                int type = downloader.sample(now);
+                if (type == 0) {
+                    continue;
+                }
+                if (policy.getMode() == DispatchPolicy.MODE_EXECUTOR) {
+                    downloader.deliverProgress(policy.getExecutor(), type == PROGRESS_NOTIFY);
+                } else {
+                    downloader.deliverProgress(type == PROGRESS_NOTIFY);
+                }
+            }
+        }
+        mTransferred += transferred;
+        SpeedEstimator.global().update(now, mTransferred);
+        if (transferred > 0L) {
+            DownloadScheduler.getInstance().onTransferred(transferred);
+        }
+        if (collectMain && (size > 0 || !mStatusEvents.isEmpty() || !mSnapshotListeners.isEmpty())) {
+            mMainSize = size;
+            mMainPending = true;
+            GlobalQueue.getMainQueue().postRunnable(mMainDispatcher);
+        }
+    }
+
+    private void grow() {
+        Downloader[] batch = new Downloader[mMainBatch.length * 2];
+        int[] types = new int[batch.length];
+        System.arraycopy(mMainBatch, 0, batch, 0, mMainBatch.length);
+        System.arraycopy(mMainTypes, 0, types, 0, mMainTypes.length);
+        mMainBatch = batch;
+        mMainTypes = types;
+    }
+
+    private void dispatchMain() {
+        try {
+            StatusEvent event;
+            while ((event = mStatusEvents.poll()) != null) {
+                event.listener.onDownloadStatusChanged(event.downloadTask.clone(), event.status);
+            }
+            for (int i = 0; i < mMainSize; i++) {
+                mMainBatch[i].deliverProgress(mMainTypes[i] == PROGRESS_NOTIFY);
+                mMainBatch[i] = null;
+            }
+            if (!mSnapshotListeners.isEmpty()) {
+                TaskRegistry.getInstance().snapshot(mSnapshot);
+                for (ProgressSnapshot.Listener listener : mSnapshotListeners) {
+                    listener.onSnapshot(mSnapshot);
+                }
+            }
+        } catch (Throwable throwable) {
+            throwable.printStackTrace();
+        } finally {
+            mMainSize = 0;
+            mMainPending = false;
+        }
+    }
+
+    private static final class StatusEvent {
+        final DownloadStatusListener listener;
+        final DownloadTask downloadTask;
+        final int status;
+
+        StatusEvent(DownloadStatusListener listener, DownloadTask downloadTask, int status) {
+            this.listener = listener;
+            this.downloadTask = downloadTask;
+            this.status = status;
+        }
+    }
+}
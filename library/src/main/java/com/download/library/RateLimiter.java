@@ -0,0 +1,121 @@
+/*
+ * Copyright (C)  Justson(https://github.com/Justson/Downloader)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.download.library;
+
+import android.os.SystemClock;
+
+/**
+ * 令牌桶限速，单位字节每秒。令牌足够时只做减法，不足时才读取时钟按经过的时间批量补充，不需要每次读取都获取时间。
+ * 令牌可以透支，调用方按透支量等待，多个线程共享同一限速时按申请顺序排队。限速可以在下载过程中修改。
+ *
+ * @date 2026/10/18
+ * @since 4.2.0
+ */
+public final class RateLimiter {
+
+    private static final RateLimiter sGlobal = new RateLimiter(0L);
+
+    /**
+     * 小于等于0时不限速
+     */
+    private volatile long mRate;
+    private long mTokens;
+    private long mLastRefill;
+    private final ConcurrencyController.Clock mClock;
+
+    RateLimiter(long rate) {
+        this(rate, new ConcurrencyController.Clock() {
+            @Override
+            public long elapsedRealtime() {
+                return SystemClock.elapsedRealtime();
+            }
+        });
+    }
+
+    RateLimiter(long rate, ConcurrencyController.Clock clock) {
+        this.mClock = clock;
+        this.mRate = rate;
+        this.mTokens = burst(rate);
+        this.mLastRefill = clock.elapsedRealtime();
+    }
+
+    /**
+     * @return 所有下载共享的限速
+     */
+    public static RateLimiter global() {
+        return sGlobal;
+    }
+
+    public long getRate() {
+        return mRate;
+    }
+
+    /**
+     * 修改限速，正在下载的任务立即生效
+     *
+     * @param rate 字节每秒，小于等于0时不限速
+     */
+    public synchronized void setRate(long rate) {
+        refill(mClock.elapsedRealtime());
+        this.mRate = rate;
+        this.mTokens = Math.min(Math.max(mTokens, 0L), burst(rate));
+    }
+
+    /**
+     * 申请令牌
+     *
+     * @return 需要等待的毫秒数
+     */
+    long reserve(int bytes) {
+        if (mRate <= 0L) {
+            return 0L;
+        }
+        synchronized (this) {
+            long rate = mRate;
+            if (rate <= 0L) {
+                return 0L;
+            }
+            if (mTokens >= bytes) {
+                mTokens -= bytes;
+                return 0L;
+            }
+            // 先补充再扣除，补充量受突发上限限制，本次申请不能绕过上限
+            refill(mClock.elapsedRealtime());
+            mTokens -= bytes;
+            return mTokens >= 0L ? 0L : (-mTokens * 1000L + rate - 1L) / rate;
+        }
+    }
+
+    private void refill(long now) {
+        long elapsed = now - mLastRefill;
+        long rate = mRate;
+        if (elapsed <= 0L) {
+            return;
+        }
+        mLastRefill = now;
+        if (rate > 0L) {
+            mTokens = Math.min(burst(rate), mTokens + elapsed * rate / 1000L);
+        }
+    }
+
+    /**
+     * 最多积攒1秒的令牌
+     */
+    private static long burst(long rate) {
+        return Math.max(0L, rate);
+    }
+}
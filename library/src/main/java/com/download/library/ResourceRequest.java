@@ -152,6 +152,96 @@ public class ResourceRequest<T extends DownloadTask> {
         return this;
     }
 
+    /**
+     * 分段并行下载，服务端不支持Range时自动退回单连接下载
+     *
+     * @param segments 段数，最大16
+     */
+    public ResourceRequest setSegments(int segments) {
+        mDownloadTask.setSegments(segments);
+        return this;
+    }
+
+    public ResourceRequest setMinSegmentSize(long minSegmentSize) {
+        mDownloadTask.setMinSegmentSize(minSegmentSize);
+        return this;
+    }
+
+    /**
+     * 断点续传日志的刷新间隔，间隔越短进程被杀死后需要重新下载的数据越少
+     */
+    public ResourceRequest setCheckpointInterval(long checkpointInterval) {
+        mDownloadTask.setCheckpointInterval(checkpointInterval);
+        return this;
+    }
+
+    /**
+     * 使用FileChannel批量写入文件，数据先攒在直接内存中再按偏移写入，减少写入的系统调用次数（不减少内存拷贝）
+     */
+    public ResourceRequest setChannelTransfer(boolean channelTransfer) {
+        mDownloadTask.setChannelTransfer(channelTransfer);
+        return this;
+    }
+
+    /**
+     * 调度优先级，默认 {@link DownloadTask#PRIORITY_NORMAL}，排队时按优先级以及等待时间排序
+     */
+    public ResourceRequest setPriority(@DownloadTask.DownloadTaskPriority int priority) {
+        mDownloadTask.setPriority(priority);
+        return this;
+    }
+
+    /**
+     * 开始下载前按文件长度一次性分配磁盘空间，减少大文件在闪存上的碎片，空间不足时立即失败。
+     * 预分配后文件长度不再代表进度，只能从断点续传日志续传，需要开启断点续传
+     */
+    public ResourceRequest setPreallocate(boolean preallocate) {
+        mDownloadTask.setPreallocate(preallocate);
+        return this;
+    }
+
+    /**
+     * 先下载到同目录下的 .part 临时文件，校验通过后一次重命名为目标文件，目标文件不会出现写了一半的内容
+     */
+    public ResourceRequest setStaging(boolean staging) {
+        mDownloadTask.setStaging(staging);
+        return this;
+    }
+
+    /**
+     * 写入后置，读取线程只负责读取网络，数据由写入线程合并成大块顺序写入，缓存满时读取等待
+     */
+    public ResourceRequest setWriteBehind(boolean writeBehind) {
+        mDownloadTask.setWriteBehind(writeBehind);
+        return this;
+    }
+
+    /**
+     * 同步到磁盘的时机，默认 {@link DownloadTask#FSYNC_NEVER}
+     */
+    public ResourceRequest setFsyncPolicy(@DownloadTask.FsyncPolicy int fsyncPolicy) {
+        mDownloadTask.setFsyncPolicy(fsyncPolicy);
+        return this;
+    }
+
+    /**
+     * {@link DownloadTask#FSYNC_PER_BYTES} 时每写入多少字节同步一次，默认8MB
+     */
+    public ResourceRequest setFsyncBytes(long fsyncBytes) {
+        mDownloadTask.setFsyncBytes(fsyncBytes);
+        return this;
+    }
+
+    /**
+     * 下载限速，同时受 {@link DownloadImpl#setGlobalRateLimit(long)} 限制
+     *
+     * @param bytesPerSecond 字节每秒，小于等于0时不限速
+     */
+    public ResourceRequest setRateLimit(long bytesPerSecond) {
+        mDownloadTask.setRateLimit(bytesPerSecond);
+        return this;
+    }
+
     public ResourceRequest setIcon(@DrawableRes int icon) {
         mDownloadTask.mDownloadIcon = icon;
         return this;
@@ -200,6 +290,14 @@ public class ResourceRequest<T extends DownloadTask> {
         return this;
     }
 
+    /**
+     * @param dispatchPolicy 进度回调的线程，例如 {@link DispatchPolicy#MAIN_THREAD}、{@link DispatchPolicy#executor(java.util.concurrent.Executor)}
+     */
+    public ResourceRequest setDownloadingListener(DownloadingListener downloadListener, DispatchPolicy dispatchPolicy) {
+        mDownloadTask.setDownloadingListener(downloadListener, dispatchPolicy);
+        return this;
+    }
+
     public ResourceRequest
     setDownloadListenerAdapter(DownloadListenerAdapter downloadListenerAdapter) {
         mDownloadTask.setDownloadListenerAdapter(downloadListenerAdapter);
@@ -211,6 +309,26 @@ public class ResourceRequest<T extends DownloadTask> {
         return this;
     }
 
+    /**
+     * 期望的文件摘要，可以多次调用添加不同算法，下载完成后使用计算开销最低的算法校验，
+     * 开销从低到高依次为 CRC32、CRC32C、MD5、SHA-1、SHA-256
+     *
+     * @param algorithm {@link Digest#CRC32}、{@link Digest#CRC32C}、{@link Digest#MD5}、{@link Digest#SHA1}、{@link Digest#SHA256}
+     * @param digest    十六进制摘要
+     */
+    public ResourceRequest addTargetDigest(String algorithm, String digest) {
+        mDownloadTask.addTargetDigest(algorithm, digest);
+        return this;
+    }
+
+    /**
+     * 不校验时下载过程中计算的摘要算法，结果通过 {@link DownloadTask#getFileDigest()} 获取
+     */
+    public ResourceRequest setDigestAlgorithm(String algorithm) {
+        mDownloadTask.setDigestAlgorithm(algorithm);
+        return this;
+    }
+
     public ResourceRequest quickProgress() {
         mDownloadTask.setQuickProgress(true);
         return this;
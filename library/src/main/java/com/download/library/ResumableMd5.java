@@ -0,0 +1,200 @@
+/*
+ * Copyright (C)  Justson(https://github.com/Justson/Downloader)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.download.library;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+
+/**
+ * 可以导出、恢复中间状态的MD5实现。{@link java.security.MessageDigest} 的中间状态无法持久化，
+ * 断点续传时只能重新计算已下载的部分，这里把状态随断点续传日志一起保存，续传后继续计算。
+ *
+ * @date 2026/10/18
+ * @since 4.2.0
+ */
+final class ResumableMd5 extends Digest {
+
+    private static final int[] SHIFTS = {7, 12, 17, 22, 5, 9, 14, 20, 4, 11, 16, 23, 6, 10, 15, 21};
+    private static final int[] K = new int[64];
+
+    static {
+        for (int i = 0; i < 64; i++) {
+            K[i] = (int) (long) (Math.abs(StrictMath.sin(i + 1)) * 4294967296.0D);
+        }
+    }
+
+    private int mA = 0x67452301;
+    private int mB = 0xefcdab89;
+    private int mC = 0x98badcfe;
+    private int mD = 0x10325476;
+    /**
+     * 已经计算的字节数
+     */
+    private long mLength = 0L;
+    private final byte[] mBlock = new byte[64];
+    private final int[] mWords = new int[16];
+
+    @Override
+    String getAlgorithm() {
+        return MD5;
+    }
+
+    @Override
+    long getLength() {
+        return mLength;
+    }
+
+    @Override
+    void update(byte[] input, int offset, int length) {
+        int buffered = (int) (mLength & 63L);
+        mLength += length;
+        if (buffered > 0) {
+            int count = Math.min(64 - buffered, length);
+            System.arraycopy(input, offset, mBlock, buffered, count);
+            offset += count;
+            length -= count;
+            if (buffered + count < 64) {
+                return;
+            }
+            transform(mBlock, 0);
+        }
+        while (length >= 64) {
+            transform(input, offset);
+            offset += 64;
+            length -= 64;
+        }
+        if (length > 0) {
+            System.arraycopy(input, offset, mBlock, 0, length);
+        }
+    }
+
+    /**
+     * 不改变当前状态，可以继续update
+     *
+     * @return 32位小写十六进制，与 {@link Runtime#md5(java.io.File)} 格式一致
+     */
+    @Override
+    String hexDigest() {
+        ResumableMd5 copy = new ResumableMd5();
+        copy.mA = mA;
+        copy.mB = mB;
+        copy.mC = mC;
+        copy.mD = mD;
+        copy.mLength = mLength;
+        System.arraycopy(mBlock, 0, copy.mBlock, 0, 64);
+        long bits = mLength << 3;
+        int buffered = (int) (mLength & 63L);
+        byte[] padding = new byte[(buffered < 56 ? 56 : 120) - buffered + 8];
+        padding[0] = (byte) 0x80;
+        for (int i = 0; i < 8; i++) {
+            padding[padding.length - 8 + i] = (byte) (bits >>> (8 * i));
+        }
+        copy.update(padding, 0, padding.length);
+        StringBuilder builder = new StringBuilder(32);
+        for (int word : new int[]{copy.mA, copy.mB, copy.mC, copy.mD}) {
+            for (int i = 0; i < 4; i++) {
+                int b = (word >>> (8 * i)) & 0xff;
+                builder.append(Character.forDigit(b >>> 4, 16)).append(Character.forDigit(b & 0xf, 16));
+            }
+        }
+        return builder.toString();
+    }
+
+    @Override
+    byte[] exportState() {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(96);
+        DataOutputStream out = new DataOutputStream(bytes);
+        try {
+            out.writeInt(mA);
+            out.writeInt(mB);
+            out.writeInt(mC);
+            out.writeInt(mD);
+            out.writeLong(mLength);
+            out.write(mBlock, 0, (int) (mLength & 63L));
+            out.flush();
+        } catch (IOException ignore) {
+        }
+        return bytes.toByteArray();
+    }
+
+    /**
+     * @return 状态无效时返回null
+     */
+    static ResumableMd5 restore(byte[] state) {
+        if (null == state || state.length < 24) {
+            return null;
+        }
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(state));
+        try {
+            ResumableMd5 md5 = new ResumableMd5();
+            md5.mA = in.readInt();
+            md5.mB = in.readInt();
+            md5.mC = in.readInt();
+            md5.mD = in.readInt();
+            md5.mLength = in.readLong();
+            int buffered = (int) (md5.mLength & 63L);
+            if (md5.mLength < 0L || state.length != 24 + buffered) {
+                return null;
+            }
+            in.readFully(md5.mBlock, 0, buffered);
+            return md5;
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    private void transform(byte[] block, int offset) {
+        int[] x = mWords;
+        for (int i = 0; i < 16; i++) {
+            int j = offset + (i << 2);
+            x[i] = (block[j] & 0xff) | ((block[j + 1] & 0xff) << 8) | ((block[j + 2] & 0xff) << 16) | ((block[j + 3] & 0xff) << 24);
+        }
+        int a = mA;
+        int b = mB;
+        int c = mC;
+        int d = mD;
+        for (int i = 0; i < 64; i++) {
+            int f;
+            int g;
+            if (i < 16) {
+                f = (b & c) | (~b & d);
+                g = i;
+            } else if (i < 32) {
+                f = (d & b) | (~d & c);
+                g = (5 * i + 1) & 15;
+            } else if (i < 48) {
+                f = b ^ c ^ d;
+                g = (3 * i + 5) & 15;
+            } else {
+                f = c ^ (b | ~d);
+                g = (7 * i) & 15;
+            }
+            int tmp = d;
+            d = c;
+            c = b;
+            b = b + Integer.rotateLeft(a + f + K[i] + x[g], SHIFTS[((i >> 4) << 2) | (i & 3)]);
+            a = tmp;
+        }
+        mA += a;
+        mB += b;
+        mC += c;
+        mD += d;
+    }
+}
@@ -71,6 +71,8 @@ public final class Runtime {
     private StorageEngine.StorageEngineFactory mStorageEngineFactory;
     private FileComparator.FileComparatorFactory mFileComparatorFactory;
     private FileComparator mFileComparator;
+    private Transport.TransportFactory mTransportFactory;
+    private Transport mTransport;
 
     public void setDebug(boolean debug) {
         this.DEBUG = debug;
@@ -127,6 +129,31 @@ public final class Runtime {
         this.mFileComparator = null;
     }
 
+    @NonNull
+    public Transport getTransport() {
+        Transport transport = this.mTransport;
+        if (null == transport) {
+            transport = this.mTransport = getTransportFactory().newTransport();
+        }
+        return transport;
+    }
+
+    Transport.TransportFactory getTransportFactory() {
+        Transport.TransportFactory transportFactory = this.mTransportFactory;
+        if (null == transportFactory) {
+            transportFactory = this.mTransportFactory = new HttpUrlTransport.HttpUrlTransportFactory();
+        }
+        return transportFactory;
+    }
+
+    /**
+     * 替换网络传输层，对之后创建的请求生效
+     */
+    public void setTransportFactory(Transport.TransportFactory transportFactory) {
+        this.mTransportFactory = transportFactory;
+        this.mTransport = null;
+    }
+
     public void setStorageEngineFactory(StorageEngine.StorageEngineFactory storageEngineFactory) {
         mStorageEngineFactory = storageEngineFactory;
         this.mStorageEngine = null;
@@ -364,7 +391,8 @@ public final class Runtime {
     public String md5(File file) {
         MessageDigest digest = null;
         FileInputStream fis = null;
-        byte[] buffer = new byte[1024];
+        BufferPool bufferPool = BufferPool.getInstance();
+        byte[] buffer = bufferPool.acquire(1024 * 64);
         try {
             if (!file.isFile()) {
                 return "";
@@ -373,7 +401,7 @@ public final class Runtime {
             fis = new FileInputStream(file);
             while (true) {
                 int len;
-                if ((len = fis.read(buffer, 0, 1024)) == -1) {
+                if ((len = fis.read(buffer, 0, buffer.length)) == -1) {
                     fis.close();
                     break;
                 }
@@ -382,11 +410,49 @@ public final class Runtime {
         } catch (Exception e) {
             e.printStackTrace();
             return null;
+        } finally {
+            bufferPool.release(buffer);
         }
         BigInteger bigInteger = new BigInteger(1, digest.digest());
         return String.format("%1$032x", new Object[]{bigInteger});
     }
 
+    /**
+     * @param algorithm {@link Digest} 中的算法名
+     * @return 小写十六进制摘要，文件不存在时返回""，读取失败返回null
+     */
+    public String digest(File file, String algorithm) {
+        if (Digest.MD5.equals(Digest.normalize(algorithm))) {
+            return md5(file);
+        }
+        FileInputStream fis = null;
+        BufferPool bufferPool = BufferPool.getInstance();
+        byte[] buffer = bufferPool.acquire(1024 * 64);
+        try {
+            if (!file.isFile()) {
+                return "";
+            }
+            Digest digest = Digest.create(algorithm);
+            fis = new FileInputStream(file);
+            int len;
+            while ((len = fis.read(buffer, 0, buffer.length)) != -1) {
+                digest.update(buffer, 0, len);
+            }
+            return digest.hexDigest();
+        } catch (Exception e) {
+            e.printStackTrace();
+            return null;
+        } finally {
+            bufferPool.release(buffer);
+            if (null != fis) {
+                try {
+                    fis.close();
+                } catch (IOException ignore) {
+                }
+            }
+        }
+    }
+
     public String getApplicationName(Context context) {
         PackageManager packageManager = null;
         ApplicationInfo applicationInfo = null;
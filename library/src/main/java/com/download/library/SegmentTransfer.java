@@ -0,0 +1,253 @@
+/*
+ * Copyright (C)  Justson(https://github.com/Justson/Downloader)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.download.library;
+
+import com.download.library.DownloadJournal.Segment;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.net.URL;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+
+import static com.download.library.Downloader.ERROR_STORAGE;
+import static com.download.library.Downloader.ERROR_USER_CANCEL;
+import static com.download.library.Downloader.ERROR_USER_PAUSE;
+import static com.download.library.Downloader.SUCCESSFUL;
+import static java.net.HttpURLConnection.HTTP_PARTIAL;
+
+/**
+ * 分段下载，按Range把文件切分为多段，每段写入目标文件对应的偏移。当前线程与 {@link Executors#segments()}
+ * 上的线程一起领取分段，分段线程池独立于执行下载任务的io线程池，任务数较多时分段仍然并行；
+ * 分段线程用完时多出的段由当前线程依次完成，此时并行度下降，但不会因等待线程池而死锁。
+ * 各段进度记录在 {@link DownloadJournal} 中，暂停或进程被杀死后只请求未完成的区间。
+ *
+ * @date 2026/10/18
+ * @since 4.2.0
+ */
+final class SegmentTransfer {
+
+    /**
+     * 服务端忽略Range，需要退回单连接下载
+     */
+    static final int RANGE_NOT_SUPPORTED = -1;
+    private static final String TAG = Runtime.PREFIX + SegmentTransfer.class.getSimpleName();
+
+    private final Downloader mDownloader;
+    private final DownloadTask mDownloadTask;
+    private final URL mUrl;
+    private final FileTransfer mFileTransfer;
+    private DownloadJournal mJournal;
+    private final ConcurrentLinkedQueue<Segment> mPending = new ConcurrentLinkedQueue<>();
+    private CountDownLatch mLatch;
+    private volatile int mResult = SUCCESSFUL;
+    private volatile IOException mIOException;
+
+    /**
+     * @param journal 可以续传的分段日志，为null时重新切分
+     */
+    SegmentTransfer(Downloader downloader, URL url, DownloadJournal journal) {
+        this.mDownloader = downloader;
+        this.mDownloadTask = downloader.getDownloadTask();
+        this.mUrl = url;
+        this.mJournal = journal;
+        this.mFileTransfer = new FileTransfer(downloader);
+    }
+
+    int transfer(long contentLength, String etag, String lastModified) throws IOException {
+        if (null == mJournal || !mJournal.isSegmented()) {
+            mJournal = DownloadJournal.create(mDownloadTask, contentLength, etag, lastModified, split(contentLength));
+        }
+        mDownloader.prepareDigest(mJournal);
+        if (mDownloadTask.isPreallocate() && !mDownloader.preallocate(mJournal)) {
+            mDownloadTask.error();
+            return ERROR_STORAGE;
+        }
+        Segment[] segments = mJournal.getSegments();
+        long completed = mJournal.completedLength();
+        Runtime.getInstance().log(TAG, "segments:" + segments.length + " contentLength:" + contentLength + " completed:" + completed);
+        mLatch = new CountDownLatch(segments.length);
+        for (Segment segment : segments) {
+            mPending.offer(segment);
+        }
+        mDownloader.resetLoaded(completed);
+        for (int i = 1; i < segments.length; i++) {
+            Executors.segments().execute(new Runnable() {
+                @Override
+                public void run() {
+                    drain();
+                }
+            });
+        }
+        drain();
+        boolean interrupted = false;
+        while (true) {
+            try {
+                mLatch.await();
+                break;
+            } catch (InterruptedException e) {
+                interrupted = true;
+                mFileTransfer.abort();
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+        if (mResult == RANGE_NOT_SUPPORTED) {
+            mJournal.delete();
+            truncate();
+            mDownloader.resetLoaded(0L);
+            return RANGE_NOT_SUPPORTED;
+        }
+        mJournal.checkpoint();
+        if (null != mIOException) {
+            throw mIOException;
+        }
+        if (mResult != SUCCESSFUL) {
+            return mResult;
+        }
+        int result = mDownloader.completeTransfer();
+        if (result != ERROR_USER_PAUSE && result != ERROR_USER_CANCEL) {
+            mJournal.delete();
+        }
+        return result;
+    }
+
+    private Segment[] split(long contentLength) {
+        long count = Math.min(mDownloadTask.getSegments(), contentLength / mDownloadTask.getMinSegmentSize());
+        if (count < 1L) {
+            count = 1L;
+        }
+        long size = contentLength / count;
+        Segment[] segments = new Segment[(int) count];
+        long start = 0L;
+        for (int i = 0; i < count; i++) {
+            long end = i == count - 1 ? contentLength - 1L : start + size - 1L;
+            segments[i] = new Segment(i, start, end);
+            start = end + 1L;
+        }
+        return segments;
+    }
+
+    private void drain() {
+        Segment segment;
+        while ((segment = mPending.poll()) != null) {
+            try {
+                if (!mFileTransfer.isAborted()) {
+                    download(segment);
+                }
+            } finally {
+                mLatch.countDown();
+            }
+        }
+    }
+
+    private void download(Segment segment) {
+        int retry = mDownloadTask.getRetry();
+        for (int i = 0; ; i++) {
+            try {
+                int result = transferSegment(segment);
+                if (result != SUCCESSFUL) {
+                    abort(result);
+                }
+                return;
+            } catch (IOException e) {
+                if (i >= retry || mFileTransfer.isAborted() || isStopped()) {
+                    abort(e);
+                    return;
+                }
+                Runtime.getInstance().log(TAG, "segment " + segment + " error , retry " + (i + 1), e);
+            }
+        }
+    }
+
+    private int transferSegment(Segment segment) throws IOException {
+        if (segment.isCompleted()) {
+            return SUCCESSFUL;
+        }
+        DownloadConnection connection = null;
+        InputStream inputStream = null;
+        try {
+            connection = mDownloader.createUrlConnection(mUrl);
+            mDownloader.settingHeaders(mDownloadTask, connection);
+            connection.setRequestProperty("Accept-Encoding", "identity");
+            connection.setRange(segment.position, segment.end);
+            mDownloader.connect(connection);
+            if (connection.getResponseCode() != HTTP_PARTIAL) {
+                Runtime.getInstance().logError(TAG, "range ignored , responseCode:" + connection.getResponseCode());
+                connection.disconnect();
+                connection = null;
+                return RANGE_NOT_SUPPORTED;
+            }
+            long contentLength = mDownloader.getHeaderFieldLong(connection, "Content-Length");
+            if (contentLength >= 0L && contentLength != segment.remaining()) {
+                throw new IOException("segment length error , segment:" + segment + " response length:" + contentLength);
+            }
+            inputStream = connection.getInputStream();
+            int result = mFileTransfer.transfer(inputStream, segment.position, segment.remaining(), mJournal, segment);
+            if (!segment.isCompleted()) {
+                // 暂停、取消或者中止时 transfer 同样返回成功，响应体没有读完，连接无法复用
+                connection.disconnect();
+                connection = null;
+            }
+            return result;
+        } catch (IOException e) {
+            if (null != connection) {
+                connection.disconnect();
+                connection = null;
+            }
+            throw e;
+        } finally {
+            mDownloader.closeIO(inputStream);
+            if (null != connection) {
+                connection.release();
+            }
+        }
+    }
+
+    private boolean isStopped() {
+        DownloadTask downloadTask = mDownloadTask;
+        return downloadTask.isPausing() || downloadTask.isPaused() || downloadTask.isCanceled();
+    }
+
+    private synchronized void abort(int result) {
+        if (mResult == SUCCESSFUL) {
+            mResult = result;
+        }
+        mFileTransfer.abort();
+    }
+
+    private synchronized void abort(IOException e) {
+        if (null == mIOException) {
+            mIOException = e;
+        }
+        mFileTransfer.abort();
+    }
+
+    private void truncate() {
+        RandomAccessFile randomAccessFile = null;
+        try {
+            randomAccessFile = new RandomAccessFile(mDownloadTask.getTransferFile(), "rw");
+            randomAccessFile.setLength(0L);
+        } catch (IOException e) {
+            e.printStackTrace();
+        } finally {
+            mDownloader.closeIO(randomAccessFile);
+        }
+    }
+}
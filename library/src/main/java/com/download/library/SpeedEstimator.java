@@ -0,0 +1,131 @@
+/*
+ * Copyright (C)  Justson(https://github.com/Justson/Downloader)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.download.library;
+
+/**
+ * 下载速度估计，对每次采样的瞬时速度做按时间加权的指数平滑（EWMA），
+ * 平滑系数为 1 - e^(-间隔/时间常数)，采样间隔不固定时结果一致；停止接收数据后平滑速度按时间常数逐渐衰减。
+ * 每个下载任务各有一个，由 {@link ProgressTicker} 采样；{@link #global()} 统计所有任务的总速度。
+ *
+ * @date 2026/10/18
+ * @since 4.2.0
+ */
+public final class SpeedEstimator {
+
+    /**
+     * 默认时间常数，单位毫秒
+     */
+    static final long DEFAULT_TIME_CONSTANT = 3000L;
+    private static final SpeedEstimator sGlobal = new SpeedEstimator(DEFAULT_TIME_CONSTANT);
+
+    private final long mTimeConstant;
+    /**
+     * 上一次采样的时间，小于0表示还没有采样
+     */
+    private long mLastTime = -1L;
+    private long mLastBytes = 0L;
+    private double mSmoothed = 0D;
+    private volatile long mSpeed = 0L;
+    private volatile long mInstantSpeed = 0L;
+
+    SpeedEstimator() {
+        this(DEFAULT_TIME_CONSTANT);
+    }
+
+    /**
+     * @param timeConstant 时间常数，单位毫秒，越大越平滑
+     */
+    SpeedEstimator(long timeConstant) {
+        this.mTimeConstant = Math.max(1L, timeConstant);
+    }
+
+    /**
+     * @return 所有任务的总速度
+     */
+    public static SpeedEstimator global() {
+        return sGlobal;
+    }
+
+    /**
+     * @param now   采样时间，单位毫秒
+     * @param bytes 累计的字节数，小于上一次采样时视为重新计数
+     * @return 距离上一次采样增加的字节数
+     */
+    synchronized long update(long now, long bytes) {
+        if (mLastTime < 0L) {
+            mLastTime = now;
+            mLastBytes = bytes;
+            return 0L;
+        }
+        long elapsed = now - mLastTime;
+        if (elapsed <= 0L) {
+            return 0L;
+        }
+        long delta = Math.max(0L, bytes - mLastBytes);
+        double instant = delta * 1000D / elapsed;
+        if (mSpeed == 0L && mSmoothed == 0D) {
+            // 第一个有效样本直接作为初值，避免从0缓慢爬升
+            mSmoothed = instant;
+        } else {
+            double alpha = 1D - Math.exp(-(double) elapsed / mTimeConstant);
+            mSmoothed += alpha * (instant - mSmoothed);
+        }
+        mLastTime = now;
+        mLastBytes = bytes;
+        mInstantSpeed = (long) instant;
+        mSpeed = (long) mSmoothed;
+        return delta;
+    }
+
+    synchronized void reset() {
+        mLastTime = -1L;
+        mLastBytes = 0L;
+        mSmoothed = 0D;
+        mSpeed = 0L;
+        mInstantSpeed = 0L;
+    }
+
+    /**
+     * @return 平滑后的速度，字节每秒
+     */
+    public long getSpeed() {
+        return mSpeed;
+    }
+
+    /**
+     * @return 最近一个采样间隔的速度，字节每秒
+     */
+    public long getInstantSpeed() {
+        return mInstantSpeed;
+    }
+
+    /**
+     * @param remaining 剩余的字节数
+     * @return 按平滑速度估计的剩余时间，单位毫秒，无法估计时返回-1
+     */
+    public long getEta(long remaining) {
+        return eta(remaining, mSpeed);
+    }
+
+    static long eta(long remaining, long speed) {
+        if (remaining < 0L || speed <= 0L) {
+            return -1L;
+        }
+        return remaining * 1000L / speed;
+    }
+}
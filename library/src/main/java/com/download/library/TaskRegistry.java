@@ -0,0 +1,295 @@
+/*
+ * Copyright (C)  Justson(https://github.com/Justson/Downloader)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.download.library;
+
+import android.text.TextUtils;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 所有已提交任务的登记表，替代原来按URL保存的正在下载任务以及 {@link DownloadImpl} 中的暂停任务两份记录。
+ * 任务按id、URL、所属的组以及状态建立索引，查询只遍历结果本身，不需要全局锁；
+ * 状态索引在 {@link DownloadTask} 的状态变化时更新，状态变化本身由CAS完成。
+ *
+ * @date 2026/10/18
+ * @since 4.2.0
+ */
+public final class TaskRegistry {
+
+    private static final TaskRegistry sInstance = new TaskRegistry();
+
+    /**
+     * URL -> 正在执行的任务
+     */
+    private final ConcurrentHashMap<String, ExecuteTask> mRunning = new ConcurrentHashMap<>();
+    /**
+     * URL -> 已暂停、等待恢复的任务
+     */
+    private final ConcurrentHashMap<String, DownloadTask> mPaused = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<Integer, DownloadTask> mById = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<Integer, Set<DownloadTask>> mByStatus = new ConcurrentHashMap<>();
+    /**
+     * 组 -> 状态 -> 任务
+     */
+    private final ConcurrentHashMap<DownloadGroup, ConcurrentHashMap<Integer, Set<DownloadTask>>> mByGroup = new ConcurrentHashMap<>();
+
+    private TaskRegistry() {
+    }
+
+    public static TaskRegistry getInstance() {
+        return sInstance;
+    }
+
+    void addRunning(String url, ExecuteTask executeTask) {
+        if (TextUtils.isEmpty(url) || null == executeTask) {
+            return;
+        }
+        ExecuteTask old = mRunning.put(url, executeTask);
+        if (null != old && old.getDownloadTask() != executeTask.getDownloadTask()) {
+            unindexIfAbsent(url, old.getDownloadTask());
+        }
+        index(executeTask.getDownloadTask());
+    }
+
+    ExecuteTask getRunning(String url) {
+        return TextUtils.isEmpty(url) ? null : mRunning.get(url);
+    }
+
+    void removeRunning(String url) {
+        if (TextUtils.isEmpty(url)) {
+            return;
+        }
+        ExecuteTask old = mRunning.remove(url);
+        if (null != old) {
+            unindexIfAbsent(url, old.getDownloadTask());
+        }
+    }
+
+    void addPaused(DownloadTask downloadTask) {
+        String url = downloadTask.getUrl();
+        if (TextUtils.isEmpty(url)) {
+            return;
+        }
+        DownloadTask old = mPaused.put(url, downloadTask);
+        if (null != old && old != downloadTask) {
+            unindexIfAbsent(url, old);
+        }
+        index(downloadTask);
+    }
+
+    DownloadTask getPaused(String url) {
+        return TextUtils.isEmpty(url) ? null : mPaused.get(url);
+    }
+
+    /**
+     * 原子地取出暂停的任务，同一任务只会被恢复或者取消一次
+     */
+    DownloadTask removePaused(String url) {
+        if (TextUtils.isEmpty(url)) {
+            return null;
+        }
+        DownloadTask old = mPaused.remove(url);
+        if (null != old) {
+            unindexIfAbsent(url, old);
+        }
+        return old;
+    }
+
+    Collection<DownloadTask> pausedTasks() {
+        return mPaused.values();
+    }
+
+    Collection<ExecuteTask> runningTasks() {
+        return mRunning.values();
+    }
+
+    /**
+     * @return URL对应的任务，正在执行的优先
+     */
+    public DownloadTask getTask(String url) {
+        ExecuteTask executeTask = getRunning(url);
+        if (null != executeTask && null != executeTask.getDownloadTask()) {
+            return executeTask.getDownloadTask();
+        }
+        return getPaused(url);
+    }
+
+    public DownloadTask getTask(int id) {
+        return mById.get(id);
+    }
+
+    public boolean isRunning(String url) {
+        return null != getRunning(url);
+    }
+
+    public boolean isPaused(String url) {
+        return null != getPaused(url);
+    }
+
+    public int getPausedCount() {
+        return mPaused.size();
+    }
+
+    /**
+     * @param status {@link DownloadTask#STATUS_DOWNLOADING} 等
+     */
+    public List<DownloadTask> getTasks(int status) {
+        return snapshot(mByStatus.get(status));
+    }
+
+    public List<DownloadTask> getTasks(DownloadGroup group, int status) {
+        ConcurrentHashMap<Integer, Set<DownloadTask>> statuses = null == group ? null : mByGroup.get(group);
+        return snapshot(null == statuses ? null : statuses.get(status));
+    }
+
+    public int count(int status) {
+        Set<DownloadTask> tasks = mByStatus.get(status);
+        return null == tasks ? 0 : tasks.size();
+    }
+
+    /**
+     * 把所有正在下载以及已暂停任务的进度写入snapshot，复用其中的数组
+     */
+    ProgressSnapshot snapshot(ProgressSnapshot snapshot) {
+        snapshot.clear();
+        for (DownloadTask downloadTask : mById.values()) {
+            snapshot.add(downloadTask);
+        }
+        return snapshot;
+    }
+
+    private static List<DownloadTask> snapshot(Set<DownloadTask> tasks) {
+        if (null == tasks || tasks.isEmpty()) {
+            return Collections.emptyList();
+        }
+        return new ArrayList<>(tasks);
+    }
+
+    /**
+     * 状态变化，由 {@link DownloadTask} 在CAS成功后调用，未登记的任务忽略
+     */
+    void onStatusChanged(DownloadTask downloadTask, int from, int to) {
+        if (from == to || !isIndexed(downloadTask)) {
+            return;
+        }
+        remove(downloadTask, from);
+        add(downloadTask, to);
+        if (!isIndexed(downloadTask) || downloadTask.getStatus() != to) {
+            // 与登记、注销或者另一次状态变化并发，以当前状态为准
+            reindex(downloadTask);
+        }
+    }
+
+    private void reindex(DownloadTask downloadTask) {
+        boolean indexed = isIndexed(downloadTask);
+        int status = downloadTask.getStatus();
+        for (Integer key : mByStatus.keySet()) {
+            if (!indexed || key != status) {
+                remove(downloadTask, key);
+            }
+        }
+        if (indexed) {
+            add(downloadTask, status);
+        }
+    }
+
+    private boolean isIndexed(DownloadTask downloadTask) {
+        return mById.get(downloadTask.getId()) == downloadTask;
+    }
+
+    private void index(DownloadTask downloadTask) {
+        if (null == downloadTask || null != mById.putIfAbsent(downloadTask.getId(), downloadTask)) {
+            return;
+        }
+        int status = downloadTask.getStatus();
+        add(downloadTask, status);
+        if (downloadTask.getStatus() != status) {
+            reindex(downloadTask);
+        }
+    }
+
+    private void unindexIfAbsent(String url, DownloadTask downloadTask) {
+        if (null == downloadTask) {
+            return;
+        }
+        ExecuteTask running = mRunning.get(url);
+        if ((null != running && running.getDownloadTask() == downloadTask) || mPaused.get(url) == downloadTask) {
+            return;
+        }
+        if (mById.remove(downloadTask.getId(), downloadTask)) {
+            reindex(downloadTask);
+        }
+    }
+
+    private void add(DownloadTask downloadTask, int status) {
+        tasks(mByStatus, status).add(downloadTask);
+        DownloadGroup group = downloadTask.mGroup;
+        if (null != group) {
+            ConcurrentHashMap<Integer, Set<DownloadTask>> statuses = mByGroup.get(group);
+            if (null == statuses) {
+                ConcurrentHashMap<Integer, Set<DownloadTask>> created = new ConcurrentHashMap<>();
+                statuses = mByGroup.putIfAbsent(group, created);
+                if (null == statuses) {
+                    statuses = created;
+                }
+            }
+            tasks(statuses, status).add(downloadTask);
+        }
+    }
+
+    private void remove(DownloadTask downloadTask, int status) {
+        Set<DownloadTask> tasks = mByStatus.get(status);
+        if (null != tasks) {
+            tasks.remove(downloadTask);
+        }
+        DownloadGroup group = downloadTask.mGroup;
+        ConcurrentHashMap<Integer, Set<DownloadTask>> statuses = null == group ? null : mByGroup.get(group);
+        if (null != statuses) {
+            tasks = statuses.get(status);
+            if (null != tasks) {
+                tasks.remove(downloadTask);
+            }
+        }
+    }
+
+    private static Set<DownloadTask> tasks(ConcurrentHashMap<Integer, Set<DownloadTask>> index, int status) {
+        Set<DownloadTask> tasks = index.get(status);
+        if (null == tasks) {
+            Set<DownloadTask> created = Collections.newSetFromMap(new ConcurrentHashMap<DownloadTask, Boolean>());
+            tasks = index.putIfAbsent(status, created);
+            if (null == tasks) {
+                tasks = created;
+            }
+        }
+        return tasks;
+    }
+
+    /**
+     * 组内任务全部完成后移除组的索引
+     */
+    void removeGroup(DownloadGroup group) {
+        if (null != group) {
+            mByGroup.remove(group);
+        }
+    }
+}
@@ -0,0 +1,43 @@
+/*
+ * Copyright (C)  Justson(https://github.com/Justson/Downloader)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.download.library;
+
+import java.io.IOException;
+import java.net.URL;
+
+/**
+ * 网络传输层，负责创建请求。默认实现基于 {@link java.net.HttpURLConnection}，
+ * 可以通过 {@link Runtime#setTransportFactory(TransportFactory)} 替换为其他HTTP客户端或者测试用的本地实现。
+ * 请求头、Range、响应码以及响应体通过返回的 {@link DownloadConnection} 访问。
+ *
+ * @date 2026/10/18
+ * @since 4.2.0
+ */
+public interface Transport {
+
+    /**
+     * 创建请求，不自动跟随重定向，默认接受任意类型以及 deflate、gzip 压缩的响应
+     *
+     * @param connectTimeout 连接超时，毫秒
+     * @param readTimeout    读取超时，毫秒
+     */
+    DownloadConnection newConnection(URL url, int connectTimeout, int readTimeout) throws IOException;
+
+    interface TransportFactory {
+        Transport newTransport();
+    }
+}
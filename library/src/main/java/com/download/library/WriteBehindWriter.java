@@ -0,0 +1,196 @@
+/*
+ * Copyright (C)  Justson(https://github.com/Justson/Downloader)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.download.library;
+
+import com.download.library.DownloadJournal.Segment;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayDeque;
+
+/**
+ * 写入后置：读取线程把数据块放入有界队列后继续读取网络，写入线程把位置连续的数据块合并成一次聚集写入。
+ * 队列满时读取线程等待，内存占用有上限。数据写入文件后才更新进度以及断点续传日志，日志记录的进度不会超过文件中的数据。
+ *
+ * @date 2026/10/18
+ * @since 4.2.0
+ */
+final class WriteBehindWriter implements Runnable {
+
+    /**
+     * 队列中最多缓存的数据量
+     */
+    private static final int MAX_BUFFERED_BYTES = 1024 * 1024;
+    /**
+     * 一次聚集写入最多合并的数据块
+     */
+    private static final int MAX_GATHER = 16;
+
+    private final FileTransfer mFileTransfer;
+    private final FileChannel mChannel;
+    private final DownloadJournal mJournal;
+    private final Segment mSegment;
+    private final int mCapacity;
+    private final ArrayDeque<Chunk> mQueue = new ArrayDeque<>();
+    /**
+     * 已放入但还没有写入文件的数据块，包括正在写入的
+     */
+    private int mPending = 0;
+    private boolean mClosed = false;
+    private boolean mFinished = false;
+    private IOException mError;
+
+    WriteBehindWriter(FileTransfer fileTransfer, FileChannel channel, int chunkSize, DownloadJournal journal, Segment segment) {
+        this.mFileTransfer = fileTransfer;
+        this.mChannel = channel;
+        this.mJournal = journal;
+        this.mSegment = segment;
+        this.mCapacity = Math.max(2, MAX_BUFFERED_BYTES / Math.max(1, chunkSize));
+    }
+
+    void start() {
+        Executors.writeBehind().execute(this);
+    }
+
+    /**
+     * 放入数据块，队列满时等待。成功放入后buffer由写入线程归还 {@link BufferPool}
+     */
+    synchronized void write(long position, byte[] buffer, int length) throws IOException {
+        try {
+            while (mPending >= mCapacity && null == mError) {
+                wait();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("write behind interrupted");
+        }
+        if (null != mError) {
+            throw mError;
+        }
+        mQueue.addLast(new Chunk(position, buffer, length));
+        mPending++;
+        notifyAll();
+    }
+
+    /**
+     * 等待队列中的数据全部写入文件
+     *
+     * @throws IOException 写入失败
+     */
+    synchronized void close() throws IOException {
+        mClosed = true;
+        notifyAll();
+        try {
+            while (!mFinished) {
+                wait();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("write behind interrupted");
+        }
+        if (null != mError) {
+            throw mError;
+        }
+    }
+
+    @Override
+    public void run() {
+        Chunk[] batch = new Chunk[MAX_GATHER];
+        ByteBuffer[] buffers = new ByteBuffer[MAX_GATHER];
+        try {
+            int count;
+            while ((count = take(batch)) > 0) {
+                long total = 0L;
+                for (int i = 0; i < count; i++) {
+                    buffers[i] = ByteBuffer.wrap(batch[i].buffer, 0, batch[i].length);
+                    total += batch[i].length;
+                }
+                mChannel.position(batch[0].position);
+                long written = 0L;
+                while (written < total) {
+                    written += mChannel.write(buffers, 0, count);
+                }
+                for (int i = 0; i < count; i++) {
+                    Chunk chunk = batch[i];
+                    mFileTransfer.onFlushed(chunk.position, chunk.buffer, chunk.length, mChannel, mJournal, mSegment);
+                    BufferPool.getInstance().release(chunk.buffer);
+                    batch[i] = null;
+                    buffers[i] = null;
+                }
+                synchronized (this) {
+                    mPending -= count;
+                    notifyAll();
+                }
+            }
+        } catch (Throwable throwable) {
+            synchronized (this) {
+                mError = throwable instanceof IOException ? (IOException) throwable : new IOException(throwable);
+            }
+        } finally {
+            synchronized (this) {
+                for (Chunk chunk : batch) {
+                    if (null != chunk) {
+                        BufferPool.getInstance().release(chunk.buffer);
+                    }
+                }
+                for (Chunk chunk : mQueue) {
+                    BufferPool.getInstance().release(chunk.buffer);
+                }
+                mQueue.clear();
+                mFinished = true;
+                notifyAll();
+            }
+        }
+    }
+
+    /**
+     * 取出队首开始位置连续的数据块
+     *
+     * @return 数据块数量，队列已关闭且为空或者写入失败时返回0
+     */
+    private synchronized int take(Chunk[] batch) throws InterruptedException {
+        while (mQueue.isEmpty() && !mClosed) {
+            wait();
+        }
+        int count = 0;
+        long next = -1L;
+        while (count < batch.length && !mQueue.isEmpty()) {
+            Chunk chunk = mQueue.peekFirst();
+            if (count > 0 && chunk.position != next) {
+                break;
+            }
+            mQueue.removeFirst();
+            batch[count++] = chunk;
+            next = chunk.position + chunk.length;
+        }
+        return count;
+    }
+
+    private static final class Chunk {
+        final long position;
+        final byte[] buffer;
+        final int length;
+
+        Chunk(long position, byte[] buffer, int length) {
+            this.position = position;
+            this.buffer = buffer;
+            this.length = length;
+        }
+    }
+}
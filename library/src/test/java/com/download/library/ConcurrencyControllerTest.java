@@ -0,0 +1,183 @@
+package com.download.library;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * 使用自定义 {@link ConcurrencyController.Clock} 重放吞吐量以及延迟序列，检查每个周期的调整
+ */
+public class ConcurrencyControllerTest {
+
+    private static final long INTERVAL = 1000L;
+    private static final long KB = 1024L;
+
+    private FakeClock mClock;
+
+    @Before
+    public void setUp() {
+        Runtime.getInstance().setDebug(false);
+        mClock = new FakeClock();
+    }
+
+    @Test
+    public void increasesWhileThroughputGrowsAndClampsToMax() {
+        ConcurrencyController controller = new ConcurrencyController(1, 4, INTERVAL, mClock);
+        assertEquals(1, controller.getLimit());
+        assertDecision(window(controller, 100 * KB, 50L, true), 1, 2, ConcurrencyController.REASON_INCREASE);
+        assertDecision(window(controller, 200 * KB, 50L, true), 2, 3, ConcurrencyController.REASON_INCREASE);
+        assertDecision(window(controller, 300 * KB, 50L, true), 3, 4, ConcurrencyController.REASON_INCREASE);
+        assertDecision(window(controller, 400 * KB, 50L, true), 4, 4, ConcurrencyController.REASON_HOLD);
+        assertDecision(window(controller, 400 * KB, 50L, true), 4, 4, ConcurrencyController.REASON_HOLD);
+        assertEquals(4, controller.getLimit());
+    }
+
+    @Test
+    public void startsFromSchedulerLimitClamped() {
+        ConcurrencyController controller = new ConcurrencyController(1, 16, INTERVAL, mClock);
+        controller.start(4);
+        assertEquals(4, controller.getLimit());
+        assertDecision(window(controller, 100 * KB, 50L, true), 4, 5, ConcurrencyController.REASON_INCREASE);
+        controller.start(32);
+        assertEquals(16, controller.getLimit());
+        controller = new ConcurrencyController(2, 8, INTERVAL, mClock);
+        controller.start(1);
+        assertEquals(2, controller.getLimit());
+    }
+
+    @Test
+    public void installingKeepsCurrentParallelism() {
+        DownloadScheduler scheduler = DownloadScheduler.getInstance();
+        ConcurrencyController previous = scheduler.getConcurrencyController();
+        int max = scheduler.getMaxParallelDownloads();
+        try {
+            scheduler.setConcurrencyController(null);
+            ConcurrencyController controller = new ConcurrencyController(1, 16, INTERVAL, mClock);
+            scheduler.setConcurrencyController(controller);
+            assertEquals(Math.min(16, Math.max(1, max)), controller.getLimit());
+        } finally {
+            scheduler.setConcurrencyController(previous);
+        }
+    }
+
+    @Test
+    public void holdsWithoutDemand() {
+        ConcurrencyController controller = new ConcurrencyController(1, 4, INTERVAL, mClock);
+        assertDecision(window(controller, 100 * KB, 50L, false), 1, 1, ConcurrencyController.REASON_HOLD);
+        assertDecision(window(controller, 200 * KB, 50L, false), 1, 1, ConcurrencyController.REASON_HOLD);
+    }
+
+    @Test
+    public void waitsForSampleInterval() {
+        ConcurrencyController controller = new ConcurrencyController(1, 4, INTERVAL, mClock);
+        controller.onTransferred(100 * KB);
+        mClock.advance(INTERVAL - 1L);
+        assertFalse(controller.evaluate(true));
+        assertTrue(controller.getDecisions().isEmpty());
+        mClock.advance(1L);
+        assertTrue(controller.evaluate(true));
+        assertEquals(2, controller.getLimit());
+    }
+
+    @Test
+    public void backsOffOnLatencyAndClampsToMin() {
+        ConcurrencyController controller = new ConcurrencyController(1, 8, INTERVAL, mClock);
+        window(controller, 100 * KB, 50L, true);
+        window(controller, 200 * KB, 50L, true);
+        window(controller, 300 * KB, 50L, true);
+        assertEquals(4, controller.getLimit());
+        assertDecision(window(controller, 400 * KB, 200L, true), 4, 3, ConcurrencyController.REASON_LATENCY);
+        assertDecision(window(controller, 400 * KB, 200L, true), 3, 2, ConcurrencyController.REASON_LATENCY);
+        assertDecision(window(controller, 400 * KB, 200L, true), 2, 1, ConcurrencyController.REASON_LATENCY);
+        assertDecision(window(controller, 400 * KB, 200L, true), 1, 1, ConcurrencyController.REASON_LATENCY);
+        assertEquals(1, controller.getLimit());
+    }
+
+    @Test
+    public void backsOffWhenThroughputDropsAfterIncrease() {
+        ConcurrencyController controller = new ConcurrencyController(1, 8, INTERVAL, mClock);
+        window(controller, 100 * KB, 0L, true);
+        window(controller, 200 * KB, 0L, true);
+        assertEquals(3, controller.getLimit());
+        assertDecision(window(controller, 100 * KB, 0L, true), 3, 2, ConcurrencyController.REASON_THROUGHPUT_DROP);
+    }
+
+    @Test
+    public void stepsBackAndHoldsWhenIncreaseHasNoGain() {
+        ConcurrencyController controller = new ConcurrencyController(1, 8, INTERVAL, mClock);
+        window(controller, 100 * KB, 0L, true);
+        window(controller, 200 * KB, 0L, true);
+        assertEquals(3, controller.getLimit());
+        assertDecision(window(controller, 205 * KB, 0L, true), 3, 2, ConcurrencyController.REASON_NO_GAIN);
+        for (int i = 0; i < 4; i++) {
+            assertDecision(window(controller, 205 * KB, 0L, true), 2, 2, ConcurrencyController.REASON_HOLD);
+        }
+        assertDecision(window(controller, 205 * KB, 0L, true), 2, 3, ConcurrencyController.REASON_INCREASE);
+    }
+
+    @Test
+    public void replayingTheSameTraceGivesTheSameDecisions() {
+        long[][] trace = {
+                {100 * KB, 50L}, {200 * KB, 50L}, {300 * KB, 60L}, {310 * KB, 55L}, {320 * KB, 50L},
+                {150 * KB, 300L}, {200 * KB, 60L}, {400 * KB, 50L}, {500 * KB, 50L}, {200 * KB, 50L}
+        };
+        List<ConcurrencyController.Decision> first = replay(trace);
+        List<ConcurrencyController.Decision> second = replay(trace);
+        assertEquals(trace.length, first.size());
+        assertEquals(first.size(), second.size());
+        for (int i = 0; i < first.size(); i++) {
+            assertEquals(first.get(i).toString(), second.get(i).toString());
+        }
+    }
+
+    private List<ConcurrencyController.Decision> replay(long[][] trace) {
+        FakeClock clock = new FakeClock();
+        ConcurrencyController controller = new ConcurrencyController(1, 6, INTERVAL, clock);
+        for (long[] sample : trace) {
+            controller.onTransferred(sample[0]);
+            controller.onLatency(sample[1]);
+            clock.advance(INTERVAL);
+            controller.evaluate(true);
+        }
+        return controller.getDecisions();
+    }
+
+    /**
+     * 一个周期内写入 bytes 字节，请求延迟为 latency（为0时没有请求），周期结束时调整
+     */
+    private ConcurrencyController.Decision window(ConcurrencyController controller, long bytes, long latency, boolean demand) {
+        controller.onTransferred(bytes);
+        if (latency > 0L) {
+            controller.onLatency(latency);
+        }
+        mClock.advance(INTERVAL);
+        controller.evaluate(demand);
+        List<ConcurrencyController.Decision> decisions = controller.getDecisions();
+        return decisions.get(decisions.size() - 1);
+    }
+
+    private static void assertDecision(ConcurrencyController.Decision decision, int from, int to, String reason) {
+        assertEquals(decision.toString(), reason, decision.reason);
+        assertEquals(decision.toString(), from, decision.from);
+        assertEquals(decision.toString(), to, decision.to);
+    }
+
+    private static final class FakeClock implements ConcurrencyController.Clock {
+
+        private long mNow = 10000L;
+
+        void advance(long millis) {
+            mNow += millis;
+        }
+
+        @Override
+        public long elapsedRealtime() {
+            return mNow;
+        }
+    }
+}
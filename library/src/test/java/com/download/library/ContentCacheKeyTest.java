@@ -0,0 +1,37 @@
+package com.download.library;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+
+/**
+ * ETag只在同一服务端内唯一，不同host相同ETag与长度的内容不能共用缓存
+ */
+public class ContentCacheKeyTest {
+
+    @Before
+    public void setUp() {
+        Runtime.getInstance().setDebug(false);
+    }
+
+    @Test
+    public void etagKeyIsScopedToOrigin() {
+        String etag = "\"5f3e-1024\"";
+        String a = ContentCache.etagKey("https://a.example.com/app.apk", etag, 1024L);
+        String b = ContentCache.etagKey("https://b.example.com/app.apk", etag, 1024L);
+        assertFalse(a.equals(b));
+        assertEquals(a, ContentCache.etagKey("https://A.example.com:443/other/app.apk", etag, 1024L));
+        assertFalse(a.equals(ContentCache.etagKey("http://a.example.com/app.apk", etag, 1024L)));
+    }
+
+    @Test
+    public void rejectsWeakOrUnscopedEtag() {
+        assertNull(ContentCache.etagKey("https://a.example.com/app.apk", "W/\"5f3e\"", 1024L));
+        assertNull(ContentCache.etagKey("https://a.example.com/app.apk", "\"5f3e\"", 0L));
+        assertNull(ContentCache.etagKey("data:text/plain;base64,AAAA", "\"5f3e\"", 1024L));
+        assertNull(ContentCache.etagKey(null, "\"5f3e\"", 1024L));
+    }
+}
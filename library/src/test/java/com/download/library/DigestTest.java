@@ -0,0 +1,145 @@
+package com.download.library;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Locale;
+import java.util.Random;
+import java.util.zip.CRC32;
+import java.util.zip.Checksum;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+/**
+ * CRC32、CRC32C 在随机位置导出并恢复状态（合并走 crc32_combine）后结果不变，
+ * CRC32 与 {@link CRC32} 对比，CRC32C 与逐位计算的参考实现对比
+ */
+public class DigestTest {
+
+    private static final int CRC32C_POLY = 0x82f63b78;
+    private final Random mRandom = new Random(20261018L);
+
+    @Before
+    public void setUp() {
+        Runtime.getInstance().setDebug(false);
+    }
+
+    @Test
+    public void knownVectors() {
+        byte[] check = "123456789".getBytes();
+        assertEquals("cbf43926", digest(Digest.CRC32, check));
+        assertEquals("e3069283", digest(Digest.CRC32C, check));
+        Digest.Crc32c crc32c = new Digest.Crc32c();
+        crc32c.update(check, 0, check.length);
+        assertEquals(0xe3069283L, crc32c.getValue());
+    }
+
+    @Test
+    public void crc32cTableMatchesReference() {
+        for (int round = 0; round < 200; round++) {
+            byte[] data = randomData();
+            Digest.Crc32c crc32c = new Digest.Crc32c();
+            int offset = 0;
+            while (offset < data.length) {
+                int length = Math.min(data.length - offset, mRandom.nextInt(40));
+                crc32c.update(data, offset, length);
+                offset += length;
+            }
+            assertEquals(referenceCrc32c(data), crc32c.getValue());
+        }
+    }
+
+    @Test
+    public void crc32MatchesChecksumAcrossRestores() {
+        for (int round = 0; round < 200; round++) {
+            byte[] data = randomData();
+            CRC32 crc32 = new CRC32();
+            crc32.update(data, 0, data.length);
+            assertEquals(hex(crc32.getValue()), digestWithRestores(Digest.CRC32, data));
+        }
+    }
+
+    @Test
+    public void crc32cMatchesReferenceAcrossRestores() {
+        for (int round = 0; round < 200; round++) {
+            byte[] data = randomData();
+            assertEquals(hex(referenceCrc32c(data)), digestWithRestores(Digest.CRC32C, data));
+        }
+    }
+
+    @Test
+    public void combineMatchesWholeChecksum() {
+        for (int round = 0; round < 100; round++) {
+            byte[] data = randomData();
+            int split = data.length == 0 ? 0 : mRandom.nextInt(data.length + 1);
+            Checksum first = new CRC32();
+            first.update(data, 0, split);
+            Checksum second = new CRC32();
+            second.update(data, split, data.length - split);
+            CRC32 whole = new CRC32();
+            whole.update(data, 0, data.length);
+            assertEquals(whole.getValue(), Digest.combine(first.getValue(), second.getValue(), data.length - split, 0xedb88320));
+
+            first = new Digest.Crc32c();
+            first.update(data, 0, split);
+            second = new Digest.Crc32c();
+            second.update(data, split, data.length - split);
+            assertEquals(referenceCrc32c(data), Digest.combine(first.getValue(), second.getValue(), data.length - split, CRC32C_POLY));
+        }
+    }
+
+    @Test
+    public void rejectsInvalidState() {
+        assertNull(Digest.restore(Digest.CRC32, new byte[15]));
+        assertNull(Digest.restore(Digest.CRC32C, null));
+        assertNull(Digest.restore(Digest.SHA256, new byte[16]));
+    }
+
+    /**
+     * 随机切分数据，每段之后随机导出并恢复状态
+     */
+    private String digestWithRestores(String algorithm, byte[] data) {
+        Digest digest = Digest.create(algorithm);
+        int offset = 0;
+        while (offset < data.length) {
+            int length = Math.min(data.length - offset, mRandom.nextInt(300));
+            digest.update(data, offset, length);
+            offset += length;
+            if (mRandom.nextBoolean()) {
+                digest = Digest.restore(algorithm, digest.exportState());
+                assertNotNull(digest);
+                assertEquals(offset, digest.getLength());
+            }
+        }
+        return digest.hexDigest();
+    }
+
+    private byte[] randomData() {
+        byte[] data = new byte[mRandom.nextInt(3000)];
+        mRandom.nextBytes(data);
+        return data;
+    }
+
+    private static String digest(String algorithm, byte[] data) {
+        Digest digest = Digest.create(algorithm);
+        digest.update(data, 0, data.length);
+        return digest.hexDigest();
+    }
+
+    private static String hex(long value) {
+        return String.format(Locale.US, "%08x", value);
+    }
+
+    private static long referenceCrc32c(byte[] data) {
+        int crc = 0xffffffff;
+        for (byte b : data) {
+            crc ^= b & 0xff;
+            for (int i = 0; i < 8; i++) {
+                crc = (crc & 1) != 0 ? (crc >>> 1) ^ CRC32C_POLY : crc >>> 1;
+            }
+        }
+        return ~crc & 0xffffffffL;
+    }
+}
@@ -0,0 +1,94 @@
+package com.download.library;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * 整组任务完成后触发完成并从 {@link TaskRegistry} 中移除
+ */
+public class DownloadGroupTest {
+
+    private static final int SIZE = 3;
+    private final List<DownloadTask> mTasks = new ArrayList<>();
+
+    @Before
+    public void setUp() {
+        Runtime.getInstance().setDebug(false);
+    }
+
+    @After
+    public void tearDown() {
+        for (DownloadTask downloadTask : mTasks) {
+            TaskRegistry.getInstance().removeRunning(downloadTask.getUrl());
+        }
+    }
+
+    @Test
+    public void groupCompletesAndIsRemovedFromRegistry() throws Exception {
+        final DownloadGroup group = new DownloadGroup(null);
+        for (int i = 0; i < SIZE; i++) {
+            final DownloadTask downloadTask = new DownloadTask();
+            downloadTask.setUrl("http://example.com/group/" + i);
+            downloadTask.mGroup = group;
+            group.add(downloadTask);
+            TaskRegistry.getInstance().addRunning(downloadTask.getUrl(), new ExecuteTask() {
+                @Override
+                public DownloadTask cancelDownload() {
+                    return downloadTask;
+                }
+
+                @Override
+                public DownloadTask pauseDownload() {
+                    return downloadTask;
+                }
+
+                @Override
+                public DownloadTask getDownloadTask() {
+                    return downloadTask;
+                }
+            });
+            downloadTask.setStatus(DownloadTask.STATUS_DOWNLOADING);
+            mTasks.add(downloadTask);
+        }
+        assertEquals(SIZE, TaskRegistry.getInstance().getTasks(group, DownloadTask.STATUS_DOWNLOADING).size());
+
+        Thread waiter = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    group.await();
+                } catch (InterruptedException ignore) {
+                }
+            }
+        });
+        waiter.setDaemon(true);
+        waiter.start();
+
+        for (int i = 0; i < SIZE; i++) {
+            DownloadTask downloadTask = mTasks.get(i);
+            downloadTask.setStatus(DownloadTask.STATUS_SUCCESSFUL);
+            // 与 DownloadTaskOver 的顺序一致：先通知合并的请求，再完成任务
+            downloadTask.removeSubscribers();
+            DownloadSubmitterImpl.onCompleted(downloadTask);
+            if (i < SIZE - 1) {
+                assertFalse(group.isCompleted());
+                assertEquals(i + 1, TaskRegistry.getInstance().getTasks(group, DownloadTask.STATUS_SUCCESSFUL).size());
+            }
+        }
+
+        waiter.join(2000L);
+        assertFalse("await() should return once every task completed", waiter.isAlive());
+        assertTrue(group.isCompleted());
+        assertEquals(SIZE, group.getCompletedCount());
+        assertEquals(SIZE, group.getSuccessfulCount());
+        assertEquals(0, TaskRegistry.getInstance().getTasks(group, DownloadTask.STATUS_SUCCESSFUL).size());
+    }
+}
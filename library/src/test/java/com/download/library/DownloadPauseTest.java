@@ -0,0 +1,51 @@
+package com.download.library;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * 还没有开始下载的任务被暂停后不会再进入排队
+ */
+public class DownloadPauseTest {
+
+    @Before
+    public void setUp() {
+        Runtime.getInstance().setDebug(false);
+    }
+
+    @Test
+    public void pauseBeforeQueuedStopsTheTask() {
+        DownloadTask downloadTask = new DownloadTask();
+        downloadTask.setUrl("http://example.com/pause/new");
+        Downloader downloader = (Downloader) Downloader.create(downloadTask);
+        assertEquals(DownloadTask.STATUS_NEW, downloadTask.getStatus());
+        assertSame(downloadTask, downloader.pauseDownload());
+        assertEquals(DownloadTask.STATUS_PAUSING, downloadTask.getStatus());
+        assertFalse(downloadTask.pendingIfNotStopped());
+        assertEquals(DownloadTask.STATUS_PAUSING, downloadTask.getStatus());
+    }
+
+    @Test
+    public void pauseWhilePendingStopsTheTask() {
+        DownloadTask downloadTask = new DownloadTask();
+        downloadTask.setUrl("http://example.com/pause/pending");
+        Downloader downloader = (Downloader) Downloader.create(downloadTask);
+        assertTrue(downloadTask.pendingIfNotStopped());
+        assertSame(downloadTask, downloader.pauseDownload());
+        assertEquals(DownloadTask.STATUS_PAUSING, downloadTask.getStatus());
+    }
+
+    @Test
+    public void cancelledTaskIsNotQueued() {
+        DownloadTask downloadTask = new DownloadTask();
+        downloadTask.setUrl("http://example.com/pause/cancel");
+        downloadTask.cancel();
+        assertFalse(downloadTask.pendingIfNotStopped());
+        assertEquals(DownloadTask.STATUS_CANCELED, downloadTask.getStatus());
+    }
+}
@@ -0,0 +1,84 @@
+package com.download.library;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * {@link RateLimiter} 的令牌补充与突发上限，时间由自定义 {@link ConcurrencyController.Clock} 控制
+ */
+public class RateLimiterTest {
+
+    private static final long RATE = 1000L;
+
+    private long mNow;
+    private final ConcurrencyController.Clock mClock = new ConcurrencyController.Clock() {
+        @Override
+        public long elapsedRealtime() {
+            return mNow;
+        }
+    };
+
+    @Before
+    public void setUp() {
+        Runtime.getInstance().setDebug(false);
+        mNow = 10000L;
+    }
+
+    @Test
+    public void unlimitedNeverWaits() {
+        RateLimiter rateLimiter = new RateLimiter(0L, mClock);
+        for (int i = 0; i < 100; i++) {
+            assertEquals(0L, rateLimiter.reserve(1024 * 1024));
+        }
+    }
+
+    @Test
+    public void startsWithOneSecondBurst() {
+        RateLimiter rateLimiter = new RateLimiter(RATE, mClock);
+        assertEquals(0L, rateLimiter.reserve(600));
+        assertEquals(0L, rateLimiter.reserve(400));
+        // 令牌用完后透支，按透支量等待
+        assertEquals(500L, rateLimiter.reserve(500));
+        assertEquals(1000L, rateLimiter.reserve(500));
+    }
+
+    @Test
+    public void refillsByElapsedTime() {
+        RateLimiter rateLimiter = new RateLimiter(RATE, mClock);
+        assertEquals(0L, rateLimiter.reserve(1000));
+        assertEquals(500L, rateLimiter.reserve(500));
+        mNow += 500L;
+        assertEquals(100L, rateLimiter.reserve(100));
+        mNow += 100L;
+        assertEquals(0L, rateLimiter.reserve(0));
+        mNow += 250L;
+        assertEquals(0L, rateLimiter.reserve(250));
+        assertEquals(1L, rateLimiter.reserve(1));
+    }
+
+    @Test
+    public void idleTimeIsCappedAtBurst() {
+        RateLimiter rateLimiter = new RateLimiter(RATE, mClock);
+        assertEquals(0L, rateLimiter.reserve(1000));
+        mNow += 60L * 1000L;
+        long passed = 0L;
+        while (rateLimiter.reserve(100) == 0L) {
+            passed += 100L;
+        }
+        // 空闲一分钟最多积攒1秒的令牌
+        assertEquals(RATE, passed);
+    }
+
+    @Test
+    public void setRateTakesEffectImmediately() {
+        RateLimiter rateLimiter = new RateLimiter(RATE, mClock);
+        rateLimiter.setRate(100L);
+        assertEquals(100L, rateLimiter.getRate());
+        assertEquals(0L, rateLimiter.reserve(100));
+        assertEquals(1000L, rateLimiter.reserve(100));
+        rateLimiter.setRate(0L);
+        assertEquals(0L, rateLimiter.reserve(100 * 1024));
+    }
+}
@@ -0,0 +1,91 @@
+package com.download.library;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.security.MessageDigest;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+/**
+ * 在随机位置切分数据、导出并恢复状态后继续计算，结果与 {@link MessageDigest} 一致
+ */
+public class ResumableMd5Test {
+
+    private final Random mRandom = new Random(20261018L);
+
+    @Before
+    public void setUp() {
+        Runtime.getInstance().setDebug(false);
+    }
+
+    @Test
+    public void knownVectors() {
+        assertEquals("d41d8cd98f00b204e9800998ecf8427e", md5(""));
+        assertEquals("900150983cd24fb0d6963f7d28e17f72", md5("abc"));
+        assertEquals("9e107d9d372bb6826bd81d3542a419d6", md5("The quick brown fox jumps over the lazy dog"));
+    }
+
+    @Test
+    public void matchesMessageDigestAtRandomSplits() throws Exception {
+        for (int round = 0; round < 200; round++) {
+            byte[] data = new byte[mRandom.nextInt(4096)];
+            mRandom.nextBytes(data);
+            Digest digest = Digest.create(Digest.MD5);
+            int offset = 0;
+            while (offset < data.length) {
+                int length = Math.min(data.length - offset, mRandom.nextInt(200));
+                digest.update(data, offset, length);
+                offset += length;
+                if (mRandom.nextBoolean()) {
+                    digest = Digest.restore(Digest.MD5, digest.exportState());
+                    assertNotNull(digest);
+                    assertEquals(offset, digest.getLength());
+                }
+            }
+            assertEquals("length " + data.length, expected(data), digest.hexDigest());
+        }
+    }
+
+    @Test
+    public void hexDigestDoesNotChangeState() throws Exception {
+        byte[] data = new byte[1000];
+        mRandom.nextBytes(data);
+        Digest digest = Digest.create(Digest.MD5);
+        for (int i = 0; i < data.length; i += 100) {
+            digest.update(data, i, 100);
+            digest.hexDigest();
+        }
+        assertEquals(expected(data), digest.hexDigest());
+    }
+
+    @Test
+    public void rejectsInvalidState() {
+        Digest digest = Digest.create(Digest.MD5);
+        digest.update(new byte[10], 0, 10);
+        byte[] state = digest.exportState();
+        byte[] truncated = new byte[state.length - 1];
+        System.arraycopy(state, 0, truncated, 0, truncated.length);
+        assertNull(Digest.restore(Digest.MD5, truncated));
+        assertNull(Digest.restore(Digest.MD5, null));
+    }
+
+    private static String md5(String text) {
+        byte[] bytes = text.getBytes();
+        Digest digest = Digest.create(Digest.MD5);
+        digest.update(bytes, 0, bytes.length);
+        return digest.hexDigest();
+    }
+
+    private static String expected(byte[] data) throws Exception {
+        byte[] digest = MessageDigest.getInstance("MD5").digest(data);
+        StringBuilder builder = new StringBuilder();
+        for (byte b : digest) {
+            builder.append(String.format("%02x", b & 0xff));
+        }
+        return builder.toString();
+    }
+}